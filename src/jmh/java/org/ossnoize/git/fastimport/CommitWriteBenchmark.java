@@ -0,0 +1,75 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.ossnoize.git.fastimport;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ossnoize.git.fastimport.enumeration.GitFileType;
+import org.ossnoize.git.fastimport.exception.InvalidPathException;
+
+/**
+ * Serialization of a commit with its file operations, one commit is written
+ * for each revision date of a label.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommitWriteBenchmark {
+
+	@Param({ "1", "100", "10000" })
+	int operations;
+
+	private Commit commit;
+	private NullOutputStream out;
+
+	@Setup
+	public void setup() throws IOException, InvalidPathException {
+		commit = new Commit("John Doe", "john.doe@example.com", "Fix the build of the release [CR1234]",
+				"master", new Date(1500000000000L));
+		commit.setAuthorDate(new Date(1499999000000L));
+		commit.setFromRef(MarkID.valueOf(1));
+		for (int i = 0; i < operations; i++) {
+			FileModification modification = new FileModification(MarkID.valueOf(i + 2));
+			modification.setFileType(GitFileType.Normal);
+			modification.setPath("src/module" + (i % 50) + "/package/File" + i + ".java");
+			commit.addFileOperation(modification);
+		}
+		out = new NullOutputStream();
+	}
+
+	@Benchmark
+	public long writeTo() throws IOException {
+		commit.writeTo(out);
+		return out.getCount();
+	}
+}
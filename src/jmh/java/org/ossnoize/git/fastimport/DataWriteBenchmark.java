@@ -0,0 +1,91 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.ossnoize.git.fastimport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization of the content of a blob, kept in memory or checked out in a
+ * file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataWriteBenchmark {
+
+	@Param({ "1024", "1048576" })
+	int size;
+
+	private Data inMemory;
+	private Data fileBacked;
+	private File content;
+	private NullOutputStream out;
+
+	@Setup
+	public void setup() throws IOException {
+		byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		inMemory = new Data();
+		inMemory.writeData(bytes);
+		content = File.createTempFile("DataWriteBenchmark", ".bin");
+		FileOutputStream file = new FileOutputStream(content);
+		try {
+			file.write(bytes);
+		} finally {
+			file.close();
+		}
+		fileBacked = new Data(content);
+		out = new NullOutputStream();
+	}
+
+	@TearDown
+	public void tearDown() {
+		content.delete();
+	}
+
+	@Benchmark
+	public long inMemory() throws IOException {
+		inMemory.writeTo(out);
+		return out.getCount();
+	}
+
+	@Benchmark
+	public long fileBacked() throws IOException {
+		fileBacked.writeTo(out);
+		return out.getCount();
+	}
+}
@@ -0,0 +1,77 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.ossnoize.git.fastimport;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ossnoize.git.fastimport.enumeration.GitFileType;
+import org.ossnoize.git.fastimport.exception.InvalidPathException;
+
+/**
+ * Serialization of a file modification, by mark as the importer writes them
+ * and with the content inline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileModificationWriteBenchmark {
+
+	private FileModification byMark;
+	private FileModification inline;
+	private NullOutputStream out;
+
+	@Setup
+	public void setup() throws IOException, InvalidPathException {
+		byMark = new FileModification(MarkID.valueOf(123456));
+		byMark.setFileType(GitFileType.Normal);
+		byMark.setPath("src/main/java/org/example/project/SomeClass.java");
+		Data content = new Data();
+		content.writeData("public class SomeClass {\n}\n".getBytes("UTF-8"));
+		inline = new FileModification(content);
+		inline.setFileType(GitFileType.Executable);
+		inline.setPath("tools/build script.sh");
+		out = new NullOutputStream();
+	}
+
+	@Benchmark
+	public long byMark() throws IOException {
+		byMark.writeTo(out);
+		return out.getCount();
+	}
+
+	@Benchmark
+	public long inline() throws IOException {
+		inline.writeTo(out);
+		return out.getCount();
+	}
+}
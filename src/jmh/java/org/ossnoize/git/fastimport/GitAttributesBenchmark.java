@@ -0,0 +1,88 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.ossnoize.git.fastimport;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and serialization of the .gitattributes of a head. The file is
+ * parsed when a head is read back and serialized after each change.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GitAttributesBenchmark {
+
+	@Param({ "10", "1000", "50000" })
+	int entries;
+
+	private byte[] file;
+	private GitAttributes attributes;
+	private boolean toggle;
+
+	@Setup
+	public void setup() {
+		StringBuilder content = new StringBuilder("#Generated by st2git\n");
+		for (int i = 0; i < entries; i++) {
+			content.append("src/module").append(i % 50).append("/File").append(i).append(".java");
+			content.append(i % 3 == 0 ? " eol=crlf\n" : " eol=lf\n");
+		}
+		file = content.toString().getBytes(StandardCharsets.UTF_8);
+		attributes = new GitAttributes();
+		attributes.parse(new ByteArrayInputStream(file));
+	}
+
+	@Benchmark
+	public GitAttributes parse() {
+		GitAttributes parsed = new GitAttributes();
+		parsed.parse(new ByteArrayInputStream(file));
+		return parsed;
+	}
+
+	/**
+	 * The serialized file is cached, one attribute changes before each
+	 * serialization as when a revision is imported.
+	 */
+	@Benchmark
+	public String toStringAfterChange() {
+		toggle = !toggle;
+		if (toggle) {
+			attributes.addAttributeToPath("src/module0/File0.java", GitAttributeKind.Binary);
+		} else {
+			attributes.removeAttributeFromPath("src/module0/File0.java", GitAttributeKind.Binary);
+		}
+		return attributes.toString();
+	}
+}
@@ -0,0 +1,215 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.util;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Comparison of the revisions grouped in the same commit, done for each pair
+ * of neighbour revisions of a label. The comments are generated like the ones
+ * of a Starteam history: short and long ones, on several lines, with tabs,
+ * CRLF, full width punctuation and spaces, review links and TD numbers, and
+ * the same comment typed again with other spaces and punctuation.
+ *
+ * <code>regex</code> is the comparison as it was done before the keys were
+ * computed with the commit information, on the same pairs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommitInformationBenchmark {
+
+	private static final int REVISIONS = 1024;
+
+	private static final String[] SUBJECTS = {
+		"Fix the report export",
+		"修复报表导出时的空指针",
+		"Merge from unknown branch",
+		"Update the translations",
+		"重构登录模块, 删除无用代码",
+		"Add the validation of the order form",
+		"Performance: cache the customer lookup",
+		"",
+	};
+	private static final String[] DETAILS = {
+		"The exporter failed when the period had no entry.",
+		"原因：缓存未清空；\r\n处理：在保存后刷新缓存。",
+		"- check the amount\n- check the currency\n- log the rejected orders",
+		"Reviewed with the team, see the attached document for the details of the new rules.",
+	};
+	private static final String[] PATHS = {
+		"src/main/java/com/example/report/ReportExporter.java",
+		"src/main/java/com/example/order/OrderForm.java",
+		"web/login/login.jsp",
+		"doc/UpdateList_Frontend.xls",
+		"doc/UpdateList_Backend.xls",
+		"resources/i18n/messages_zh_CN.properties",
+	};
+
+	private final List<String> comments = new ArrayList<String>();
+	private final List<String> paths = new ArrayList<String>();
+	private final List<Date> dates = new ArrayList<Date>();
+	private final List<Integer> uids = new ArrayList<Integer>();
+	private CommitInformation[] revisions;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		long time = 1500000000000L;
+		String comment = null;
+		for (int i = 0; i < REVISIONS; i++) {
+			// most neighbours are the same check-in typed again
+			if (null == comment || random.nextInt(3) == 0) {
+				comment = comment(random);
+			}
+			time += random.nextInt(4) == 0 ? 7200000 : random.nextInt(600000);
+			comments.add(retype(comment, random));
+			paths.add(PATHS[random.nextInt(PATHS.length)]);
+			dates.add(new Date(time));
+			uids.add(random.nextInt(8) == 0 ? 7 : 42);
+		}
+		revisions = create();
+	}
+
+	private static String comment(Random random) {
+		StringBuilder comment = new StringBuilder(SUBJECTS[random.nextInt(SUBJECTS.length)]);
+		if (random.nextBoolean()) {
+			comment.append(" TD ").append(1000 + random.nextInt(9000)).append(' ');
+		}
+		int details = random.nextInt(4);
+		for (int i = 0; i < details; i++) {
+			comment.append(random.nextBoolean() ? "\r\n" : "\n").append(DETAILS[random.nextInt(DETAILS.length)]);
+		}
+		if (random.nextInt(4) == 0) {
+			comment.append("\nReview Link : http://10.0.5.169/r/").append(random.nextInt(5000)).append('/');
+		}
+		return comment.toString();
+	}
+
+	/**
+	 * The same comment with other spaces and punctuation, as done when a
+	 * comment is pasted again for the next file.
+	 */
+	private static String retype(String comment, Random random) {
+		StringBuilder retyped = new StringBuilder(comment.length() + 8);
+		for (int i = 0; i < comment.length(); i++) {
+			char c = comment.charAt(i);
+			if (c == ' ' && random.nextInt(8) == 0) {
+				retyped.append(random.nextBoolean() ? "\t" : "　 ");
+			} else if (c == ',' && random.nextInt(4) == 0) {
+				retyped.append('，');
+			} else {
+				retyped.append(c);
+			}
+		}
+		if (random.nextBoolean()) {
+			retyped.append(random.nextBoolean() ? " " : ".");
+		}
+		return retyped.toString();
+	}
+
+	private CommitInformation[] create() {
+		CommitInformation[] created = new CommitInformation[REVISIONS];
+		for (int i = 0; i < REVISIONS; i++) {
+			created[i] = new CommitInformation(dates.get(i), uids.get(i), comments.get(i), paths.get(i));
+		}
+		return created;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(REVISIONS - 1)
+	public int precomputed() {
+		int equivalent = 0;
+		for (int i = 1; i < REVISIONS; i++) {
+			if (revisions[i - 1].equivalent(revisions[i])) {
+				equivalent++;
+			}
+		}
+		return equivalent;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(REVISIONS - 1)
+	public int regex() {
+		int equivalent = 0;
+		for (int i = 1; i < REVISIONS; i++) {
+			if (regexEquivalent(revisions[i - 1], revisions[i])) {
+				equivalent++;
+			}
+		}
+		return equivalent;
+	}
+
+	/**
+	 * The keys are now computed when the revision is created, once for both of
+	 * its comparisons.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(REVISIONS)
+	public CommitInformation[] creation() {
+		return create();
+	}
+
+	@SuppressWarnings("deprecation")
+	private static boolean regexEquivalent(CommitInformation first, CommitInformation info) {
+		if (first.getUid() != info.getUid()) {
+			return false;
+		}
+		if (Math.abs(info.getTime() - first.getTime()) > 3600000) {
+			return false;
+		}
+		String comment = first.getComment();
+		if (comment.length() == 0) {
+			return true;
+		}
+		if (info.getComment().length() == 0) {
+			return true;
+		}
+		if (info.getComment().replaceAll("(\\s+|/|\\pP|\\pZ|(Review Link :))+", "")
+				.equalsIgnoreCase(comment.replaceAll("(\\s+|/|\\pP|\\pZ|(Review Link :))+", ""))) {
+			return true;
+		}
+		if (info.getPath().matches(".*UpdateList.*\\.xls") && info.getTime() >= first.getTime()) {
+			if (info.getComment().contains(" TD ") && comment.contains(" TD ")) {
+				String bugNum1 = info.getComment().replaceAll("(?s).*\\s+TD\\s+(\\S+)\\s+.*", "$1");
+				String bugNum2 = comment.replaceAll("(?s).*\\s+TD\\s+(\\S+)\\s+.*", "$1");
+				return bugNum1.equalsIgnoreCase(bugNum2);
+			}
+			return true;
+		}
+		return false;
+	}
+}
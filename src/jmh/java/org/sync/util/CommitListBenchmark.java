@@ -0,0 +1,83 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.util;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rename of a large folder in the commit list of a label: the earlier commits
+ * of every moved file are dropped and the file is added under its new path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CommitListBenchmark {
+
+	@Param({ "1000", "50000" })
+	int files;
+
+	private CommitList<String> list;
+	private List<String> moved;
+	private Date renameDate;
+
+	@Setup(Level.Invocation)
+	public void setup() {
+		list = new CommitList<String>();
+		moved = new ArrayList<String>(files);
+		long time = 1500000000000L;
+		for (int i = 0; i < files; i++) {
+			String path = "old/module" + (i % 100) + "/File" + i + ".java";
+			moved.add(path);
+			for (int revision = 0; revision < 3; revision++) {
+				Date date = new Date(time + (i * 3L + revision) * 1000L);
+				list.put(new CommitInformation(date, i % 7, "Change " + revision, path), path);
+			}
+			// an unrelated file of the same label
+			list.put(new CommitInformation(new Date(time + i * 3000L), 1, "Other", "other/File" + i + ".java"), "");
+		}
+		renameDate = new Date(time + files * 3000L);
+	}
+
+	@Benchmark
+	public CommitList<String> renameFolder() {
+		for (String path : moved) {
+			list.removeEarlier(path, renameDate);
+			String newPath = "new" + path.substring(3);
+			list.put(new CommitInformation(renameDate, 1, "Moved", newPath), newPath);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,62 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ossnoize.git.fastimport.Sha1Ref;
+import org.sync.util.enumeration.FileStatusStyle;
+
+/**
+ * Parsing of the raw status lines of git log, one line per file of a commit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogEntryBenchmark {
+
+	private static final String MODIFY = ":100644 100644 bcd1234... 0123456... M\tsrc/main/java/org/example/SomeClass.java";
+	private static final String RENAME = ":100644 100644 abcd123... abcd123... R086\tsrc/old/Name.java\tsrc/new/Name.java";
+
+	private final Sha1Ref commit = new Sha1Ref("0123456789abcdef0123456789abcdef01234567");
+
+	@Benchmark
+	public LogEntry modify() {
+		LogEntry entry = new LogEntry(commit);
+		entry.parseStatusLine(FileStatusStyle.GitRaw, MODIFY);
+		return entry;
+	}
+
+	@Benchmark
+	public LogEntry rename() {
+		LogEntry entry = new LogEntry(commit);
+		entry.parseStatusLine(FileStatusStyle.GitRaw, RENAME);
+		return entry;
+	}
+}
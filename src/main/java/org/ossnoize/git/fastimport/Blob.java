@@ -39,6 +39,10 @@ public class Blob implements Markable {
 	public void setData(Data data) {
 		Content = data;
 	}
+
+	public Data getData() {
+		return Content;
+	}
 	
   @Override
 	public void writeTo(OutputStream out) throws IOException {
@@ -20,7 +20,13 @@ public class Commit implements Markable {
 	private final static String COMMITTER = "committer";
 	private final static String FROM_SP = "from ";
 	private final static String MERGE_SP = "merge ";
-	private final static SimpleDateFormat DATEFORMAT = new SimpleDateFormat("Z");
+	// SimpleDateFormat isn't threadsafe, views are imported concurrently
+	private final static ThreadLocal<SimpleDateFormat> DATEFORMAT = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat("Z");
+		}
+	};
 	private final static String headFormat = "refs/heads/{0}{1}";
 
 	private Mark mark;
@@ -104,16 +110,25 @@ public class Commit implements Markable {
 		if(written) {
 			return;
 		}
-		if (null != filesAttributes) {
+		// the attributes are only written when the head doesn't have them yet
+		if (null != filesAttributes && filesAttributes.needsWrite(reference)) {
 			try {
-				Data attributeFile = new Data();
-				attributeFile.writeData(filesAttributes.toString().getBytes("UTF-8"));
-				Blob aMarkedBlob = new Blob(attributeFile);
-				aMarkedBlob.writeTo(out);
-				FileModification attributes = new FileModification(aMarkedBlob);
+				DataRef content = filesAttributes.getWrittenBlob();
+				FileModification attributes;
+				if (null == content) {
+					Data attributeFile = new Data();
+					attributeFile.writeData(filesAttributes.toBytes());
+					Blob aMarkedBlob = new Blob(attributeFile);
+					aMarkedBlob.writeTo(out);
+					attributes = new FileModification(aMarkedBlob);
+					content = aMarkedBlob.getMarkID();
+				} else {
+					attributes = new FileModification(content);
+				}
 				attributes.setFileType(GitFileType.Normal);
 				attributes.setPath(".gitattributes");
 				this.addFileOperation(attributes);
+				filesAttributes.setWritten(reference, content);
 			} catch (InvalidPathException ex) {
 			}
 		}
@@ -129,17 +144,17 @@ public class Commit implements Markable {
 			}
 			commitMsg.append(AUTHOR).append(' ').append(authorName).append(' ')
 					 .append('<').append(authorEmail).append('>').append(' ')
-					 .append(date.getTime() / 1000).append(' ').append(DATEFORMAT.format(date))
+					 .append(date.getTime() / 1000).append(' ').append(DATEFORMAT.get().format(date))
 					 .append('\n');
 		} else if (null != authorDate) {
 			commitMsg.append(AUTHOR).append(' ').append(commiterName).append(' ')
 			 .append('<').append(commiterEmail).append('>').append(' ')
-			 .append(authorDate.getTime() / 1000).append(' ').append(DATEFORMAT.format(authorDate))
+			 .append(authorDate.getTime() / 1000).append(' ').append(DATEFORMAT.get().format(authorDate))
 			 .append('\n');			
 		}
 		commitMsg.append(COMMITTER).append(' ').append(commiterName).append(' ')
 				 .append('<').append(commiterEmail).append('>').append(' ')
-				 .append(commitDate.getTime() / 1000).append(' ').append(DATEFORMAT.format(commitDate))
+				 .append(commitDate.getTime() / 1000).append(' ').append(DATEFORMAT.get().format(commitDate))
 				 .append('\n');
 		out.write(commitMsg.toString().getBytes("UTF-8"));
 		comment.writeTo(out);
@@ -176,6 +191,56 @@ public class Commit implements Markable {
 	public void resumeOnTopOfRef() {
 		resumeFastImport = true;
 	}
+
+	public boolean isResumingOnTopOfRef() {
+		return resumeFastImport;
+	}
+
+	public String getAuthorName() {
+		return authorName;
+	}
+
+	public String getAuthorEmail() {
+		return authorEmail;
+	}
+
+	public String getCommitterName() {
+		return commiterName;
+	}
+
+	public String getCommitterEmail() {
+		return commiterEmail;
+	}
+
+	public Date getAuthorDate() {
+		return authorDate;
+	}
+
+	public Data getComment() {
+		return comment;
+	}
+
+	/**
+	 * @return the commit this one is based on, either the reference or the
+	 *         previous commit. Null if none was set.
+	 */
+	public DataRef getFrom() {
+		if(null != fromRef) {
+			return fromRef;
+		}
+		return from;
+	}
+
+	public DataRef getMerge() {
+		return merge;
+	}
+
+	/**
+	 * Mark the commit as stored by a backend writing the objects itself.
+	 */
+	public void setWritten() {
+		written = true;
+	}
 	
 	public List<FileOperation> getFileOperation() {
 		return new ArrayList<FileOperation>(listOfOperation.values());
@@ -16,11 +16,15 @@
 ******************************************************************************/
 package org.ossnoize.git.fastimport;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 public class Data implements FastImportObject {
 	private static final String DATA = "data";
@@ -45,9 +49,45 @@ public class Data implements FastImportObject {
 	public void writeData(byte[] array) throws IOException {
 		Container.write(array);
 	}
+
+	/**
+	 * @return the size of the content
+	 */
+	public long getLength() throws IOException {
+		if(null != Container) {
+			return Container.size();
+		}
+		return file.length();
+	}
+
+	/**
+	 * Open the content for a backend storing the objects itself instead of
+	 * writing them in a fast-import stream.
+	 */
+	public InputStream openStream() throws IOException {
+		if(null != Container) {
+			return new ByteArrayInputStream(Container.toByteArray());
+		}
+		return new FileInputStream(file);
+	}
 	
 	@Override
 	public void writeTo(OutputStream out) throws IOException {
+		if(null == Container && out instanceof FileContentSink) {
+			// Let the stream transfer the file content itself
+			FileChannel content = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			long size;
+			try {
+				size = content.size();
+				out.write((DATA + " " + size + "\n").getBytes());
+			} catch (IOException e) {
+				content.close();
+				throw e;
+			}
+			((FileContentSink) out).writeFile(content, size);
+			out.write('\n');
+			return;
+		}
 		StringBuilder builder = new StringBuilder();
 		builder.append(DATA).append(" ");
 		if(null != Container) {
@@ -0,0 +1,39 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.ossnoize.git.fastimport;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * A fast-import stream able to send the content of a file by itself, without
+ * the content being copied through the writer of the stream.
+ */
+public interface FileContentSink {
+
+	/**
+	 * Queue the whole content of the channel at the current position of the
+	 * stream. The sink takes the ownership of the channel and closes it once
+	 * transferred.
+	 *
+	 * @param content
+	 *          an opened channel on the file to send
+	 * @param size
+	 *          the number of bytes to send
+	 */
+	public void writeFile(FileChannel content, long size) throws IOException;
+}
@@ -41,7 +41,7 @@ public class FileDelete extends FileOperation {
 	}
 
 	@Override
-	public MarkID getMark() {
+	public DataRef getMark() {
 		return null;
 	}
 }
@@ -42,6 +42,15 @@ public class FileModification extends FileOperation {
 		Type = FileModificationType.Referenced;
 	}
 	
+	/**
+	 * Reference a content already known by fast-import, either by its mark or
+	 * by its sha1.
+	 */
+	public FileModification(DataRef data) {
+		Content = data;
+		Type = FileModificationType.Referenced;
+	}
+	
 	@Override
 	public void writeTo(OutputStream out) throws IOException {
 		if(null == FileType) {
@@ -65,6 +74,10 @@ public class FileModification extends FileOperation {
 				builder.append(' ').append(marked.getMarkID());
 				builder.append(' ').append(Path).append("\n");
 				out.write(builder.toString().getBytes("UTF-8"));
+			} else if(Content instanceof DataRef) {
+				builder.append(' ').append(((DataRef)Content).getId());
+				builder.append(' ').append(Path).append("\n");
+				out.write(builder.toString().getBytes("UTF-8"));
 			} else {
 				throw new IOException("The content is not a Blob or a markable Git object");
 			}
@@ -78,15 +91,32 @@ public class FileModification extends FileOperation {
 		FileType = type;
 	}
 
+	public GitFileType getFileType() {
+		return FileType;
+	}
+
+	/**
+	 * @return the content of an inline modification, null when the content is
+	 *         referenced.
+	 */
+	public Data getData() {
+		if(Type == FileModificationType.Inline) {
+			return (Data) Content;
+		}
+		return null;
+	}
+
 	@Override
 	public boolean isInline() {
 		return Type == FileModificationType.Inline;
 	}
 
 	@Override
-	public MarkID getMark() {
+	public DataRef getMark() {
 		if(Content instanceof Markable) {
 			return ((Markable)Content).getMarkID();
+		} else if(Content instanceof DataRef) {
+			return (DataRef)Content;
 		}
 		return null;
 	}
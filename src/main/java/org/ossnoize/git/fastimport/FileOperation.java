@@ -45,5 +45,5 @@ public abstract class FileOperation implements FastImportObject {
 	
 	public abstract boolean isInline();
 	
-	public abstract MarkID getMark();
+	public abstract DataRef getMark();
 }
@@ -10,22 +10,59 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
-import java.text.Collator;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import org.sync.Log;
 
 /**
+ * The content of a .gitattributes file, indexed by path.
+ *
+ * Every change increments the version of the attributes. The serialized file
+ * is cached until the next change, and the attributes remember which head and
+ * blob they were last written to, so a commit only writes the file when it
+ * changed.
  *
  * @author steve
  */
 public class GitAttributes {
-  
-  private final Map<String, List<GitAttributeKind>> fileContent = new TreeMap<String, List<GitAttributeKind>>(Collator.getInstance());
+
+  /**
+   * Order of the paths by their UTF-8 bytes, as git sorts them, without the
+   * cost of a locale collation.
+   */
+  private static final Comparator<String> PATH_ORDER = new Comparator<String>() {
+    @Override
+    public int compare(String a, String b) {
+      int length = Math.min(a.length(), b.length());
+      for (int i = 0; i < length; i++) {
+        char ca = a.charAt(i);
+        char cb = b.charAt(i);
+        if (ca != cb) {
+          // surrogate pairs encode the characters after the whole BMP
+          if (Character.isSurrogate(ca) != Character.isSurrogate(cb)) {
+            return Character.isSurrogate(ca) ? 1 : -1;
+          }
+          return ca - cb;
+        }
+      }
+      return a.length() - b.length();
+    }
+  };
+
+  private final Map<String, List<GitAttributeKind>> fileContent = new TreeMap<String, List<GitAttributeKind>>(PATH_ORDER);
   private String topComment = new String();
+  private int version;
+  private int cachedVersion = -1;
+  private String cachedContent;
+  private byte[] cachedBytes;
+  private int writtenVersion = -1;
+  private String writtenReference;
+  private DataRef writtenBlob;
 
   public void parse(InputStream stream) {
     BufferedReader parser = null;
@@ -35,13 +72,13 @@ public class GitAttributes {
       ex.printStackTrace();
     }
     fileContent.clear();
-    topComment = "";
+    StringBuilder comment = new StringBuilder();
     try {
       String line = parser.readLine();
       while (line != null)
       {
         if(line.startsWith("#")) {
-          topComment += line + "\n";
+          comment.append(line).append('\n');
         } else {
           ArrayList<GitAttributeKind> attrList = new ArrayList<GitAttributeKind>();
           line = line.trim();
@@ -68,56 +105,120 @@ public class GitAttributes {
     } catch (IOException ex) {
       Log.logf("Could not parse the git attributes: %s", ex);
     }
+    topComment = comment.toString();
+    version++;
   }
 
   public void setTopLevelComment(String comment) {
-    topComment = "#" + comment.replace("\n", "\n#");
+    String newComment = "#" + comment.replace("\n", "\n#");
+    if (!newComment.equals(topComment)) {
+      topComment = newComment;
+      version++;
+    }
   }
-  
+
   private String escapeSpace(String path) {
 	if (path == null || path.isEmpty())
       return path;
-	
+
 	String newPath = path.replace(" ", "[[:space:]]");
 	return newPath;
   }
-  
+
   public void addAttributeToPath(String path, GitAttributeKind ... allAttributes) {
 	String cleanPath = escapeSpace(path);
-	  
-    if(!fileContent.containsKey(cleanPath)) {
-      fileContent.put(cleanPath, new ArrayList<GitAttributeKind>());
+
+    List<GitAttributeKind> attributes = fileContent.get(cleanPath);
+    if(null == attributes) {
+      attributes = new ArrayList<GitAttributeKind>();
+      fileContent.put(cleanPath, attributes);
+      version++;
+    }
+    for (GitAttributeKind attr : allAttributes) {
+      if (!attributes.contains(attr)) {
+        attributes.add(attr);
+        version++;
+      }
     }
-    ArrayList<GitAttributeKind> tempList = new ArrayList<>(Arrays.asList(allAttributes));
-    tempList.removeAll(fileContent.get(cleanPath));
-    fileContent.get(cleanPath).addAll(tempList);
   }
-  
+
   public void removeAttributeFromPath(String path, GitAttributeKind ... allAttributes){
 	  String cleanPath = escapeSpace(path);
-	  
-	  if(!fileContent.containsKey(cleanPath)){
+
+	  List<GitAttributeKind> attributes = fileContent.get(cleanPath);
+	  if(null == attributes){
 		  return;
 	  }
-	  
-	  fileContent.get(cleanPath).removeAll(Arrays.asList(allAttributes));
+
+	  if (attributes.removeAll(Arrays.asList(allAttributes))) {
+		  version++;
+	  }
   }
-  
+
+  /**
+   * Set the attributes of a path in place of some others, the file only
+   * changes when the attributes of the path are different.
+   * @param path The path of the file
+   * @param replaced The attributes removed from the path
+   * @param allAttributes The attributes of the path
+   */
+  public void replaceAttributesOfPath(String path, GitAttributeKind[] replaced, GitAttributeKind ... allAttributes) {
+    String cleanPath = escapeSpace(path);
+    List<GitAttributeKind> attributes = fileContent.get(cleanPath);
+    if (null == attributes) {
+      if (allAttributes.length > 0) {
+        addAttributeToPath(path, allAttributes);
+      }
+      return;
+    }
+    List<GitAttributeKind> kept = Arrays.asList(allAttributes);
+    for (GitAttributeKind attr : replaced) {
+      if (!kept.contains(attr) && attributes.remove(attr)) {
+        version++;
+      }
+    }
+    for (GitAttributeKind attr : allAttributes) {
+      if (!attributes.contains(attr)) {
+        attributes.add(attr);
+        version++;
+      }
+    }
+  }
+
   @Override
   public String toString() {
-    String ret = topComment.trim();
-    for(Map.Entry<String, List<GitAttributeKind>> entry : fileContent.entrySet()) {
-      ret += "\n" + entry.getKey();
-      for(GitAttributeKind attr : entry.getValue()) {
-        ret += " " + attr.getAttributeType();
+    if (cachedVersion != version) {
+      StringBuilder ret = new StringBuilder(topComment.length() + fileContent.size() * 48);
+      ret.append(topComment.trim());
+      for(Map.Entry<String, List<GitAttributeKind>> entry : fileContent.entrySet()) {
+        ret.append('\n').append(entry.getKey());
+        for(GitAttributeKind attr : entry.getValue()) {
+          ret.append(' ').append(attr.getAttributeType());
+        }
       }
+      cachedContent = ret.toString();
+      cachedBytes = null;
+      cachedVersion = version;
     }
-    return ret;
+    return cachedContent;
+  }
+
+  /**
+   * @return the content of the file in UTF-8, not to be modified.
+   */
+  public byte[] toBytes() {
+    String content = toString();
+    if (null == cachedBytes) {
+      cachedBytes = content.getBytes(StandardCharsets.UTF_8);
+    }
+    return cachedBytes;
   }
 
   public void removePath(String path) {
 	String cleanPath = escapeSpace(path);
-    fileContent.remove(cleanPath);
+    if (null != fileContent.remove(cleanPath)) {
+      version++;
+    }
   }
 
   public boolean pathHasAttributes(String path) {
@@ -125,4 +226,35 @@ public class GitAttributes {
     return fileContent.containsKey(cleanPath);
   }
 
+  /**
+   * @param reference The head of the commit
+   * @return true if the head doesn't have the current content of the file.
+   */
+  public boolean needsWrite(String reference) {
+    return version != writtenVersion || !reference.equals(writtenReference);
+  }
+
+  /**
+   * @return the blob of the current content when it was already written, null
+   *         otherwise.
+   */
+  public DataRef getWrittenBlob() {
+    if (version != writtenVersion) {
+      return null;
+    }
+    return writtenBlob;
+  }
+
+  /**
+   * Record that the current content is the file of a head.
+   * @param reference The head having the content
+   * @param blob The blob of the content, null if the content was read from the
+   *        head
+   */
+  public void setWritten(String reference, DataRef blob) {
+    writtenVersion = version;
+    writtenReference = reference;
+    writtenBlob = blob;
+  }
+
 }
@@ -17,11 +17,14 @@
 package org.ossnoize.git.fastimport;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -35,6 +38,7 @@ public class LFSFilePointer extends Data {
   private MessageDigest mDigester;
   private File mFileToDigest;
   private String mGitBaseFolder;
+  private boolean mPointerReady;
   
   public LFSFilePointer(String baseGitFolder, File temporaryFile) throws NoSuchAlgorithmException {
     super();
@@ -45,42 +49,80 @@ public class LFSFilePointer extends Data {
   
   @Override
   public void writeTo(OutputStream output) throws IOException {
-    FileInputStream largeFile = new FileInputStream(mFileToDigest);
-    long sizeOfLargeFile = mFileToDigest.length();
-    
-    File lfsDir = new File(mGitBaseFolder + File.separator + "lfs" + File.separator + "objects");
-    
-    if (!lfsDir.exists()) {
-      Files.createDirectories(lfsDir.toPath());
+    preparePointer();
+    super.writeTo(output);
+  }
+
+  @Override
+  public long getLength() throws IOException {
+    preparePointer();
+    return super.getLength();
+  }
+
+  @Override
+  public InputStream openStream() throws IOException {
+    preparePointer();
+    return super.openStream();
+  }
+
+  /**
+   * Place the large file in the lfs objects and build the pointer content,
+   * only once.
+   */
+  private void preparePointer() throws IOException {
+    if (mPointerReady) {
+      return;
     }
-    File lfsLargeFile = new File(lfsDir.toString(), "starteam-lfs.tmp");
-    
-    FileOutputStream tempDestination = new FileOutputStream(lfsLargeFile);
-    byte[] buffer = new byte[4096 * 20];
-    
-    int readed = largeFile.read(buffer);
-    while (readed >= 0) {
-      mDigester.update(buffer, 0, readed);
-      tempDestination.write(buffer, 0, readed);
-      
-      readed = largeFile.read(buffer);
+    // Hash the file in a single pass, the content is then linked in place.
+    long sizeOfLargeFile;
+    FileChannel largeFile = FileChannel.open(mFileToDigest.toPath(), StandardOpenOption.READ);
+    try {
+      sizeOfLargeFile = largeFile.size();
+      ByteBuffer buffer = ByteBuffer.allocate(1024 * 256);
+      while (largeFile.read(buffer) >= 0) {
+        buffer.flip();
+        mDigester.update(buffer);
+        buffer.clear();
+      }
+    } finally {
+      largeFile.close();
     }
     
+    File lfsDir = new File(mGitBaseFolder + File.separator + "lfs" + File.separator + "objects");
+    
     byte[] sha256Digest = mDigester.digest();
     String digest = String.format("%064x", new java.math.BigInteger(1, sha256Digest));
     
     File child1 = new File(lfsDir, digest.substring(0, 2));
     File child2 = new File(child1, digest.substring(2, 4));
     if (!child2.exists()) {
-      child2.mkdirs();
+      Files.createDirectories(child2.toPath());
     }
     File finalDestination = new File(child2, digest);
-    lfsLargeFile.renameTo(finalDestination);
+    if (!finalDestination.exists()) {
+      placeObject(finalDestination);
+    }
 
     super.writeData(("version https://git-lfs.github.com/spec/v1\n" +
                      "oid sha256:" + digest + "\n" +
                      "size " + sizeOfLargeFile + "\n").getBytes("UTF-8"));
-    super.writeTo(output);
+    mPointerReady = true;
+  }
+  
+  /**
+   * Put the large file in the lfs objects, with a hard link when the temporary
+   * file is on the same file system and a copy otherwise.
+   */
+  private void placeObject(File destination) throws IOException {
+    try {
+      Files.createLink(destination.toPath(), mFileToDigest.toPath());
+      return;
+    } catch (IOException | UnsupportedOperationException e) {
+      // Not on the same file system, copy it.
+    }
+    File lfsLargeFile = new File(destination.getParentFile(), "starteam-lfs.tmp");
+    Files.copy(mFileToDigest.toPath(), lfsLargeFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    Files.move(lfsLargeFile.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
   }
   
   @Override
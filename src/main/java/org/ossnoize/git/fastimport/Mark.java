@@ -21,14 +21,23 @@ import java.io.OutputStream;
 
 public class Mark implements FastImportObject {
 
+	private static final byte[] MARK_SP = { 'm', 'a', 'r', 'k', ' ' };
+
 	private MarkID ID;
 	
 	public Mark() {
 		ID = MarkID.getNextMarkID();
 	}
+
+	/**
+	 * @param allocator The allocator of the stream the mark is written to
+	 */
+	public Mark(MarkAllocator allocator) {
+		ID = new MarkID(allocator.allocate());
+	}
 	
 	public void writeTo(OutputStream out) throws IOException {
-		out.write("mark ".getBytes());
+		out.write(MARK_SP);
 		ID.writeTo(out);
 		out.write('\n');
 	}
@@ -0,0 +1,88 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.ossnoize.git.fastimport;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocator of the fast-import marks.
+ *
+ * The marks are taken from one space for the whole process, the streams
+ * written in parallel never use the same mark and their marks can be saved in
+ * the same file. An allocator reserves the marks by blocks from that space so
+ * a stream allocates its marks without contention. An allocator is only used
+ * by one thread, each thread has its own unless a mark is given another one.
+ */
+public final class MarkAllocator {
+
+	private static final int BLOCK_SIZE = 1024;
+	// Mark ID 0 is reserved so start at 1
+	private static final AtomicLong space = new AtomicLong(1);
+	// highest mark used by an earlier session
+	private static volatile long floor = 0;
+
+	private static final ThreadLocal<MarkAllocator> current = new ThreadLocal<MarkAllocator>() {
+		@Override
+		protected MarkAllocator initialValue() {
+			return new MarkAllocator();
+		}
+	};
+
+	private long next;
+	private long limit;
+
+	/**
+	 * @return the allocator of the current thread.
+	 */
+	public static MarkAllocator current() {
+		return current.get();
+	}
+
+	/**
+	 * Move the allocation past the marks saved by an earlier session so they
+	 * are never redefined.
+	 * @param lastUsed The highest mark already used
+	 */
+	public static synchronized void skipTo(long lastUsed) {
+		long value = space.get();
+		while (value <= lastUsed && !space.compareAndSet(value, lastUsed + 1)) {
+			value = space.get();
+		}
+		if (lastUsed > floor) {
+			floor = lastUsed;
+		}
+	}
+
+	/**
+	 * @return the next mark of this allocator.
+	 */
+	public long allocate() {
+		if (next >= limit || next <= floor) {
+			reserve();
+		}
+		return next++;
+	}
+
+	private void reserve() {
+		long start = space.getAndAdd(BLOCK_SIZE);
+		if (start <= 0 || start + BLOCK_SIZE <= 0) {
+			throw new Error("Mark has wrapped around");
+		}
+		next = start;
+		limit = start + BLOCK_SIZE;
+	}
+}
@@ -21,36 +21,71 @@ import java.io.OutputStream;
 
 public class MarkID implements DataRef {
 
+	public static MarkID getNextMarkID() {
+		return new MarkID(MarkAllocator.current().allocate());
+	}
+
 	/**
-	 * Mark ID 0 is reserved so start at 1
+	 * Move the counter past the marks saved by an earlier session so they are
+	 * never redefined.
+	 * @param lastUsed The highest mark already used
 	 */
-	private static long MarkID = 1;
-	public static MarkID getNextMarkID() {
-		if(MarkID <= 0) {
-			throw new Error("Mark has wrapped around");
-		}
-		return new MarkID(MarkID++);
+	public static void skipTo(long lastUsed) {
+		MarkAllocator.skipTo(lastUsed);
 	}
 
-	private String Id;
+	/**
+	 * @param id A mark saved by an earlier session
+	 * @return the reference to the mark
+	 */
+	public static MarkID valueOf(long id) {
+		return new MarkID(id);
+	}
+
+	private final long id;
 	
-	private MarkID(long id) {
-		Id = ":" + id;
+	MarkID(long id) {
+		this.id = id;
 	}
 	
 	@Override
 	public void writeTo(OutputStream out) throws IOException {
-		out.write(Id.getBytes());
+		// the digits go straight to the stream, no string is built
+		out.write(':');
+		long divisor = 1;
+		while (divisor <= id / 10) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			out.write('0' + (int) (id / divisor % 10));
+		}
+	}
+
+	/**
+	 * @return the number of the mark.
+	 */
+	public long getValue() {
+		return id;
 	}
 	
 	@Override
 	public String toString() {
-		return Id;
+		return getId();
 	}
 
 	@Override
 	public String getId() {
-		return Id;
+		return ":" + id;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof MarkID && ((MarkID) obj).id == id;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(id);
 	}
 
 }
@@ -0,0 +1,44 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.ossnoize.git.fastimport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class Progress implements FastImportObject {
+
+	private static final String PROGRESS_SP = "progress ";
+	private String message;
+
+	/**
+	 * fast-import writes the message back once every command before it is
+	 * processed.
+	 * @param message a single line message
+	 */
+	public Progress(String message) {
+		this.message = message;
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(PROGRESS_SP.getBytes());
+		out.write(message.getBytes("UTF-8"));
+		out.write('\n');
+		out.flush();
+	}
+
+}
@@ -29,6 +29,14 @@ public class Reset implements FastImportObject {
         this.committish = committish;
     }
 
+    public String getRef() {
+        return ref;
+    }
+
+    public DataRef getCommittish() {
+        return committish;
+    }
+
 	@Override
 	public void writeTo(OutputStream out) throws IOException {
 		out.write("reset ".getBytes("UTF-8"));
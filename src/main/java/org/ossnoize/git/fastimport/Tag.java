@@ -23,8 +23,13 @@ import java.util.Date;
 
 public class Tag implements FastImportObject {
 
-	// unsafe for multi-threaded use
-	private final static SimpleDateFormat DATEFORMAT = new SimpleDateFormat("Z");
+	// SimpleDateFormat isn't threadsafe, views are imported concurrently
+	private final static ThreadLocal<SimpleDateFormat> DATEFORMAT = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat("Z");
+		}
+	};
 
 	private final String tagName;
 	private final DataRef committish;
@@ -43,6 +48,33 @@ public class Tag implements FastImportObject {
 		this.comment.writeData(comment.getBytes("UTF-8"));
 	}
 
+	public String getTagName() {
+		if (tagName.length() > 255) {
+			return tagName.substring(0, 255);
+		}
+		return tagName;
+	}
+
+	public DataRef getCommittish() {
+		return committish;
+	}
+
+	public String getTaggerName() {
+		return taggerName;
+	}
+
+	public String getTaggerEmail() {
+		return taggerEmail;
+	}
+
+	public Date getTagDate() {
+		return tagDate;
+	}
+
+	public Data getComment() {
+		return comment;
+	}
+
 	@Override
 	public void writeTo(OutputStream out) throws IOException {
 		StringBuilder tagMsg = new StringBuilder();
@@ -59,7 +91,7 @@ public class Tag implements FastImportObject {
 		tagMsg.append("from ").append(committish.getId()).append('\n');
 		tagMsg.append("tagger ").append(taggerName)
 			.append(" <").append(taggerEmail).append("> ")
-			.append(tagDate.getTime() / 1000).append(' ').append(DATEFORMAT.format(tagDate))
+			.append(tagDate.getTime() / 1000).append(' ').append(DATEFORMAT.get().format(tagDate))
 			.append('\n');
 		out.write(tagMsg.toString().getBytes("UTF-8"));
 		comment.writeTo(out);
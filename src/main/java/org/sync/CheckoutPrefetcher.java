@@ -0,0 +1,264 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sync.starteam.StarteamSource;
+import org.sync.util.CommitInformation;
+import org.sync.util.Metrics;
+import org.sync.util.TempFileManager;
+
+import com.starbase.starteam.File;
+import com.starbase.starteam.View;
+
+/**
+ * CheckoutPrefetcher checks out the upcoming revisions of a commit list into
+ * temporary files on a bounded pool of worker threads. Checkout is bound by
+ * the network latency of the Starteam server, so this lets the fetch of the
+ * next revisions overlap with the writing of the fast-import stream.
+ *
+ * The writer must consume the revisions in the iteration order of the commit
+ * list, calling {@link #take(CommitInformation, File)} for each revision it
+ * needs the content of. At most <code>lookAhead</code> revisions are checked
+ * out in advance.
+ *
+ * This class is not threadsafe, only the writer thread shall use it.
+ */
+public class CheckoutPrefetcher {
+
+	private static final AtomicInteger poolCounter = new AtomicInteger();
+
+	private final ExecutorService workers;
+	private final ThreadLocal<StarteamSource.Checkout> checkouts;
+	private final Iterator<Map.Entry<CommitInformation, File>> upcoming;
+	private final Deque<PendingCheckout> pending;
+	private final int lookAhead;
+	// the workers record their checkouts for the label being imported
+	private final Metrics.Scope metrics;
+	private ContentFilter filter;
+
+	/**
+	 * Decide which revisions of the commit list need their content.
+	 */
+	public interface ContentFilter {
+		/**
+		 * @return false when the content of the revision is not going to be
+		 *         taken, so it is not checked out in advance.
+		 */
+		boolean needsCheckout(CommitInformation info, File file);
+	}
+
+	/**
+	 * @param view
+	 *          The view the revisions are checked out from
+	 * @param commitList
+	 *          The commit list the writer is going to iterate
+	 * @param threads
+	 *          Number of checkout workers
+	 * @param lookAhead
+	 *          Maximum number of revisions checked out ahead of the writer
+	 */
+	public CheckoutPrefetcher(final View view, NavigableMap<CommitInformation, File> commitList, int threads,
+			int lookAhead) {
+		this.lookAhead = Math.max(lookAhead, threads);
+		this.metrics = Metrics.current();
+		this.upcoming = commitList.entrySet().iterator();
+		this.pending = new ArrayDeque<PendingCheckout>(this.lookAhead);
+		this.checkouts = new ThreadLocal<StarteamSource.Checkout>() {
+			@Override
+			protected StarteamSource.Checkout initialValue() {
+				return StarteamSource.getInstance().openCheckout(view);
+			}
+		};
+		final int pool = poolCounter.incrementAndGet();
+		this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int counter = 0;
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread worker = new Thread(r, "checkout-" + pool + "-" + (++counter));
+				worker.setDaemon(true);
+				return worker;
+			}
+		});
+	}
+
+	/**
+	 * @param filter
+	 *          the revisions to skip, called from the writer thread
+	 */
+	public void setContentFilter(ContentFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Return the checked out content of the requested revision, waiting for its
+	 * worker if needed. The returned temporary file belongs to the caller.
+	 *
+	 * @param info
+	 *          The commit information of the revision, in commit list order
+	 * @param file
+	 *          The revision to checkout
+	 * @return a temporary file holding the revision content
+	 * @throws IOException
+	 *           if the checkout failed
+	 */
+	public java.io.File take(CommitInformation info, File file) throws IOException {
+		fill();
+		while (!pending.isEmpty()) {
+			PendingCheckout next = pending.peekFirst();
+			if (next.info == info) {
+				pending.pollFirst();
+				fill();
+				return waitFor(next);
+			}
+			if (next.info.compareTo(info) > 0) {
+				// Skipped when scheduled, the next ones are still to come.
+				break;
+			}
+			// The writer went past this revision, drop its content.
+			discard(pending.pollFirst());
+		}
+		// Not scheduled (ordering broken by the caller), do it in place.
+		return checkout(checkouts.get(), file);
+	}
+
+	/**
+	 * Stop the workers and delete every content that was not consumed.
+	 */
+	public void close() {
+		workers.shutdownNow();
+		try {
+			workers.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		while (!pending.isEmpty()) {
+			discard(pending.pollFirst());
+		}
+	}
+
+	private void fill() {
+		while (pending.size() < lookAhead && upcoming.hasNext()) {
+			final Map.Entry<CommitInformation, File> entry = upcoming.next();
+			if (entry.getKey().isFileDelete()
+					|| (null != filter && !filter.needsCheckout(entry.getKey(), entry.getValue()))) {
+				continue;
+			}
+			final PendingCheckout next = new PendingCheckout(entry.getKey());
+			next.content = workers.submit(new Callable<java.io.File>() {
+				@Override
+				public java.io.File call() throws Exception {
+					java.io.File content = checkout(checkouts.get(), entry.getValue());
+					if (!next.produced(content)) {
+						// discarded while it was checked out
+						content.delete();
+					}
+					return content;
+				}
+			});
+			pending.addLast(next);
+		}
+	}
+
+	private java.io.File checkout(StarteamSource.Checkout checkout, File file) throws IOException {
+		// Not registered in the TempFileManager until consumed, the writer
+		// cleans the registered files after each commit.
+		java.io.File aFile = java.io.File.createTempFile("StarteamFile", ".tmp",
+				TempFileManager.getInstance().getTempDirectory());
+		aFile.deleteOnExit();
+		try {
+			long start = System.nanoTime();
+			checkout.checkoutTo(file, aFile);
+			metrics.time(Metrics.CHECKOUT, start);
+			metrics.add(Metrics.CHECKOUT_BYTES, aFile.length());
+		} catch (IOException ex) {
+			aFile.delete();
+			throw ex;
+		} catch (RuntimeException ex) {
+			aFile.delete();
+			throw ex;
+		}
+		return aFile;
+	}
+
+	private java.io.File waitFor(PendingCheckout checkout) throws IOException {
+		try {
+			return checkout.content.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for " + checkout.info.getPath(), e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private void discard(PendingCheckout checkout) {
+		// a running worker may still finish, it deletes its content itself
+		checkout.content.cancel(true);
+		checkout.discard();
+	}
+
+	private static class PendingCheckout {
+		private final CommitInformation info;
+		private Future<java.io.File> content;
+		// guarded by this, the worker hands its content over unless discarded
+		private java.io.File produced;
+		private boolean discarded = false;
+
+		private PendingCheckout(CommitInformation info) {
+			this.info = info;
+		}
+
+		/**
+		 * @return false if the checkout was discarded, the content shall be
+		 *         deleted by the worker.
+		 */
+		private synchronized boolean produced(java.io.File content) {
+			if (discarded) {
+				return false;
+			}
+			produced = content;
+			return true;
+		}
+
+		private synchronized void discard() {
+			discarded = true;
+			if (null != produced) {
+				produced.delete();
+				produced = null;
+			}
+		}
+	}
+}
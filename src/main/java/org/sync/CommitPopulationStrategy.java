@@ -121,4 +121,20 @@ public interface CommitPopulationStrategy {
 	 * @return true if a tag should be created false otherwise
 	 */
 	boolean isTagRequired();
+
+	/**
+	 * Save what a population carries to the next one, to populate the following
+	 * configurations again from this point.
+	 * 
+	 * @return the state to give back to {@link #restoreState(Object)}
+	 */
+	Object saveState();
+
+	/**
+	 * Go back to the state saved after a population.
+	 * 
+	 * @param state
+	 *          The state returned by {@link #saveState()}
+	 */
+	void restoreState(Object state);
 }
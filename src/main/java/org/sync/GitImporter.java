@@ -33,10 +33,21 @@ import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Pattern;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
@@ -51,19 +62,24 @@ import org.ossnoize.git.fastimport.FileOperation;
 import org.ossnoize.git.fastimport.GitAttributeKind;
 import org.ossnoize.git.fastimport.GitAttributes;
 import org.ossnoize.git.fastimport.LFSFilePointer;
+import org.ossnoize.git.fastimport.Sha1Ref;
 import org.ossnoize.git.fastimport.Tag;
 import org.ossnoize.git.fastimport.enumeration.GitFileType;
 import org.ossnoize.git.fastimport.exception.InvalidPathException;
 import org.sync.commitstrategy.BasePopulationStrategy;
+import org.sync.starteam.StarteamSource;
 import org.sync.util.CommitInformation;
+import org.sync.util.ContentIndex;
 import org.sync.util.LabelDateComparator;
 import org.sync.util.LogEntry;
+import org.sync.util.Metrics;
 import org.sync.util.RevisionDateComparator;
 import org.sync.util.SmallRef;
 import org.sync.util.StarteamEOL;
+import org.sync.util.StarteamFileInfoOverlay;
+import org.sync.util.StarteamFileInfoOverlay.Registration;
 import org.sync.util.TempFileManager;
 
-import com.starbase.starteam.CheckoutManager;
 import com.starbase.starteam.File;
 import com.starbase.starteam.Folder;
 import com.starbase.starteam.Item;
@@ -73,14 +89,14 @@ import com.starbase.starteam.Project;
 import com.starbase.starteam.PropertyNames;
 import com.starbase.starteam.Server;
 import com.starbase.starteam.ServerException;
-import com.starbase.starteam.User;
 import com.starbase.starteam.UserAccount;
 import com.starbase.starteam.View;
 import com.starbase.starteam.ViewConfiguration;
 import com.starbase.util.OLEDate;
 
 public class GitImporter {
-	private Server server;
+	// the end of line attributes replacing each other
+	private static final GitAttributeKind[] EOL_ATTRIBUTES = { GitAttributeKind.CRLF, GitAttributeKind.LF };
 	private Folder folder;
 	private long lastModifiedTime = 0;
 	private Commit lastCommit; 
@@ -103,6 +119,15 @@ public class GitImporter {
 	private long lfsMinimumSize = Long.MAX_VALUE;
 	private Pattern lfsRegex;
 	private CommitPopulationStrategy CheckoutStrategy;
+	// number of threads checking out the revisions, 1 keeps the checkout on the writer thread
+	private int checkoutThreads = 1;
+	private int checkoutLookAhead = 0;
+	// reuse the contents already imported instead of checking them out again
+	private boolean contentDedup = false;
+	private int parallelViews = 1;
+	// number of labels populated ahead of the label written, 0 populates each label when it is written
+	private int labelLookAhead = 0;
+	private boolean dumping = false;
 	
 	private String buildDateToken = "build.date=";
 
@@ -111,20 +136,44 @@ public class GitImporter {
 	private Set<String> includeViewSet = new HashSet<String>();
 
 	public GitImporter(Server s, Project p) {
-		server = s;
 		repositoryHelper = RepositoryHelperFactory.getFactory().createHelper();
 	}
 
+	/**
+	 * Importer of one view of a parallel import, writing to its own fast-import
+	 * stream with the settings of the importer coordinating the views.
+	 */
+	private GitImporter(GitImporter coordinator, RepositoryHelper helper) {
+		repositoryHelper = helper;
+		domain = coordinator.domain;
+		userMapping = coordinator.userMapping;
+		verbose = coordinator.verbose;
+		createCheckpoints = coordinator.createCheckpoints;
+		setEOLAttribute = coordinator.setEOLAttribute;
+		lfsMinimumSize = coordinator.lfsMinimumSize;
+		lfsRegex = coordinator.lfsRegex;
+		checkoutThreads = coordinator.checkoutThreads;
+		checkoutLookAhead = coordinator.checkoutLookAhead;
+		contentDedup = coordinator.contentDedup;
+		labelLookAhead = coordinator.labelLookAhead;
+		excludedLabelSet = coordinator.excludedLabelSet;
+		// the tags the views are based on
+		tagMarks = new HashMap<String, DataRef>(coordinator.tagMarks);
+	}
+
 	public long getLastModifiedTime() {
 		return lastModifiedTime;
 	}
 
 	public void setFolder(View view, String folderPattern) {
+		folder = findFolder(view, folderPattern);
+	}
+
+	private Folder findFolder(View view, String folderPattern) {
 		if(null != folderPattern) {
-			folder = findFirstFolder(view.getRootFolder(), folderPattern);
-		} else {
-			folder = view.getRootFolder();
+			return findFirstFolder(view.getRootFolder(), folderPattern);
 		}
+		return view.getRootFolder();
 	}
 
 	public Folder getFolder() {
@@ -132,7 +181,8 @@ public class GitImporter {
 	}
 
 	public void recursiveLastModifiedTime(Folder f) {
-		for(Item i : f.getItems(f.getTypeNames().FILE)) {
+		StarteamSource source = StarteamSource.getInstance();
+		for(Item i : source.getItems(f)) {
 			if(i instanceof File) {
 				long modifiedTime = i.getModifiedTime().getLongValue();
 				if(modifiedTime > lastModifiedTime) {
@@ -140,7 +190,7 @@ public class GitImporter {
 				}
 			}
 		}
-		for(Folder subfolder : f.getSubFolders()) {
+		for(Folder subfolder : source.getSubFolders(f)) {
 			recursiveLastModifiedTime(subfolder);
 		}
 	}
@@ -154,6 +204,8 @@ public class GitImporter {
 			ret.setTopLevelComment("This files was auto-generated by git-starteam");
 		} else {
 			ret.parse(new ByteArrayInputStream(tempBuffer.toByteArray()));
+			// the head has this content already
+			ret.setWritten(head, null);
 		}
 		return ret;
 	}
@@ -174,23 +226,28 @@ public class GitImporter {
 
 	private boolean dontTryServerAdministrationAgain = false;
 	public void generateFastImportStream(View view, String folderPath) {
-		PropertyNames propNames = view.getPropertyNames();
-
-		// http://techpubs.borland.com/starteam/2009/en/sdk_documentation/api/com/starbase/starteam/CheckoutManager.html
-		// said old version (passed in /opt/StarTeamCP_2005r2/lib/starteam80.jar) "Deprecated. Use View.createCheckoutManager() instead."
-		CheckoutManager cm = new CheckoutManager(view);
-		cm.getOptions().setEOLConversionEnabled(false);
-		// Disabling status update leads to a large performance increase.
-		cm.getOptions().setUpdateStatus(false);
-		lastInformation = new CommitInformation(new java.util.Date(0), Integer.MIN_VALUE, "", "");
+		write(populate(view, folderPath));
+	}
 
-		folder = null;
-		setFolder(view, folderPath);
-		if(null == folder) {
+	/**
+	 * Find the commits of a view configuration, the first stage of its import.
+	 *
+	 * @param view
+	 *          The view configuration
+	 * @param folderPath
+	 *          The folder imported, null for the root folder
+	 * @return the commits to write, without folder when the folder isn't in the
+	 *         view.
+	 */
+	private Population populate(View view, String folderPath) {
+		long started = System.nanoTime();
+		Folder root = findFolder(view, folderPath);
+		if(null == root) {
 			if(folderPath != null) {
 				Log.log("Folder not found: " + folderPath);
 			}
-			return;
+			return new Population(view, null, null, new TreeMap<CommitInformation, File>(),
+					new HashSet<String>(), CheckoutStrategy.isTagRequired(), System.nanoTime() - started);
 		}
 
 		String head = refName(view.getName());
@@ -202,9 +259,59 @@ public class GitImporter {
 			Log.out("Populating files");
 		}
 		// 提取出所有文件的 commitinformation
-		CheckoutStrategy.filePopulation(head, folder);
+		CheckoutStrategy.filePopulation(head, root);
+
+		// the strategy clears its lists when the next label is populated
+		return new Population(view, root, head, new TreeMap<CommitInformation, File>(CheckoutStrategy.getListOfCommit()),
+				new HashSet<String>(CheckoutStrategy.pathToDelete()), CheckoutStrategy.isTagRequired(),
+				System.nanoTime() - started);
+	}
+
+	/**
+	 * Move the file registrations of the overlay to the state the writing of
+	 * the commits will leave them in, so the next label can be populated before
+	 * these commits are written. The writing of the commits does the same
+	 * changes to the store.
+	 */
+	private void register(Population population) {
+		if (null == population.folder) {
+			return;
+		}
+		for (Map.Entry<CommitInformation, File> e : population.commits.entrySet()) {
+			CommitInformation current = e.getKey();
+			File f = e.getValue();
+			if (current.isFileDelete()) {
+				repositoryHelper.unregisterFileId(population.head, current.getPath());
+			} else if (null != repositoryHelper.getRegisteredFileContentVersion(population.head, current.getPath())) {
+				repositoryHelper.updateFileVersion(population.head, current.getPath(), f.getViewVersion(),
+						f.getContentVersion(), f.getMD5());
+			}
+		}
+		for (String path : population.deletedFiles) {
+			if (!repositoryHelper.isSpecialFile(path)) {
+				repositoryHelper.unregisterFileId(population.head, path);
+			}
+		}
+	}
+
+	/**
+	 * Check out the files of the commits found for a view configuration and
+	 * write them to git, the second stage of its import.
+	 */
+	private void write(Population population) {
+		long started = System.nanoTime();
+		folder = population.folder;
+		if (null == folder) {
+			return;
+		}
+		View view = population.view;
+		String head = population.head;
+		PropertyNames propNames = view.getPropertyNames();
 
-		NavigableMap<CommitInformation, File> commitList = CheckoutStrategy.getListOfCommit();
+		StarteamSource.Checkout checkout = StarteamSource.getInstance().openCheckout(view);
+		lastInformation = new CommitInformation(new java.util.Date(0), Integer.MIN_VALUE, "", "");
+
+		NavigableMap<CommitInformation, File> commitList = population.commits;
 		if(verbose) {
 			Log.out("Creating commits");
 			// this is helpful for debugging out-of-order commits
@@ -218,222 +325,277 @@ public class GitImporter {
 
 		Commit commit = null;
 		GitAttributes fattributes = null;
-		for (Map.Entry<CommitInformation, File> e : commitList.entrySet()) {
-			File f = e.getValue();
-			CommitInformation current = e.getKey();
-			String userName = "";
-			String userEmail = "";
-			// 直接使用指定的后缀名
-//			dontTryServerAdministrationAgain = true;// 直接使用指定的后缀名
-//			if (!dontTryServerAdministrationAgain) {
-//				try {
-//					UserAccount userAccount = server.getAdministration().findUserAccount(current.getUid());
-//					if (userAccount != null) { // It is sometime possible that the user account would be null
-//						userName = userAccount.getName();
-//						userEmail = userAccount.getEmailAddress();
-//					} else {
-//						User fallback = server.getUser(current.getUid());
-//						userName = fallback.getName();
-//						userEmail = userMapping.getEmail(userName);
-//					}
-//				} catch (ServerException ex) {
-//					Log.log("Could not retrieve user from Administration Server. You probably do not have the right.");
-//					Log.log("Will use a Name.Surname@domain strategy to guess the e-mail address");
-//					dontTryServerAdministrationAgain = true;
-//				}
-//			}
-//			if (dontTryServerAdministrationAgain) {
-//				User userAccount = server.getUser(current.getUid());
-//				userName = userAccount.getName();
-//				userEmail = userMapping.getEmail(userName);
-//			}
-			userName = current.getUname();
-			if (StringUtils.isEmptyOrNull(userName)) {
-			    User userAccount = server.getUser(current.getUid());
-			    userName = userAccount.getName();
-            }
-			userEmail = userMapping.getEmail(userName);
-            
-			String path = current.getPath();
-			try {
-				FileOperation fo;
-				if(current.isFileDelete()) {
-					fo = new FileDelete();
-					// path may be the new file, but current.getPath() is the old deleted path.
-					fo.setPath(current.getPath());
-					if (null != lastCommit) {
-						fattributes = lastCommit.getAttributes();
-					}
-					boolean justRead = false;
-					if (null == fattributes) {
-						fattributes = readAttributes(head);
-						justRead = true;
+		// An expanded checkout never matches the Starteam MD5 of its content
+		final boolean verifiable = !checkout.isKeywordExpansionEnabled();
+		final boolean dedup = contentDedup && verifiable;
+		// the contents saved by the earlier runs are referenced even without dedup
+		final boolean reuse = dedup || (verifiable && repositoryHelper.keepsImportedContent());
+		CheckoutPrefetcher prefetcher = null;
+		if (checkoutThreads > 1) {
+			prefetcher = new CheckoutPrefetcher(view, commitList, checkoutThreads, checkoutLookAhead);
+			if (reuse) {
+				prefetcher.setContentFilter(new CheckoutPrefetcher.ContentFilter() {
+					@Override
+					public boolean needsCheckout(CommitInformation info, File file) {
+						return null == findKnownContent(info.getPath(), file, dedup);
 					}
-					if (fattributes.pathHasAttributes(current.getPath())) {
-						fattributes.removePath(current.getPath());
-					} else if (justRead) {
-						fattributes = null;
-					}
-					repositoryHelper.unregisterFileId(head, current.getPath());
-					if(verbose) {
-						Log.log("Unregistered " + current.getPath());
-					}
-				} else {
-					java.io.File aFile = TempFileManager.getInstance().createTempFile("StarteamFile", ".tmp");
-					try {
-						cm.checkoutTo(f, aFile);
-					} catch (Exception ex) {
-						Log.logf("Failed to checkout %s: %s", path, ex);
-						continue;
-					}
-					Data fileData;
-					boolean matchPattern = false;
-					if(lfsRegex != null) {
-						matchPattern = lfsRegex.matcher(current.getPath()).matches();
-					}
-					if(aFile.length() < lfsMinimumSize && !matchPattern) {
-						fileData = new Data(aFile);
+				});
+			}
+		}
+		try {
+			for (Map.Entry<CommitInformation, File> e : commitList.entrySet()) {
+				File f = e.getValue();
+				CommitInformation current = e.getKey();
+				String userName = "";
+				String userEmail = "";
+				// 直接使用指定的后缀名
+	//			dontTryServerAdministrationAgain = true;// 直接使用指定的后缀名
+	//			if (!dontTryServerAdministrationAgain) {
+	//				try {
+	//					UserAccount userAccount = server.getAdministration().findUserAccount(current.getUid());
+	//					if (userAccount != null) { // It is sometime possible that the user account would be null
+	//						userName = userAccount.getName();
+	//						userEmail = userAccount.getEmailAddress();
+	//					} else {
+	//						User fallback = server.getUser(current.getUid());
+	//						userName = fallback.getName();
+	//						userEmail = userMapping.getEmail(userName);
+	//					}
+	//				} catch (ServerException ex) {
+	//					Log.log("Could not retrieve user from Administration Server. You probably do not have the right.");
+	//					Log.log("Will use a Name.Surname@domain strategy to guess the e-mail address");
+	//					dontTryServerAdministrationAgain = true;
+	//				}
+	//			}
+	//			if (dontTryServerAdministrationAgain) {
+	//				User userAccount = server.getUser(current.getUid());
+	//				userName = userAccount.getName();
+	//				userEmail = userMapping.getEmail(userName);
+	//			}
+				userName = current.getUname();
+				if (StringUtils.isEmptyOrNull(userName)) {
+				    userName = StarteamSource.getInstance().getUserName(view, current.getUid());
+	            }
+				userEmail = userMapping.getEmail(userName);
+            
+				String path = current.getPath();
+				try {
+					FileOperation fo;
+					if(current.isFileDelete()) {
+						fo = new FileDelete();
+						// path may be the new file, but current.getPath() is the old deleted path.
+						fo.setPath(current.getPath());
+						if (null != lastCommit) {
+							fattributes = lastCommit.getAttributes();
+						}
+						boolean justRead = false;
+						if (null == fattributes) {
+							fattributes = readAttributes(head);
+							justRead = true;
+						}
+						if (fattributes.pathHasAttributes(current.getPath())) {
+							fattributes.removePath(current.getPath());
+						} else if (justRead) {
+							fattributes = null;
+						}
+						repositoryHelper.unregisterFileId(head, current.getPath());
+						if(verbose) {
+							Log.log("Unregistered " + current.getPath());
+						}
+					} else {
+						DataRef knownContent = reuse ? findKnownContent(current.getPath(), f, dedup) : null;
+						java.io.File aFile = null;
+						if (null == knownContent) {
+							try {
+								if (null != prefetcher) {
+									aFile = prefetcher.take(current, f);
+									TempFileManager.getInstance().registerTempFile(aFile);
+								} else {
+									aFile = TempFileManager.getInstance().createTempFile("StarteamFile", ".tmp");
+									long start = System.nanoTime();
+									checkout.checkoutTo(f, aFile);
+									Metrics.current().time(Metrics.CHECKOUT, start);
+									Metrics.current().add(Metrics.CHECKOUT_BYTES, aFile.length());
+								}
+							} catch (Exception ex) {
+								Log.logf("Failed to checkout %s: %s", path, ex);
+								population.checkoutFailed = true;
+								continue;
+							}
+						} else if (verbose) {
+							Log.log("Content already imported as " + knownContent.getId() + ": " + path);
+						}
+						Data fileData = null;
+						boolean matchPattern = false;
+						if(lfsRegex != null) {
+							matchPattern = lfsRegex.matcher(current.getPath()).matches();
+						}
+						if(null != knownContent || (aFile.length() < lfsMinimumSize && !matchPattern)) {
+							if (null == knownContent) {
+								fileData = new Data(aFile);
+							}
 					
-						if(setEOLAttribute){
-							try{
+							if(setEOLAttribute){
+								try{
+									if (null != lastCommit) {
+										fattributes = lastCommit.getAttributes();
+									}
+									if (null == fattributes) {
+										fattributes = readAttributes(head);
+									}
+								
+									Object propertyValue = f.get(f.getPropertyNames().FILE_EOL_CHARACTER);
+									if(StarteamEOL.CLIENTDEFINE.value() == (Integer) propertyValue){
+										fattributes.removeAttributeFromPath(path, GitAttributeKind.CRLF, GitAttributeKind.LF);
+									}
+									else if(StarteamEOL.CRLF.value() == (Integer) propertyValue){
+										fattributes.replaceAttributesOfPath(path, EOL_ATTRIBUTES, GitAttributeKind.CRLF);
+									}
+									else if(StarteamEOL.LF.value() == (Integer) propertyValue){
+										fattributes.replaceAttributesOfPath(path, EOL_ATTRIBUTES, GitAttributeKind.LF);
+									}
+								}catch(NoSuchPropertyException ex){
+									//Unable to get the end of line property. Leave it client define.
+								}
+							}
+						} else {
+							try {
+								fileData = new LFSFilePointer(repositoryHelper.getWorkingDirectory(), aFile);
 								if (null != lastCommit) {
 									fattributes = lastCommit.getAttributes();
 								}
 								if (null == fattributes) {
 									fattributes = readAttributes(head);
 								}
-								
-								Object propertyValue = f.get(f.getPropertyNames().FILE_EOL_CHARACTER);
-								if(StarteamEOL.CLIENTDEFINE.value() == (Integer) propertyValue){
-									fattributes.removeAttributeFromPath(path, GitAttributeKind.CRLF, GitAttributeKind.LF);
-								}
-								else if(StarteamEOL.CRLF.value() == (Integer) propertyValue){
-									fattributes.removeAttributeFromPath(path, GitAttributeKind.CRLF, GitAttributeKind.LF);
-									fattributes.addAttributeToPath(current.getPath(), GitAttributeKind.CRLF);
+								fattributes.addAttributeToPath(current.getPath(),
+										GitAttributeKind.DiffLfs, GitAttributeKind.FilterLfs, GitAttributeKind.MergeLfs,
+										GitAttributeKind.Binary);
+							} catch (NoSuchAlgorithmException ex) {
+								Log.logf("Failed to add the file as a largefile %s, reverting to basic behavior", ex);
+								lfsMinimumSize = Long.MAX_VALUE;
+								fileData = new Data(aFile);
+							}
+						}
+						FileModification fm;
+						if (null != knownContent) {
+							fm = new FileModification(knownContent);
+						} else {
+							Blob fileToStage = new Blob(fileData);
+							repositoryHelper.writeBlob(fileToStage);
+							if (reuse && !(fileData instanceof LFSFilePointer)) {
+								// only a content matching its Starteam MD5 is referenced again
+								boolean verified;
+								if (dedup) {
+									verified = repositoryHelper.getContentIndex().register(f.getMD5(), fileToStage.getMarkID(), aFile);
+								} else {
+									verified = ContentIndex.hasMd5(f.getMD5(), aFile);
 								}
-								else if(StarteamEOL.LF.value() == (Integer) propertyValue){
-									fattributes.removeAttributeFromPath(path, GitAttributeKind.CRLF, GitAttributeKind.LF);
-									fattributes.addAttributeToPath(current.getPath(), GitAttributeKind.LF);
+								if (verified) {
+									repositoryHelper.registerImportedContent(f.getItemID(), f.getContentVersion(),
+											fileToStage.getMarkID());
 								}
-							}catch(NoSuchPropertyException ex){
-								//Unable to get the end of line property. Leave it client define.
 							}
+							fm = new FileModification(fileToStage);
 						}
-					} else {
-						try {
-							fileData = new LFSFilePointer(repositoryHelper.getWorkingDirectory(), aFile);
-							if (null != lastCommit) {
-								fattributes = lastCommit.getAttributes();
+
+						Integer revision = repositoryHelper.getRegisteredFileContentVersion(head, path);
+						if(null != revision) {
+							if (revision != f.getContentVersion()) {
+								if(verbose) {
+									Log.log("File was updated " + revision + " => " + f.getViewVersion() + ": " + path);
+								}
+							} else {
+								if(verbose) {
+									Log.log("File revision : " + revision + " is same: " + path);
+								}
 							}
-							if (null == fattributes) {
-								fattributes = readAttributes(head);
+							repositoryHelper.updateFileVersion(head, path, f.getViewVersion(), f.getContentVersion(), f.getMD5());
+						
+						} else {
+							if(verbose)	{
+								Log.log("No file revision was found for : " + path);
 							}
-							fattributes.addAttributeToPath(current.getPath(),
-									GitAttributeKind.DiffLfs, GitAttributeKind.FilterLfs, GitAttributeKind.MergeLfs,
-									GitAttributeKind.Binary);
-						} catch (NoSuchAlgorithmException ex) {
-							Log.logf("Failed to add the file as a largefile %s, reverting to basic behavior", ex);
-							lfsMinimumSize = Long.MAX_VALUE;
-							fileData = new Data(aFile);
 						}
-					}
-					Blob fileToStage = new Blob(fileData);
-					repositoryHelper.writeBlob(fileToStage);
-
-					Integer revision = repositoryHelper.getRegisteredFileContentVersion(head, path);
-					if(null != revision) {
-						if (revision != f.getContentVersion()) {
-							if(verbose) {
-								Log.log("File was updated " + revision + " => " + f.getViewVersion() + ": " + path);
-							}
-						} else {
-							if(verbose) {
-								Log.log("File revision : " + revision + " is same: " + path);
+
+						boolean executable = false;
+						try	{
+							if (f.get(propNames.FILE_EXECUTABLE) != null)
+							{
+								executable = (Integer) f.get(propNames.FILE_EXECUTABLE) != 0;
 							}
 						}
-						repositoryHelper.updateFileVersion(head, path, f.getViewVersion(), f.getContentVersion(), f.getMD5());
-						
-					} else {
-						if(verbose)	{
-							Log.log("No file revision was found for : " + path);
+						catch (Exception ex) {
 						}
-					}
-
-					FileModification fm = new FileModification(fileToStage);
-					boolean executable = false;
-					try	{
-						if (f.get(propNames.FILE_EXECUTABLE) != null)
-						{
-							executable = (Integer) f.get(propNames.FILE_EXECUTABLE) != 0;
+						if(executable) {
+							fm.setFileType(GitFileType.Executable);
+						} else {
+							fm.setFileType(GitFileType.Normal);
 						}
+						//TODO: Detect that the EOL property from Starteam is properly transfered to a gitattribute
+						//TOOD: file to prevent spurious conversion.
+						fm.setPath(path);
+						fo = fm;
 					}
-					catch (Exception ex) {
-					}
-					if(executable) {
-						fm.setFileType(GitFileType.Executable);
-					} else {
-						fm.setFileType(GitFileType.Normal);
-					}
-					//TODO: Detect that the EOL property from Starteam is properly transfered to a gitattribute
-					//TOOD: file to prevent spurious conversion.
-					fm.setPath(path);
-					fo = fm;
-				}
 				
-				//Need to check this here !
+					//Need to check this here !
 				
-				if(null != lastCommit && lastInformation.equivalent(current)) {// 判断两次相邻的commitinformation是否可以归为一次提交
-					if(lastInformation.getComment().trim().length() == 0 && current.getComment().trim().length() > 0) {
-						lastInformation = current;
-						lastCommit.setComment(current.getComment());
-					}
-					lastCommit.addFileOperation(fo);
-					if (fattributes != null) {
-						lastCommit.setAttributes(fattributes);
-					}
-				} else {
-					java.util.Date commitDate = new java.util.Date(current.getTime());
-					// validate that the last commit done wasn't newer than the commit we will be doing
-					if (null != lastCommit && lastCommit.getCommitDate().getTime() >= current.getTime()) {
-						// we add a seconds for each time we see a commit that is newer or same as the previous commit.
-						commitDate = new java.util.Date(lastCommit.getCommitDate().getTime() + 1000);
-					}
-					commit = new Commit(userName, userEmail, current.getComment(), head, commitDate);
-					commit.setAuthorDate(current.getAuthorDate());
+					if(null != lastCommit && lastInformation.equivalent(current)) {// 判断两次相邻的commitinformation是否可以归为一次提交
+						if(lastInformation.getComment().trim().length() == 0 && current.getComment().trim().length() > 0) {
+							lastInformation = current;
+							lastCommit.setComment(current.getComment());
+						}
+						lastCommit.addFileOperation(fo);
+						if (fattributes != null) {
+							lastCommit.setAttributes(fattributes);
+						}
+					} else {
+						java.util.Date commitDate = new java.util.Date(current.getTime());
+						// validate that the last commit done wasn't newer than the commit we will be doing
+						if (null != lastCommit && lastCommit.getCommitDate().getTime() >= current.getTime()) {
+							// we add a seconds for each time we see a commit that is newer or same as the previous commit.
+							commitDate = new java.util.Date(lastCommit.getCommitDate().getTime() + 1000);
+						}
+						commit = new Commit(userName, userEmail, current.getComment(), head, commitDate);
+						commit.setAuthorDate(current.getAuthorDate());
 					
-					commit.addFileOperation(fo);
-					if (fattributes != null) {
-						commit.setAttributes(fattributes);
-					}
-					if(null == lastCommit) {
-						if(isResume) {
-							commit.resumeOnTopOfRef();
-						} else if(null != fromRef) {
-							commit.setFromRef(fromRef);
+						commit.addFileOperation(fo);
+						if (fattributes != null) {
+							commit.setAttributes(fattributes);
 						}
-					} else if (!lastCommit.isWritten()) {
-						repositoryHelper.writeCommit(lastCommit);
-						TempFileManager.getInstance().deleteTempFiles();
-						commit.setFromCommit(lastCommit);// 设置上一个 commit，形成commit链表
-					}
-					if(fattributes != null) {
-						fattributes = null;
+						if(null == lastCommit) {
+							if(isResume) {
+								commit.resumeOnTopOfRef();
+							} else if(null != fromRef) {
+								commit.setFromRef(fromRef);
+							}
+						} else if (!lastCommit.isWritten()) {
+							repositoryHelper.writeCommit(lastCommit);
+							TempFileManager.getInstance().deleteTempFiles();
+							commit.setFromCommit(lastCommit);// 设置上一个 commit，形成commit链表
+						}
+						if(fattributes != null) {
+							fattributes = null;
+						}
+						/** Keep last for information **/
+						lastCommit = commit;
+						lastInformation = current;
 					}
-					/** Keep last for information **/
-					lastCommit = commit;
-					lastInformation = current;
+				} catch (IOException io) {
+					io.printStackTrace();
+					Log.log("Git outputstream just crash unexpectedly. Stopping process");
+					System.exit(-1);
+				} catch (InvalidPathException e1) {
+					e1.printStackTrace();
 				}
-			} catch (IOException io) {
-				io.printStackTrace();
-				Log.log("Git outputstream just crash unexpectedly. Stopping process");
-				System.exit(-1);
-			} catch (InvalidPathException e1) {
-				e1.printStackTrace();
+			}
+		} finally {
+			if (null != prefetcher) {
+				prefetcher.close();
 			}
 		}
 		// TODO: Simple hack to make deletion of unseen files. Since starteam does
 		// TODO: not carry some kind of delete event. (as known from now)
-		Set<String> deletedFiles = CheckoutStrategy.pathToDelete();
+		Set<String> deletedFiles = population.deletedFiles;
 		if(deletedFiles.size() > 0) {
 			try {
 				Log.log("Janitor was needed for cleanup");
@@ -494,8 +656,9 @@ public class GitImporter {
 				//				Log.log("The starteam view specified was empty.");
 			}
 		}
-		cm = null;
-		folder.discardItems(server.getTypeNames().FILE, -1);
+		checkout = null;
+		folder.discardItems(folder.getTypeNames().FILE, -1);
+		Metrics.current().record(Metrics.LABEL, population.nanos + System.nanoTime() - started);
 	}
 
 	private void finish() {
@@ -541,7 +704,7 @@ public class GitImporter {
 			//if(verbose) {
 			//	Log.log("Not folder: " + path);
 			//}
-			for(Folder subfolder : folder.getSubFolders()) {
+			for(Folder subfolder : StarteamSource.getInstance().getSubFolders(folder)) {
 				deque.addLast(subfolder);
 			}
 		}
@@ -555,13 +718,14 @@ public class GitImporter {
 	public void setDumpFile(java.io.File file) {
 		if(null != repositoryHelper) {
 			repositoryHelper.setFastExportDumpFile(file);
+			dumping = null != file;
 		} else {
 			throw new NullPointerException("Ensure that the helper is correctly started.");
 		}
 	}
 
 	private Label[] fetchAllViewLabels(View view, String filteringLabelPattern){
-		Label[] labels = view.fetchAllLabels();
+		Label[] labels = StarteamSource.getInstance().fetchAllLabels(view);
 		List<Label> viewLabels = new ArrayList<Label>();
 		
 		for(Label label : labels){
@@ -581,7 +745,7 @@ public class GitImporter {
 	}
 	
 	private Label[] fetchAllRevisionLabels(View view, String filteringLabelPattern){
-		Label[] labels = view.fetchAllLabels();
+		Label[] labels = StarteamSource.getInstance().fetchAllLabels(view);
 		List<Label> revisionLabels = new ArrayList<Label>();
 		
 		for(Label label : labels){
@@ -669,7 +833,7 @@ public class GitImporter {
 				continue;
 			}
 			
-			View vc = new View(view, ViewConfiguration.createFromTime(rollbackDate));
+			View vc = StarteamSource.getInstance().openView(view, ViewConfiguration.createFromTime(rollbackDate));
 			vc.refresh();
 			
 			if(i == fromLabel && isResume) {
@@ -688,6 +852,7 @@ public class GitImporter {
 
 			Log.logf("Revision configuration label <%s> : %1.3f %%", revisionLabels[i].getName(),
 			    ((double) i / (double) revisionLabels.length) * 100);
+			Metrics.instance.enter(view.getName(), revisionLabels[i].getName());
 			CheckoutStrategy.setCurrentLabel(revisionLabels[i]);
 			generateFastImportStream(vc, baseFolder);
 			if (CheckoutStrategy.isTagRequired()) {
@@ -708,7 +873,7 @@ public class GitImporter {
 		view.discard();
 		view.discardFolders();
 		setFolder(view, baseFolder);
-		getFolder().populateNow(server.getTypeNames().FILE, null, -1);
+		StarteamSource.getInstance().populate(getFolder(), null);
 		recursiveLastModifiedTime(getFolder());
 		long lastTime = getLastModifiedTime();
 		
@@ -760,19 +925,8 @@ public class GitImporter {
 				CheckoutStrategy.setLastCommitTime(lastCommitList.get(0).getTimeOfCommit());
 			}
 		}
-		for(int i=fromLabel; i<viewLabels.length; ++i) {
-			View vc = new View(view, ViewConfiguration.createFromLabel(viewLabels[i].getID()));
-			
-			Log.logf("View configuration label <%s> : %1.3f %%", viewLabels[i].getName(),
-			    ((double) i / (double) viewLabels.length) * 100);
-			
-			CheckoutStrategy.setCurrentLabel(viewLabels[i]);
-			generateFastImportStream(vc, baseFolder);
-			if (CheckoutStrategy.isTagRequired()) {
-				writeLabelTag(view, viewLabels[i]);
-			}
-			checkpoint();
-			vc.close();
+		if (fromLabel < viewLabels.length) {
+			importLabels(view, Arrays.asList(viewLabels).subList(fromLabel, viewLabels.length), baseFolder);
 		}
 		
 		if (!isResume) {
@@ -804,13 +958,15 @@ public class GitImporter {
 		}
 		
 		Log.log("Commit from " + new java.util.Date(firstTime) + " to " + new java.util.Date(lastTime));
+		// the commits done after the labels
+		Metrics.instance.enter(view.getName(), "");
 		Calendar timeIncrement = Calendar.getInstance();
 		timeIncrement.setTimeInMillis(firstTime);
 		while (timeIncrement.getTimeInMillis() <= lastTime) {
 			View vc = null;
 			if(lastTime - timeIncrement.getTimeInMillis() <= day) {
 				vc = view;
-				vc = new View(view, ViewConfiguration.createFromTime(new OLEDate(timeIncrement.getTimeInMillis())));
+				vc = StarteamSource.getInstance().openView(view, ViewConfiguration.createFromTime(new OLEDate(timeIncrement.getTimeInMillis())));
 			} else {
 			}
 			Log.log("View Configuration Time: " + timeIncrement.getTime());
@@ -839,25 +995,21 @@ public class GitImporter {
 		view.discard();
 		view.discardFolders();
 		setFolder(view, baseFolder);
-		getFolder().populateNow(server.getTypeNames().FILE, null, -1);
+		StarteamSource.getInstance().populate(getFolder(), null);
 		recursiveLastModifiedTime(getFolder());
 		long lastTime = getLastModifiedTime();
 		
-		Label[] viewLabels = view.fetchAllLabels();
+		Label[] viewLabels = StarteamSource.getInstance().fetchAllLabels(view);
 		Arrays.sort(viewLabels, new LabelDateComparator());
 		
 		/* 两个相邻label之间，依次 生成commit */
+		List<Label> importedLabels = new ArrayList<Label>();
 		for(int i=0; i<viewLabels.length; i++) {
 			if (viewLabels[i].isViewLabel() && !excludedLabelSet.contains(viewLabels[i].getName())) {
-				View vc = new View(view, ViewConfiguration.createFromLabel(viewLabels[i].getID()));
-				Log.logf("View configuration label <%s> (%d/%d)", viewLabels[i].getName(), i+1, viewLabels.length);
-				generateFastImportStream(vc, baseFolder);
-				writeLabelTag(view, viewLabels[i]);
-				checkpoint();
-				
-				vc.close();
+				importedLabels.add(viewLabels[i]);
 			}
 		}
+		importLabels(view, importedLabels, baseFolder);
 		
 		/* 最近的label 到当前状态生成 commit*/
 		if (viewLabels != null && viewLabels.length > 0) {
@@ -881,6 +1033,8 @@ public class GitImporter {
 		}
 		
 		Log.log("Commit from " + new java.util.Date(firstTime) + " to " + new java.util.Date(lastTime));
+		// the commits done after the labels
+		Metrics.instance.enter(view.getName(), "");
 		Calendar timeIncrement = Calendar.getInstance();
 		timeIncrement.setTimeInMillis(firstTime);
 		while (timeIncrement.getTimeInMillis() <= lastTime) {
@@ -889,7 +1043,7 @@ public class GitImporter {
 				vc = view;// 最近的修改距离上一次提交小于一天，则生成这段时间内的commits
 			} else {
 			    // 最近的修改距离上一次提交大于一天，则生成 timeIncrement 到上一次提交这段时间的commits
-				vc = new View(view, ViewConfiguration.createFromTime(new OLEDate(timeIncrement.getTimeInMillis())));
+				vc = StarteamSource.getInstance().openView(view, ViewConfiguration.createFromTime(new OLEDate(timeIncrement.getTimeInMillis())));
 			}
 			Log.log("View Configuration Time: " + timeIncrement.getTime());
 			generateFastImportStream(vc, baseFolder);
@@ -989,6 +1143,15 @@ public class GitImporter {
 			}
 		}
 
+		if (parallelViews > 1 && views.size() > 1) {
+			if (dumping) {
+				Log.log("Dumping the fast-import stream, importing the views one after the other");
+			} else {
+				generateParallelViewsImport(views, baseFolder);
+				return;
+			}
+		}
+
 		for (View view: views) {
 			count++;
 			DataRef baseRef = null;
@@ -999,32 +1162,178 @@ public class GitImporter {
 				continue;
 			}
 
-			fromRef = baseRef;
-
 			Log.logf("Importing view %s onto %s (%d/%d)", view.getName(), baseRef, count, views.size());
-			setHeadName(refName(view.getName())); // TODO: allow user override (Groovy?)
-			HashSet<String> lastFiles = new HashSet<String>();
-			java.util.Date startDate = new java.util.Date(0); // initialize with most
-			                                                  // initial date
-			if(baseRef != null) {// baseRef != null 说明该视图是从父视图衍生出的
-				View baseView = new View(view.getParentView(), view.getBaseConfiguration());
-				setFolder(baseView, baseFolder);
-				CommitPopulationStrategy baseStrategy = new BasePopulationStrategy(baseView);
-				setCheckoutStrategy(baseStrategy);
-				baseStrategy.filePopulation(alternateHead, folder);// 先把分叉点的文件提交信息计算好
-				lastFiles.addAll(baseStrategy.getLastFiles());
-				startDate = new java.util.Date(baseStrategy.getListOfCommit().lastKey().getTime());
-				baseView.close();
-			}
-			lastCommit = null;
-			isResume = false;
-
-			setCheckoutStrategy(new BasePopulationStrategy(view));
-			CheckoutStrategy.setInitialPathList(lastFiles);
-			CheckoutStrategy.setLastCommitTime(startDate);
-			generateAllLabelImport(view, baseFolder);
-
-			view.close();
+			importView(view, baseFolder, baseRef);
+		}
+	}
+
+	private void importView(View view, String baseFolder, DataRef baseRef) {
+		fromRef = baseRef;
+
+		setHeadName(refName(view.getName())); // TODO: allow user override (Groovy?)
+		HashSet<String> lastFiles = new HashSet<String>();
+		java.util.Date startDate = new java.util.Date(0); // initialize with most
+		                                                  // initial date
+		if(baseRef != null) {// baseRef != null 说明该视图是从父视图衍生出的
+			View baseView = StarteamSource.getInstance().openView(view.getParentView(), view.getBaseConfiguration());
+			setFolder(baseView, baseFolder);
+			CommitPopulationStrategy baseStrategy = new BasePopulationStrategy(baseView);
+			setCheckoutStrategy(baseStrategy);
+			baseStrategy.filePopulation(alternateHead, folder);// 先把分叉点的文件提交信息计算好
+			lastFiles.addAll(baseStrategy.getLastFiles());
+			startDate = new java.util.Date(baseStrategy.getListOfCommit().lastKey().getTime());
+			baseView.close();
+		}
+		lastCommit = null;
+		isResume = false;
+
+		setCheckoutStrategy(new BasePopulationStrategy(view));
+		CheckoutStrategy.setInitialPathList(lastFiles);
+		CheckoutStrategy.setLastCommitTime(startDate);
+		generateAllLabelImport(view, baseFolder);
+
+		view.close();
+	}
+
+	/**
+	 * Import the views in parallel, each one in its own fast-import stream. A
+	 * view is only started once the view holding its base tag is done, the views
+	 * derived from the same parent are imported concurrently.
+	 */
+	private void generateParallelViewsImport(List<View> views, final String baseFolder) {
+		Set<String> names = new HashSet<String>();
+		for (View view : views) {
+			names.add(view.getName());
+		}
+		Map<String, List<View>> waiting = new HashMap<String, List<View>>();
+		Deque<View> ready = new ArrayDeque<View>();
+		for (View view : views) {
+			String parent = null;
+			if (null != viewRef.get(view.getName())) {
+				parent = view.getParentView().getName();
+			}
+			if (null != parent && names.contains(parent)) {
+				List<View> children = waiting.get(parent);
+				if (null == children) {
+					children = new ArrayList<View>();
+					waiting.put(parent, children);
+				}
+				children.add(view);
+			} else {
+				ready.addLast(view);
+			}
+		}
+
+		ExecutorService workers = Executors.newFixedThreadPool(parallelViews, new ThreadFactory() {
+			private int counter = 0;
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread worker = new Thread(r, "view-import-" + (++counter));
+				worker.setDaemon(true);
+				return worker;
+			}
+		});
+		CompletionService<View> finished = new ExecutorCompletionService<View>(workers);
+		int running = 0;
+		int count = 0;
+		RuntimeException failure = null;
+		try {
+			while (!ready.isEmpty() || running > 0) {
+				while (!ready.isEmpty() && null == failure) {
+					final View view = ready.removeFirst();
+					count++;
+					final DataRef baseRef;
+					try {
+						baseRef = resolveBaseRef(view);
+						if (null != baseRef) {
+							repositoryHelper.keepTagTree(getBaseTag(view), baseRef);
+						}
+					} catch (RuntimeException e) {
+						Log.log("Could not get base ref for " + view.getName() + ": " + e);
+						releaseChildren(waiting, ready, view);
+						continue;
+					}
+					final RepositoryHelper helper = RepositoryHelperFactory.getFactory().createStreamHelper();
+					Log.logf("Importing view %s onto %s (%d/%d)", view.getName(), baseRef, count, views.size());
+					finished.submit(new Callable<View>() {
+						@Override
+						public View call() {
+							GitImporter importer = new GitImporter(GitImporter.this, helper);
+							try {
+								importer.importView(view, baseFolder, baseRef);
+							} finally {
+								// the base of the derived views is only readable once the stream is done
+								helper.dispose();
+								TempFileManager.getInstance().deleteTempFiles();
+							}
+							return view;
+						}
+					});
+					running++;
+				}
+				if (running == 0) {
+					break;
+				}
+				Future<View> done = finished.take();
+				running--;
+				try {
+					releaseChildren(waiting, ready, done.get());
+				} catch (ExecutionException e) {
+					Log.log("View import failed: " + e.getCause());
+					if (null == failure) {
+						// let the running views finish but start no other
+						failure = new RuntimeException("Parallel import of the views failed", e.getCause());
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure = new RuntimeException("Interrupted while importing the views", e);
+		} finally {
+			workers.shutdown();
+		}
+		if (null != failure) {
+			throw failure;
+		}
+	}
+
+	private static void releaseChildren(Map<String, List<View>> waiting, Deque<View> ready, View parent) {
+		List<View> children = waiting.remove(parent.getName());
+		if (null != children) {
+			ready.addAll(children);
+		}
+	}
+
+	/**
+	 * The marks of another fast-import stream can't be referenced, the base of
+	 * the view is found by the commit of its tag in the repository.
+	 * @return the commit of the base tag, null if the view has no base
+	 * @throws IllegalStateException if the base tag can't be found
+	 */
+	private DataRef resolveBaseRef(View view) {
+		String tag = getBaseTag(view);
+		if (null == tag) {
+			return null;
+		}
+		FileRepositoryBuilder builder = new FileRepositoryBuilder().findGitDir(new java.io.File(getWorkingDirectory()));
+		if (null == builder.getGitDir()) {
+			throw new IllegalStateException("No git repository to read the tag " + tag + " from");
+		}
+		Repository repo = null;
+		try {
+			repo = builder.build();
+			ObjectId commit = repo.resolve(Constants.R_TAGS + tag + "^{commit}");
+			if (null == commit) {
+				throw new IllegalStateException("The tag " + tag + " doesn't exist");
+			}
+			return new Sha1Ref(commit.name());
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read the tag " + tag + ": " + e.getMessage(), e);
+		} finally {
+			if (null != repo) {
+				repo.close();
+			}
 		}
 	}
 
@@ -1060,6 +1369,179 @@ public class GitImporter {
 		    .replaceAll("^\\.", "_");
 	}
 
+	/**
+	 * Import the view labels one after the other, each one tagged once its
+	 * commits are written.
+	 *
+	 * With a label look-ahead, the labels are populated on another thread ahead
+	 * of the label written, so the Starteam round trips of the population
+	 * overlap the checkouts and git fast-import. The labels are still populated
+	 * in order, each one from the file registrations the commits of the
+	 * previous one leave. These registrations are kept in an overlay seen by the
+	 * populating thread only, the store is changed by the writing of the
+	 * commits as without look-ahead, so a checkpoint never journals the
+	 * registrations of a label not written yet. A file that could not be
+	 * checked out is left to the next label, the labels populated ahead of a
+	 * failed checkout are populated again.
+	 *
+	 * @param view
+	 *          The view of the labels
+	 * @param labels
+	 *          The labels in import order
+	 * @param baseFolder
+	 *          The folder imported, null for the root folder
+	 */
+	private void importLabels(final View view, List<Label> labels, final String baseFolder) {
+		final int lookAhead = labelLookAhead;
+		if (lookAhead == 0 || labels.size() < 2) {
+			for (int i = 0; i < labels.size(); i++) {
+				Label label = labels.get(i);
+				View vc = StarteamSource.getInstance().openView(view, ViewConfiguration.createFromLabel(label.getID()));
+				Log.logf("View configuration label <%s> (%d/%d)", label.getName(), i + 1, labels.size());
+				Metrics.instance.enter(view.getName(), label.getName());
+				CheckoutStrategy.setCurrentLabel(label);
+				generateFastImportStream(vc, baseFolder);
+				if (CheckoutStrategy.isTagRequired()) {
+					writeLabelTag(view, label);
+				}
+				checkpoint();
+				vc.close();
+			}
+			return;
+		}
+
+		final String threadName = "label-population-" + view.getName();
+		ExecutorService populator = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread worker = new Thread(r, threadName);
+				worker.setDaemon(true);
+				return worker;
+			}
+		});
+		final StarteamFileInfoOverlay overlay = new StarteamFileInfoOverlay();
+		Deque<Future<Population>> ahead = new ArrayDeque<Future<Population>>();
+		int next = 0;
+		try {
+			for (int i = 0; i < labels.size(); i++) {
+				while (next < labels.size() && next <= i + lookAhead) {
+					final Label label = labels.get(next++);
+					ahead.addLast(populator.submit(new Callable<Population>() {
+						@Override
+						public Population call() {
+							Metrics.instance.enter(view.getName(), label.getName());
+							View vc = StarteamSource.getInstance().openView(view, ViewConfiguration.createFromLabel(label.getID()));
+							CheckoutStrategy.setCurrentLabel(label);
+							repositoryHelper.setFileInformationOverlay(overlay);
+							long layer = overlay.nextLayer();
+							Population population = populate(vc, baseFolder);
+							population.registrations = overlay.stopRecording();
+							population.layer = layer;
+							population.strategyState = CheckoutStrategy.saveState();
+							register(population);
+							return population;
+						}
+					}));
+				}
+				Label label = labels.get(i);
+				Log.logf("View configuration label <%s> (%d/%d)", label.getName(), i + 1, labels.size());
+				Population population = takePopulation(ahead.removeFirst());
+				Metrics.instance.enter(view.getName(), label.getName());
+				repositoryHelper.applyRegistrations(population.registrations);
+				write(population);
+				if (population.tagRequired) {
+					writeLabelTag(view, label);
+				}
+				checkpoint();
+				overlay.release(population.layer);
+				population.view.close();
+				if (population.checkoutFailed && !ahead.isEmpty()) {
+					// the labels ahead take the failed files as written, populate them
+					// again from the registrations the writing left
+					Log.log("Populating again the labels after a failed checkout");
+					discard(ahead);
+					overlay.release(Long.MAX_VALUE);
+					CheckoutStrategy.restoreState(population.strategyState);
+					next = i + 1;
+				}
+			}
+		} finally {
+			populator.shutdownNow();
+			// the labels populated ahead of a failure
+			for (Future<Population> population : ahead) {
+				try {
+					population.get().view.close();
+				} catch (Exception e) {
+					// already reported by the failing label
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drop the labels populated ahead, waiting for the one being populated.
+	 */
+	private static void discard(Deque<Future<Population>> ahead) {
+		while (!ahead.isEmpty()) {
+			Future<Population> population = ahead.removeFirst();
+			if (!population.cancel(false)) {
+				takePopulation(population).view.close();
+			}
+		}
+	}
+
+	private static Population takePopulation(Future<Population> population) {
+		try {
+			return population.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while populating the labels", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new RuntimeException("Label population failed", e.getCause());
+		}
+	}
+
+	/**
+	 * The commits found for a view configuration, written once the commits of
+	 * the configurations before are.
+	 */
+	private static class Population {
+		private final View view;
+		// null when the imported folder isn't in the view
+		private final Folder folder;
+		private final String head;
+		private final NavigableMap<CommitInformation, File> commits;
+		// the files not seen anymore, deleted by the janitor
+		private final Set<String> deletedFiles;
+		private final boolean tagRequired;
+		// time spent populating
+		private final long nanos;
+		// the registrations done by the population ahead, and its overlay layer
+		private List<Registration> registrations = new ArrayList<Registration>();
+		private long layer = 0;
+		// the state of the strategy after the population ahead
+		private Object strategyState;
+		// a file of the commits couldn't be checked out
+		private boolean checkoutFailed = false;
+
+		private Population(View view, Folder folder, String head, NavigableMap<CommitInformation, File> commits,
+				Set<String> deletedFiles, boolean tagRequired, long nanos) {
+			this.view = view;
+			this.folder = folder;
+			this.head = head;
+			this.commits = commits;
+			this.deletedFiles = deletedFiles;
+			this.tagRequired = tagRequired;
+			this.nanos = nanos;
+		}
+	}
+
 	private void writeLabelTag(View view, Label label) {
 		DataRef ref = null;
 		if(lastCommit != null) {
@@ -1079,6 +1561,7 @@ public class GitImporter {
 			if (tagMarks.containsKey(tagName)) {
 				// Replace the null value with the ref.
 				tagMarks.put(tagName, ref);
+				repositoryHelper.keepTagTree(tagName, ref);
 			}
 			Date tagDate = null;
 			if (label.isViewLabel()) {
@@ -1147,7 +1630,7 @@ public class GitImporter {
 
 		// get the most recent commit 
 		setFolder(view, baseFolder);
-		getFolder().populateNow(server.getTypeNames().FILE, null, -1);
+		StarteamSource.getInstance().populate(getFolder(), null);
 		recursiveLastModifiedTime(getFolder());
 		long lastTime = getLastModifiedTime();
 		// in case View life less than 24 hours
@@ -1158,13 +1641,15 @@ public class GitImporter {
 		CheckoutStrategy.setLastCommitTime(previousTime);
 
 		Log.log("Commit from " + new java.util.Date(firstTime) + " to " + new java.util.Date(lastTime));
+		// the import isn't done by label
+		Metrics.instance.enter(view.getName(), "");
 		Calendar timeIncrement = Calendar.getInstance();
 		timeIncrement.setTimeInMillis(firstTime);
 		for(;timeIncrement.getTimeInMillis() < lastTime; timeIncrement.add(Calendar.DAY_OF_YEAR, 1)) {
 			if(lastTime - timeIncrement.getTimeInMillis() <= day) {
 				vc = view;
 			} else {
-				vc = new View(view, ViewConfiguration.createFromTime(new OLEDate(timeIncrement.getTimeInMillis())));
+				vc = StarteamSource.getInstance().openView(view, ViewConfiguration.createFromTime(new OLEDate(timeIncrement.getTimeInMillis())));
 			}
 			Log.log("View Configuration Time: " + timeIncrement.getTime());
 			generateFastImportStream(vc, baseFolder);
@@ -1227,6 +1712,18 @@ public class GitImporter {
 	public void dispose() {
 		repositoryHelper.dispose();
 		finish();
+		Metrics.instance.stop();
+	}
+
+	/**
+	 * Write the metrics of the import in the starteam directory of the
+	 * repository, periodically and when the importer is disposed.
+	 *
+	 * @param intervalSeconds
+	 *          Seconds between two writes, 0 to only write them at the end
+	 */
+	public void startMetrics(int intervalSeconds) {
+		Metrics.instance.start(repositoryHelper.getStarteamInfoDirectory(), intervalSeconds);
 	}
 
 	public void setMinimumLFSSize(long startTrackingAtSize) {
@@ -1237,6 +1734,72 @@ public class GitImporter {
 		lfsRegex = lfsRegexPattern;
 	}
 
+	/**
+	 * Set the number of workers checking out the revisions ahead of the
+	 * fast-import writer.
+	 *
+	 * @param threads
+	 *          number of checkout workers, 1 or less to checkout on the writer
+	 *          thread
+	 * @param lookAhead
+	 *          maximum number of revisions checked out in advance, 0 to use 4
+	 *          revisions per worker
+	 */
+	public void setCheckoutThreads(int threads, int lookAhead) {
+		checkoutThreads = threads;
+		checkoutLookAhead = lookAhead > 0 ? lookAhead : threads * 4;
+	}
+
+	/**
+	 * @param views
+	 *          number of views imported at the same time by the all views
+	 *          import, each one in its own fast-import process
+	 */
+	public void setParallelViews(int views) {
+		parallelViews = Math.max(1, views);
+	}
+
+	/**
+	 * @param labels
+	 *          number of labels populated on another thread ahead of the label
+	 *          written by the label imports, 0 to populate each label when it is
+	 *          written
+	 */
+	public void setLabelLookAhead(int labels) {
+		labelLookAhead = Math.max(0, labels);
+	}
+
+	/**
+	 * @param dedup
+	 *          reference the contents already imported, found by their Starteam
+	 *          MD5, instead of checking them out again
+	 */
+	public void setContentDedup(boolean dedup) {
+		contentDedup = dedup;
+	}
+
+	/**
+	 * Find the content of this revision if it was already imported. Large files
+	 * always go through the LFS path.
+	 *
+	 * @param dedup
+	 *          also look for the same content in the other files
+	 * @return a reference to the content or null if it needs to be checked out
+	 */
+	private DataRef findKnownContent(String path, File f, boolean dedup) {
+		if (null != lfsRegex && lfsRegex.matcher(path).matches()) {
+			return null;
+		}
+		if (lfsMinimumSize != Long.MAX_VALUE && f.getSizeEx() >= lfsMinimumSize) {
+			return null;
+		}
+		DataRef imported = repositoryHelper.findImportedContent(f.getItemID(), f.getContentVersion());
+		if (null != imported || !dedup) {
+			return imported;
+		}
+		return repositoryHelper.getContentIndex().find(f.getMD5());
+	}
+
 	public void setCheckoutStrategy(CommitPopulationStrategy strategy) {
 		CheckoutStrategy = strategy;
 		CheckoutStrategy.setVerboseLogging(verbose);
@@ -62,7 +62,7 @@ public final class Log {
         log2File(log.toString());
     }
 
-    private static void log2File(String log) {
+    private static synchronized void log2File(String log) {
         if (writer != null) {
             try {
                 writer.write(log);
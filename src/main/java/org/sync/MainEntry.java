@@ -36,6 +36,8 @@ import java.util.regex.PatternSyntaxException;
 import org.sync.commitstrategy.BasePopulationStrategy;
 import org.sync.commitstrategy.ChangeRequestPopulationStrategy;
 import org.sync.commitstrategy.RevisionPopulationStrategy;
+import org.sync.starteam.RecordingStarteamSource;
+import org.sync.starteam.StarteamSource;
 import org.sync.util.Config;
 import org.vertify.Verify;
 
@@ -91,6 +93,9 @@ public class MainEntry {
 		CmdLineParser.Option selectChangeRequestImport = parser.addStringOption("change-request");
 		CmdLineParser.Option excludeLabel = parser.addStringOption("exclude-label");
 		CmdLineParser.Option excludeView = parser.addStringOption("exclude-view");//添加参数，去除子视图，与-A参数一同使用有效
+		CmdLineParser.Option selectCheckoutThreads = parser.addIntegerOption("checkout-threads");
+		CmdLineParser.Option selectParallelViews = parser.addIntegerOption("parallel-views");
+		CmdLineParser.Option isFullVerify = parser.addBooleanOption("full");
 		//TODO: Add a label creation at tip before starting the importation
 
 		try {
@@ -184,6 +189,20 @@ public class MainEntry {
             }
         }
 		
+		Integer checkoutThreads = (Integer) parser.getOptionValue(selectCheckoutThreads);
+		if (checkoutThreads == null) {
+			checkoutThreads = Integer.valueOf(Config.instance.get("checkoutThreads", "1"));
+		}
+		int checkoutLookAhead = Integer.parseInt(Config.instance.get("checkoutLookAhead", "0"));
+		Integer parallelViews = (Integer) parser.getOptionValue(selectParallelViews);
+		if (parallelViews == null) {
+			parallelViews = Integer.valueOf(Config.instance.get("parallelViews", "1"));
+		}
+		Boolean fullVerify = (Boolean) parser.getOptionValue(isFullVerify);
+		if (fullVerify == null) {
+			fullVerify = Boolean.valueOf(Config.instance.get("fullVerify", "false"));
+		}
+
 		List<String> includeViews = new ArrayList<>();
 		if (!"".equals(Config.instance.get("includeViews",""))) {
             includeViews = Arrays.asList(Config.instance.get("includeViews","").split(";"));
@@ -255,6 +274,7 @@ public class MainEntry {
 
 		RepositoryHelperFactory.getFactory().setPreferedPath(pathToProgram);
 		RepositoryHelperFactory.getFactory().setCreateRepo((null != createNewRepo));
+		RepositoryHelperFactory.getFactory().setBackend(Config.instance.get("backend", "git"));
 		if(null != workingFolder) {
 			RepositoryHelperFactory.getFactory().setWorkingFolder(workingFolder);
 		}
@@ -325,6 +345,7 @@ public class MainEntry {
 					}
 					GitImporter importer = new GitImporter(starteam, p);
 					boolean importComplete = false;
+					RecordingStarteamSource recorder = null;
 					try {
 						if(null != head) {
 							importer.setHeadName(head);
@@ -344,6 +365,13 @@ public class MainEntry {
 						importer.setLabelExclusion(excludedLabels);
 						importer.setEOLAttribute(eolAttribute);
 						importer.setViewInclusion(includeViews);
+						importer.setCheckoutThreads(checkoutThreads, checkoutLookAhead);
+						importer.setContentDedup(Boolean.parseBoolean(Config.instance.get("contentDedup", "true")));
+						importer.setParallelViews(parallelViews);
+						importer.setLabelLookAhead(Integer.parseInt(Config.instance.get("labelLookAhead", "0")));
+						if (Boolean.parseBoolean(Config.instance.get("metrics", "false"))) {
+							importer.startMetrics(Integer.parseInt(Config.instance.get("metricsInterval", "600")));
+						}
 						NetMonitor.onFile(new java.io.File("netmon.out"));
 
 						if(allViews && view == null) {
@@ -355,10 +383,11 @@ public class MainEntry {
 									viewFound = true;
 									rootView = v;
 									if (st2git) {
+                                        recorder = startRecording(v);
                                         if (allViews) {
                                             // modify 检测这个视图是否是空的文件夹
                                             Folder rootFolder = v.getRootFolder();
-                                            Item[] items = rootFolder.getItems(rootFolder.getTypeNames().FILE);
+                                            Item[] items = StarteamSource.getInstance().getItems(rootFolder);
                                             if ((items == null || items.length == 0) && (rootFolder.getSubFolderCount() == 0)) {
                                                 System.err.println(v.getName() + " is a empty view!");
                                                 break;
@@ -387,7 +416,7 @@ public class MainEntry {
                                             importer.generateFastImportStream(v, folder);
                                         } 
                                     } else {
-                                        verify(rootView, importer);
+                                        verify(rootView, importer, fullVerify);
                                     }
                                     break;
 								} else if(verbose) {
@@ -401,11 +430,12 @@ public class MainEntry {
 						
 					} finally {
 						importer.dispose();
+						stopRecording(recorder);
 						if (st2git && importComplete) {
 						    importer.resetHEAD(rootView.getName());
 						    importEnd(importer.getImportedViews(), importer.getSkipViews());
 						    if (Boolean.valueOf(Config.instance.get("verify", "false"))) {
-						        verify(rootView, importer);
+						        verify(rootView, importer, fullVerify);
 						    }
                         }
 						Log.close();
@@ -424,9 +454,42 @@ public class MainEntry {
 		}
 	}
 
-    private static void verify(View rootView, GitImporter importer) {
+	/**
+	 * Record what the import reads from Starteam when an archive is configured,
+	 * to replay the import offline with {@link org.sync.starteam.ReplayImport}.
+	 */
+	private static RecordingStarteamSource startRecording(View rootView) {
+		String archive = Config.instance.get("starteamRecord", "");
+		if (archive.isEmpty()) {
+			return null;
+		}
+		try {
+			RecordingStarteamSource recorder = new RecordingStarteamSource(StarteamSource.getInstance(), new File(archive));
+			recorder.recordViews(rootView);
+			StarteamSource.setInstance(recorder);
+			Log.log("Recording the Starteam view " + rootView.getName() + " to " + archive);
+			return recorder;
+		} catch (IOException e) {
+			Log.log("Could not record the Starteam view: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static void stopRecording(RecordingStarteamSource recorder) {
+		if (null == recorder) {
+			return;
+		}
+		try {
+			recorder.close();
+		} catch (IOException e) {
+			Log.log("Could not write the Starteam archive: " + e.getMessage());
+		}
+	}
+
+    private static void verify(View rootView, GitImporter importer, boolean full) {
         try {
             Verify verify = new Verify(importer.getWorkingDirectory(), rootView);
+            verify.setFull(full);
             verify.verify();
         } catch (IOException e) {
             e.printStackTrace();
@@ -476,6 +539,9 @@ public class MainEntry {
     System.out.println("[--lfs-pattern <regex>\tRegular expression on filename.");
         System.out.println("[--view-label-pattern <regex>\tRegular expression to filter which view label to keep.");
         System.out.println("[--revision-label-pattern <regex>\tRegular expression on to filter which revision label to keep.");
+        System.out.println("[--checkout-threads <count>]\tNumber of threads checking out the files ahead of git fast-import");
+        System.out.println("[--parallel-views <count>]\tNumber of views imported at the same time when using -A");
+        System.out.println("[--full]\t\tVerify all the labels again, not only the new or moved ones");
 		System.out.println("java org.sync.MainEntry -h localhost -P 23456 -p Alpha -v MAIN -d email.com -U you");
 		
 	}
@@ -19,6 +19,8 @@ package org.sync;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.sync.starteam.StarteamSource;
+
 import com.starbase.starteam.File;
 import com.starbase.starteam.Folder;
 import com.starbase.starteam.Item;
@@ -52,7 +54,7 @@ public class RenameFinder {
 
 		// file was probably renamed during the time period
 		if (!oldFileName.equals(file.getName())) {
-			Item[] hist = file.getHistory();
+			Item[] hist = StarteamSource.getInstance().getHistory(file);
 			for (int i = 0; i < hist.length; i++) {
 				File item = (File) hist[i];
 				long time = item.getModifiedTime().getLongValue();
@@ -74,7 +76,7 @@ public class RenameFinder {
 				if (item != null) {
 					return item;
 				}
-				Item[] hist = folder.getHistory();
+				Item[] hist = StarteamSource.getInstance().getHistory(folder);
 				for (int i = 0; i < hist.length; i++) {
 					item = (Folder) hist[i];
 					long time = item.getModifiedTime().getLongValue();
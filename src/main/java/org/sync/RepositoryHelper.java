@@ -19,28 +19,39 @@ package org.sync;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.ossnoize.git.fastimport.Blob;
 import org.ossnoize.git.fastimport.Checkpoint;
 import org.ossnoize.git.fastimport.Commit;
+import org.ossnoize.git.fastimport.DataRef;
 import org.ossnoize.git.fastimport.Done;
 import org.ossnoize.git.fastimport.Reset;
 import org.ossnoize.git.fastimport.Tag;
+import org.sync.util.ContentIndex;
 import org.sync.util.LogEntry;
+import org.sync.util.Metrics;
 import org.sync.util.SmallRef;
 import org.sync.util.StarteamFileInfo;
+import org.sync.util.StarteamFileInfoOverlay;
+import org.sync.util.StarteamFileInfoOverlay.Registration;
+import org.sync.util.StarteamFileInfoStore;
 
 public abstract class RepositoryHelper {
 	protected final static long timeForEachCheckpoint = 1000L*60L*60L*3L; // 3 Hours
 
 	protected File fastExportOverrideToFile;
 	protected long lastCheckpointTime = 0;
-	protected Map<String, Map<String, StarteamFileInfo>> fileInformation;
+	protected StarteamFileInfoStore fileInformation;
+	// the mutations of this stream, journaled once its fast-import stored them;
+	// null for the store's own
+	protected StarteamFileInfoStore.Batch fileInformationBatch;
+	protected ContentIndex contentIndex;
 	protected String repositoryDir;
+	// the file information of the labels populated ahead, seen by the
+	// populating thread only
+	private final ThreadLocal<StarteamFileInfoOverlay> overlay = new ThreadLocal<StarteamFileInfoOverlay>();
 
 	/**
 	 * Return the full list of path to files that are tracked in the repository.
@@ -100,19 +111,22 @@ public abstract class RepositoryHelper {
 	 * @return true if the file was correctly registered. False otherwise.
 	 */
 	public boolean registerFileId(String head, String filename, int fileId, int fileVersion, int contentVersion, byte[] md5) {
-		if(null == fileInformation) {
-			if(!loadFileInformation()) {
-				fileInformation = new HashMap<String, Map<String, StarteamFileInfo>>();
+		StarteamFileInfoOverlay ahead = overlay.get();
+		if(null != ahead) {
+			if(null != getRegisteredFile(head, filename)) {
+				return false;
 			}
-		}
-		if(!fileInformation.containsKey(head)) {
-			fileInformation.put(head, new HashMap<String, StarteamFileInfo>());
-		}
-		if(!fileInformation.get(head).containsKey(filename)) {
-			fileInformation.get(head).put(filename, new StarteamFileInfo(filename, fileId, fileVersion, contentVersion, md5));
+			StarteamFileInfo info = new StarteamFileInfo(filename, fileId, fileVersion, contentVersion, md5);
+			ahead.put(head, filename, info, new Registration(Registration.REGISTER, head, filename, info));
 			return true;
 		}
-		return false;
+		if(null == fileInformation) {
+			loadFileInformation();
+			if(null == fileInformation) {
+				fileInformation = new StarteamFileInfoStore(null, null);
+			}
+		}
+		return fileInformation.register(fileInformationBatch, head, filename, fileId, fileVersion, contentVersion, md5);
 	}
 
 	/**
@@ -144,25 +158,36 @@ public abstract class RepositoryHelper {
 	 *          The Starteam File Content version.
 	 */
 	public boolean updateFileVersion(String head, String filename, int fileVersion, int contentVersion, byte[] md5) {
-		if(null != fileInformation) {
-			if(fileInformation.containsKey(head) && fileInformation.get(head).containsKey(filename)) {
-				StarteamFileInfo info = fileInformation.get(head).get(filename);
-				info.setVersion(fileVersion);
-				info.setContentVersion(contentVersion);
-				info.setMd5(md5);
-				return true;
+		StarteamFileInfoOverlay ahead = overlay.get();
+		if(null != ahead) {
+			StarteamFileInfo known = getRegisteredFile(head, filename);
+			if(null == known) {
+				return false;
 			}
+			StarteamFileInfo info = new StarteamFileInfo(filename, known.getId(), fileVersion, contentVersion, md5);
+			ahead.put(head, filename, info, new Registration(Registration.UPDATE_VERSION, head, filename, info));
+			return true;
+		}
+		if(null != fileInformation) {
+			return fileInformation.updateVersion(fileInformationBatch, head, filename, fileVersion, contentVersion, md5);
 		}
 		return false;
 	}
 	
 	public boolean updateFileId(String head, String filename, int fileId) {
-		if(null != fileInformation) {
-			if(fileInformation.containsKey(head) && fileInformation.get(head).containsKey(filename)) {
-				StarteamFileInfo info = fileInformation.get(head).get(filename);
-				info.setId(fileId);
-				return true;
+		StarteamFileInfoOverlay ahead = overlay.get();
+		if(null != ahead) {
+			StarteamFileInfo known = getRegisteredFile(head, filename);
+			if(null == known) {
+				return false;
 			}
+			StarteamFileInfo info = new StarteamFileInfo(filename, fileId, known.getVersion(), known.getContentVersion(),
+					known.getMd5());
+			ahead.put(head, filename, info, new Registration(Registration.UPDATE_ID, head, filename, info));
+			return true;
+		}
+		if(null != fileInformation) {
+			return fileInformation.updateId(fileInformationBatch, head, filename, fileId);
 		}
 		return false;
 	}
@@ -173,9 +198,73 @@ public abstract class RepositoryHelper {
 	 * @param filename the full path of the file and its name inside the repository
 	 */
 	public void unregisterFileId(String head, String filename) {
+		StarteamFileInfoOverlay ahead = overlay.get();
+		if(null != ahead) {
+			if(null != getRegisteredFile(head, filename)) {
+				ahead.put(head, filename, null, new Registration(Registration.UNREGISTER, head, filename, null));
+			}
+			return;
+		}
+		if(null != fileInformation) {
+			fileInformation.unregister(fileInformationBatch, head, filename);
+		}
+	}
+
+	/**
+	 * Return the registered information of a file, loading them if needed.
+	 */
+	private StarteamFileInfo getRegisteredFile(String head, String filename) {
+		StarteamFileInfoOverlay ahead = overlay.get();
+		if(null != ahead && ahead.contains(head, filename)) {
+			return ahead.get(head, filename);
+		}
+		if(null == fileInformation && !loadFileInformation()) {
+			return null;
+		}
 		if(null != fileInformation) {
-			if(fileInformation.containsKey(head)) {
-				fileInformation.get(head).remove(filename);
+			return fileInformation.get(head, filename);
+		}
+		return null;
+	}
+
+	/**
+	 * Keep the file registrations of the calling thread in the overlay instead
+	 * of the store, so the labels it populates ahead are not journaled before
+	 * they are written.
+	 * @param ahead the overlay, null to register in the store again
+	 */
+	public void setFileInformationOverlay(StarteamFileInfoOverlay ahead) {
+		if(null == ahead) {
+			overlay.remove();
+		} else {
+			overlay.set(ahead);
+		}
+	}
+
+	/**
+	 * Apply to the store the registrations done while a label was populated
+	 * ahead, before its commits are written.
+	 * @param registrations the registrations in the order they were done
+	 */
+	public void applyRegistrations(List<Registration> registrations) {
+		for(Registration r : registrations) {
+			StarteamFileInfo info = r.getInfo();
+			switch(r.getOperation()) {
+			case Registration.REGISTER:
+				registerFileId(r.getHead(), r.getFilename(), info.getId(), info.getVersion(), info.getContentVersion(),
+						info.getMd5());
+				break;
+			case Registration.UPDATE_VERSION:
+				updateFileVersion(r.getHead(), r.getFilename(), info.getVersion(), info.getContentVersion(), info.getMd5());
+				break;
+			case Registration.UPDATE_ID:
+				updateFileId(r.getHead(), r.getFilename(), info.getId());
+				break;
+			case Registration.UNREGISTER:
+				unregisterFileId(r.getHead(), r.getFilename());
+				break;
+			default:
+				break;
 			}
 		}
 	}
@@ -188,14 +277,9 @@ public abstract class RepositoryHelper {
 	 * @return the id of the file or NULL if not found.
 	 */
 	public Integer getRegisteredFileId(String head, String filename) {
-		if(null != fileInformation) {
-			if(fileInformation.containsKey(head)) {
-				if(fileInformation.get(head).containsKey(filename)) {
-					return fileInformation.get(head).get(filename).getId();
-				}
-			}
-		} else if (loadFileInformation()) {
-			return getRegisteredFileId(head, filename);
+		StarteamFileInfo info = getRegisteredFile(head, filename);
+		if(null != info) {
+			return info.getId();
 		}
 		return null;
 	}
@@ -208,14 +292,9 @@ public abstract class RepositoryHelper {
 	 * @return the id of the file or NULL if not found.
 	 */
 	public Integer getRegisteredFileVersion(String head, String filename) {
-		if(null != fileInformation) {
-			if(fileInformation.containsKey(head)) {
-				if(fileInformation.get(head).containsKey(filename)) {
-					return fileInformation.get(head).get(filename).getVersion();
-				}
-			}
-		} else if (loadFileInformation()) {
-			return getRegisteredFileVersion(head, filename);
+		StarteamFileInfo info = getRegisteredFile(head, filename);
+		if(null != info) {
+			return info.getVersion();
 		}
 		return null;
 	}
@@ -231,27 +310,17 @@ public abstract class RepositoryHelper {
 	 * @return the id of the file or NULL if not found.
 	 */
 	public Integer getRegisteredFileContentVersion(String head, String filename) {
-		if (null != fileInformation) {
-			if (fileInformation.containsKey(head)) {
-				if (fileInformation.get(head).containsKey(filename)) {
-					return fileInformation.get(head).get(filename).getContentVersion();
-				}
-			}
-		} else if (loadFileInformation()) {
-			return getRegisteredFileContentVersion(head, filename);
+		StarteamFileInfo info = getRegisteredFile(head, filename);
+		if (null != info) {
+			return info.getContentVersion();
 		}
 		return null;
 	}
 	
 	public byte[] getRegisteredFileMd5(String head, String filename) {
-		if (null != fileInformation) {
-			if (fileInformation.containsKey(head)) {
-				if (fileInformation.get(head).containsKey(filename)) {
-					return fileInformation.get(head).get(filename).getMd5();
-				}
-			}
-		} else if (loadFileInformation()) {
-			return getRegisteredFileMd5(head, filename);
+		StarteamFileInfo info = getRegisteredFile(head, filename);
+		if (null != info) {
+			return info.getMd5();
 		}
 		return null;
 	}
@@ -273,7 +342,9 @@ public abstract class RepositoryHelper {
 	 */
 	public void writeCommit(Commit commit) throws IOException {
 		OutputStream fastImportStream = getFastImportStream();
+		long before = getBytesAccepted();
 		commit.writeTo(fastImportStream);
+		countWritten(Metrics.COMMIT_BYTES, before);
 		if(lastCheckpointTime <= 0) {
 			lastCheckpointTime = System.currentTimeMillis();
 		}
@@ -291,8 +362,31 @@ public abstract class RepositoryHelper {
 		Checkpoint checkpoint = new Checkpoint();
 		checkpoint.writeTo(fastImportStream);
 		lastCheckpointTime = System.currentTimeMillis();
+		if(!awaitCheckpoint()) {
+			Log.log("fast-import did not acknowledge the checkpoint, the Starteam file information is not saved");
+			return;
+		}
+		// journal the file information recorded up to this checkpoint
+		saveFileInformation();
 		Log.out("Checkpoint done");
 	}
+
+	/**
+	 * Wait for the checkpoint written to be processed, so the file information
+	 * is not journaled before the commits it describes are stored.
+	 * @return true if everything written up to the checkpoint is stored.
+	 */
+	protected boolean awaitCheckpoint() {
+		return true;
+	}
+
+	/**
+	 * Wait for the fast-import stream to be fully processed once closed.
+	 * @return true if everything written was stored.
+	 */
+	protected boolean awaitFastImportEnd() {
+		return true;
+	}
 	
 	/**
 	 * Write a blob to the fast-import stream to be used by commit afterward.
@@ -302,7 +396,9 @@ public abstract class RepositoryHelper {
 	 */
 	public void writeBlob(Blob fileToStage) throws IOException {
 		OutputStream fastImportStream = getFastImportStream();
+		long before = getBytesAccepted();
 		fileToStage.writeTo(fastImportStream);
+		countWritten(Metrics.BLOB_BYTES, before);
 	}
 	
 	/**
@@ -322,9 +418,63 @@ public abstract class RepositoryHelper {
 	 */
 	public void writeTag(Tag tag) throws IOException {
 		OutputStream fastImportStream = getFastImportStream();
+		long before = getBytesAccepted();
 		tag.writeTo(fastImportStream);
+		countWritten(Metrics.TAG_BYTES, before);
+	}
+
+	/**
+	 * Provide the number of bytes written to the fast-import stream so far.
+	 * @return the number of bytes, -1 if the stream doesn't count them.
+	 */
+	protected long getBytesAccepted() {
+		return -1;
+	}
+
+	private void countWritten(String counter, long before) {
+		if(before >= 0) {
+			Metrics.current().add(counter, getBytesAccepted() - before);
+		}
 	}
 	
+	/**
+	 * Keep the files of a tagged commit in memory because views are based on
+	 * the tag. Called again with the commit of the tag in the repository once
+	 * the stream that wrote it is done.
+	 * @param tagName Name of the tag
+	 * @param commit The tagged commit
+	 */
+	public void keepTagTree(String tagName, DataRef commit) {
+	}
+
+	/**
+	 * @return true if the blobs registered with
+	 *         {@link #registerImportedContent(int, int, DataRef)} are kept for
+	 *         the next runs.
+	 */
+	public boolean keepsImportedContent() {
+		return false;
+	}
+
+	/**
+	 * Find the blob of a Starteam content written by this or an earlier run.
+	 * @param itemId Item id of the file
+	 * @param contentVersion Content version of the file
+	 * @return the reference to the blob, null if unknown
+	 */
+	public DataRef findImportedContent(int itemId, int contentVersion) {
+		return null;
+	}
+
+	/**
+	 * Record the Starteam content a blob was written from.
+	 * @param itemId Item id of the file
+	 * @param contentVersion Content version of the file
+	 * @param blob The blob written
+	 */
+	public void registerImportedContent(int itemId, int contentVersion, DataRef blob) {
+	}
+
 	public abstract java.util.Date getLastCommitOfBranch(String branchName);
 	
 	/**
@@ -349,10 +499,11 @@ public abstract class RepositoryHelper {
 
 	/**
 	 * Close the fast-import stream and do some house keeping for the tracked
-	 * file version. Need to be called for the fast-import process to end.
+	 * file version. Need to be called for the fast-import process to end. The
+	 * file information is only saved when fast-import stored everything.
 	 */
 	public void dispose() {
-		saveFileInformation();
+		boolean stored = true;
 		try {
       OutputStream out = getFastImportStream();
       Done finishedImport = new Done();
@@ -360,6 +511,16 @@ public abstract class RepositoryHelper {
 			out.close();
 		} catch (IOException e) {
       Log.log(e.getMessage());
+			stored = false;
+		}
+		stored &= awaitFastImportEnd();
+		if(stored) {
+			saveFileInformation();
+		} else {
+			Log.log("fast-import did not end properly, the Starteam file information since the last checkpoint is not saved");
+		}
+		if(null != fileInformation && null != fileInformationBatch) {
+			fileInformation.closeBatch(fileInformationBatch);
 		}
 	}
 	
@@ -381,6 +542,24 @@ public abstract class RepositoryHelper {
     return repositoryDir;
   }
 
+  /**
+   * Provide the directory where the importer keeps its own information about
+   * the repository, created if needed.
+   * @return Directory of the starteam information.
+   */
+  public abstract File getStarteamInfoDirectory();
+
+  /**
+   * Provide the index of the file contents already imported in the repository.
+   * @return the content index of the repository.
+   */
+  public synchronized ContentIndex getContentIndex() {
+    if (null == contentIndex) {
+      contentIndex = new ContentIndex(getStarteamInfoDirectory(), new File(getWorkingDirectory()));
+    }
+    return contentIndex;
+  }
+
   /**
    * Extract the lastest version of the requested file from the current state
    * of the fast-import process
@@ -28,6 +28,7 @@ public class RepositoryHelperFactory {
 	private String preferredPath = null;
 	private boolean createRepo = false;
 	private String workingFolder = null;
+	private String backend = "git";
 	
 	private RepositoryHelperFactory() {
 	}
@@ -49,9 +50,13 @@ public class RepositoryHelperFactory {
 		if (null == helper) {
 			try {
 				// TODO: Add more validation to support more repository type. (Bazaar, Mercurial, ...)
-				helper = new org.sync.githelper.GitHelper(preferredPath, (null!=workingFolder?false:createRepo), workingFolder);
-				if(null != workingFolder) {
-					helper.setWorkingDirectory(workingFolder, createRepo);
+				if ("jgit".equalsIgnoreCase(backend)) {
+					helper = new org.sync.githelper.JGitHelper(workingFolder, createRepo);
+				} else {
+					helper = new org.sync.githelper.GitHelper(preferredPath, (null!=workingFolder?false:createRepo), workingFolder);
+					if(null != workingFolder) {
+						helper.setWorkingDirectory(workingFolder, createRepo);
+					}
 				}
 			} catch (Exception e) {
 				e.printStackTrace();
@@ -61,6 +66,28 @@ public class RepositoryHelperFactory {
 		return helper;
 	}
 	
+	/**
+	 * Create a helper writing to its own fast-import process in the repository of
+	 * the cached helper. The returned helper isn't cached, it shall be disposed
+	 * by the caller.
+	 * @return A new helper sharing the repository information. Null if there is
+	 *         no repository.
+	 */
+	public RepositoryHelper createStreamHelper() {
+		RepositoryHelper shared = createHelper();
+		if (shared instanceof org.sync.githelper.GitHelper) {
+			return new org.sync.githelper.GitHelper((org.sync.githelper.GitHelper) shared);
+		}
+		if (shared instanceof org.sync.githelper.JGitHelper) {
+			try {
+				return new org.sync.githelper.JGitHelper((org.sync.githelper.JGitHelper) shared);
+			} catch (java.io.IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Clear the cached helper to force it recreation.
 	 */
@@ -80,6 +107,14 @@ public class RepositoryHelperFactory {
 		this.workingFolder = workingFolder;
 	}
 
+	/**
+	 * Select how the objects are written in the git repository: "git" to run
+	 * git fast-import, "jgit" to write them with JGit without any git executable.
+	 */
+	public void setBackend(String backend) {
+		this.backend = backend;
+	}
+
 	public static void deleteFactory() {
 		instance = null;
 	}
@@ -20,6 +20,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.sync.Log;
+import org.sync.util.Metrics;
 
 import com.starbase.starteam.ChangeRequest;
 import com.starbase.starteam.FolderListManager;
@@ -58,6 +59,7 @@ public class ChangeRequestsHelper implements IChangeRequestsHelper{
 		ilm.getItems(); // Fetch all CR from the current view so we can poke them
 		                // later.
 		long duration = System.nanoTime() - start;
+		Metrics.current().record(Metrics.CHANGE_REQUEST_CACHE, duration);
 		Log.logf("Creating cache of CR took %dns for view %s", duration, currentView.getName());
 	}
 	
@@ -82,6 +84,7 @@ public class ChangeRequestsHelper implements IChangeRequestsHelper{
 		long start = System.nanoTime();
 		ChangeRequest changeRequest = getChangeRequest(label);
 		long duration = System.nanoTime() - start;
+		Metrics.current().record(Metrics.CHANGE_REQUEST, duration);
 		if (duration > 1000000) {
 			Log.logf("Getting change request took %dns for label %s", duration, label.getName());
 		}
@@ -16,18 +16,16 @@
  ******************************************************************************/
 package org.sync.commitstrategy;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -36,40 +34,52 @@ import org.sync.CommitPopulationStrategy;
 import org.sync.Log;
 import org.sync.RenameFinder;
 import org.sync.RepositoryHelper;
+import org.sync.starteam.StarteamSource;
+import org.sync.util.CommentPipeline;
 import org.sync.util.CommitInformation;
+import org.sync.util.CommitList;
 import org.sync.util.Config;
-import org.sync.util.HttpClient;
+import org.sync.util.Metrics;
 import org.sync.util.Pair;
+import org.sync.util.ReviewDescriptionCache;
 
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
 import com.starbase.starteam.File;
 import com.starbase.starteam.Folder;
 import com.starbase.starteam.Item;
-import com.starbase.starteam.ItemList;
 import com.starbase.starteam.Label;
 import com.starbase.starteam.PropertyNames;
-import com.starbase.starteam.RecycleBin;
 import com.starbase.starteam.ServerException;
-import com.starbase.starteam.Type;
 import com.starbase.starteam.View;
 
 import jdk.nashorn.internal.parser.JSONParser;
-import net.sf.json.JSONObject;
 
 public class BasePopulationStrategy implements CommitPopulationStrategy {
 
+	private static final Pattern REVIEW_LINK = Pattern.compile(
+	    "(Review\\s+)*(Link\\s+:\\s+)*[hH][tT]{2}[pP]://((192.168.101.27)|(10.0.5.169))/r/\\d+/*", Pattern.CASE_INSENSITIVE);
+	private static final Pattern REVIEW_SEQ = Pattern.compile("\\d+");
+	private static final Pattern REVIEW_HOST = Pattern.compile("(192.168.101.27)|(10.0.5.169)");
+
 	/// View on which operation of file population will take place.
 	protected View currentView;
 	protected HashSet<String> lastFiles;
 	protected HashSet<String> deletedFiles;
-	protected TreeMap<CommitInformation, File> currentCommitList;
+	protected CommitList<File> currentCommitList;
 	
 	private RepositoryHelper helper;
 	private int initialFileVersion;
+	// revisions of the current folder fetched in one batch
+	private HistoryIndex historyIndex;
+	// commits waiting for their review board description, with their comment
+	private Map<CommitInformation, String> pendingReviewComments;
 	protected java.util.Date earliestTime;
 	
 	protected boolean verbose;
+	// only the files that changed since the registered version are fully
+	// populated and processed
+	protected boolean deltaPopulation;
 	
 	/**
 	 * Base Population strategy constructor using a view as its base of operations
@@ -84,7 +94,7 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 		currentView = view;
 		lastFiles = new HashSet<String>();
 		deletedFiles = new HashSet<String>();
-		currentCommitList = new TreeMap<CommitInformation, File>();
+		currentCommitList = new CommitList<File>();
 		verbose = false;
 		earliestTime = new java.util.Date(0);
 		// We register new files with version -1 to be sure to add it. Since this is
@@ -92,6 +102,9 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 		// make sure to get it's version 1. Setting the following value to 0 would
 		// grab all the version of the files since its creation
 		initialFileVersion = -1;
+		historyIndex = new HistoryIndex();
+		pendingReviewComments = new IdentityHashMap<CommitInformation, String>();
+		deltaPopulation = Boolean.parseBoolean(Config.instance.get("deltaPopulation", "false"));
 	}
 
 	@Override
@@ -99,25 +112,113 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 		currentCommitList.clear(); // flush every composed commit from last run.
 		deletedFiles.clear();
 		deletedFiles.addAll(lastFiles);
-		populateStarteamProperties(root);
+		Metrics.Scope metrics = Metrics.current();
+		long start = System.nanoTime();
+		populateStarteamProperties(head, root);
+		metrics.time(Metrics.POPULATE_PROPERTIES, start);
+		start = System.nanoTime();
 		doFilePopulation(head, "", root);
+		metrics.time(Metrics.FILE_POPULATION, start);
 		lastFiles.removeAll(deletedFiles); // clean files that was never seen from the last files.
+		start = System.nanoTime();
 		recoverDeleteInformation(head, root);
-		if (currentCommitList.size() > 0) {
-			setLastCommitTime(currentCommitList.lastKey().getCommitDate());
+		metrics.time(Metrics.RECOVER_DELETE, start);
+		resolveReviewComments();
+		if (!currentCommitList.isEmpty()) {
+			setLastCommitTime(currentCommitList.asMap().lastKey().getCommitDate());
 		}
 	}
 
 	/**
+	 * Populate the properties of the files of the tree. With the delta
+	 * population, only the properties identifying a file are populated for the
+	 * whole tree, the properties needed to create the commits are then populated
+	 * in one batch for the files that changed since the last population.
+	 * 
+	 * @param head
+	 *          The target branch name
 	 * @param root
 	 *          The root folder requiring the properties population
 	 */
-	protected void populateStarteamProperties(Folder root) {
+	protected void populateStarteamProperties(String head, Folder root) {
+		StarteamSource source = StarteamSource.getInstance();
 		PropertyNames propNames = root.getPropertyNames();
+		if (!deltaPopulation) {
+			source.populate(root, populatedProperties(propNames));
+			return;
+		}
+		source.populate(root, new String[] {
+				propNames.FILE_NAME,
+				propNames.FILE_CONTENT_REVISION,
+		});
+		List<File> changed = new ArrayList<File>();
+		collectChangedFiles(head, "", root, changed);
+		if (changed.size() > 0) {
+			source.populate(changed, populatedProperties(propNames));
+		}
+	}
+
+	/**
+	 * Walk the tree the same way {@link #doFilePopulation(String, String, Folder)}
+	 * does and collect the files that are not at their registered version.
+	 */
+	private void collectChangedFiles(String head, String gitpath, Folder f, List<File> changed) {
+		StarteamSource source = StarteamSource.getInstance();
+		for (Item i : source.getItems(f)) {
+			if (i instanceof File && !checkExcludeFile(((File) i).getName())) {
+				String path = gitpath + (gitpath.length() > 0 ? "/" : "") + ((File) i).getName();
+				if (!isUnchanged(head, (File) i, path)) {
+					changed.add((File) i);
+				}
+			}
+		}
+		for (Folder subfolder : source.getSubFolders(f)) {
+			if (!checkExcludeFolder(subfolder.getName())) {
+				collectChangedFiles(head, gitpath + (gitpath.length() > 0 ? "/" : "") + subfolder.getName(), subfolder,
+				    changed);
+			}
+		}
+	}
+
+	/**
+	 * A file is unchanged when the same item is registered at the same view
+	 * version for its path, {@link #processFileForCommit(String, File, String)}
+	 * would not find any revision to commit for such a file. The registrations
+	 * are the ones the previous labels left once written, or the ones they will
+	 * leave when they are populated ahead. A file whose checkout failed stays at
+	 * its previous version once its label is written, so it is changed again for
+	 * the labels populated after that.
+	 * 
+	 * @param head
+	 *          The target branch name
+	 * @param historyFile
+	 *          The file found in the tree
+	 * @param path
+	 *          The path of the file in the git repository
+	 * @return true if the file doesn't need to be processed
+	 */
+	protected boolean isUnchanged(String head, File historyFile, String path) {
+		if (!deltaPopulation) {
+			return false;
+		}
+		Integer fileid = helper.getRegisteredFileId(head, path);
+		if (null == fileid || fileid != historyFile.getItemID()) {
+			return false;
+		}
+		Integer previousVersion = helper.getRegisteredFileVersion(head, path);
+		return null != previousVersion && previousVersion == historyFile.getViewVersion();
+	}
+
+	/**
+	 * @param propNames
+	 *          The property names of the server
+	 * @return the file properties the population requires
+	 */
+	private String[] populatedProperties(PropertyNames propNames) {
 		// Those are the interesting properties that we need.
 		// Those will prevent back-and-forth with the server regarding the
 		// collection of information.
-		String[] populateProps = new String[] {
+		return new String[] {
 				propNames.FILE_NAME,
 				propNames.COMMENT,
 				propNames.FILE_DESCRIPTION,
@@ -132,7 +233,6 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 				propNames.FILE_EXECUTABLE,
 		    propNames.PATH_REVISION,
 		};
-		root.populateNow(currentView.getServer().getTypeNames().FILE, populateProps, -1);
 	}
 
 	/**
@@ -152,22 +252,39 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 		if (null == f) {
 			throw new NullPointerException("Folder cannot be null");
 		}
-		for(Item i : f.getItems(f.getTypeNames().FILE)) {
+		StarteamSource source = StarteamSource.getInstance();
+		List<File> files = new ArrayList<File>();
+		int unchanged = 0;
+		for(Item i : source.getItems(f)) {
 			if(i instanceof File) {
 				File historyFile = (File) i;
-				String fileName = historyFile.getName();
-				String path = gitpath + (gitpath.length() > 0 ? "/" : "") + fileName;
 				// 排除一些文件，不计入commit
-				if (checkExcludeFile(fileName)) {
+				if (checkExcludeFile(historyFile.getName())) {
                     continue;
                 }
-				// 对于文件的每个版本作为一次 commitinformation
-				processFileForCommit(head, historyFile, path);
+				String path = gitpath + (gitpath.length() > 0 ? "/" : "") + historyFile.getName();
+				if (isUnchanged(head, historyFile, path)) {
+					// still in the tree, nothing to commit
+					deletedFiles.remove(path);
+					lastFiles.add(path);
+					unchanged++;
+					continue;
+				}
+				files.add(historyFile);
 			} else {
 				Log.log("Item " + f + "/" + i + " is not a file");
 			}
 		}
-		for(Folder subfolder : f.getSubFolders()) {
+		prefetchHistory(head, gitpath, files);
+		for(File historyFile : files) {
+			String path = gitpath + (gitpath.length() > 0 ? "/" : "") + historyFile.getName();
+			// 对于文件的每个版本作为一次 commitinformation
+			processFileForCommit(head, historyFile, path);
+		}
+		historyIndex.clear();
+		Metrics.current().add(Metrics.UNCHANGED_FILES, unchanged);
+		Metrics.current().add(Metrics.CHANGED_FILES, files.size());
+		for(Folder subfolder : source.getSubFolders(f)) {
 			String folderName = subfolder.getName();
 			// 排除一些文件夹，不计入commit
 			if (checkExcludeFolder(folderName)) {
@@ -205,6 +322,76 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
     }
 	
 
+	/**
+	 * Fetch in one batch the history revisions that
+	 * {@link #processFileForCommit(String, File, String)} will need for the
+	 * files of a folder. The history of each file is listed and all the
+	 * revisions not seen yet are populated in a single pass, then indexed by
+	 * item id and view version.
+	 *
+	 * @param head
+	 *          The target branch name
+	 * @param gitpath
+	 *          The path of the folder in the git repository
+	 * @param files
+	 *          The files of the folder
+	 */
+	protected void prefetchHistory(String head, String gitpath, List<File> files) {
+		StarteamSource source = StarteamSource.getInstance();
+		List<File> revisions = new ArrayList<File>();
+		for (File historyFile : files) {
+			String path = gitpath + (gitpath.length() > 0 ? "/" : "") + historyFile.getName();
+			Integer fileid = helper.getRegisteredFileId(head, path);
+			int previousVersion = -1;
+			if (null != fileid) {
+				if (fileid != historyFile.getItemID()) {
+					// A replaced file only commit its tip
+					continue;
+				}
+				Integer previousContentVersion = helper.getRegisteredFileContentVersion(head, path);
+				if (null != previousContentVersion && previousContentVersion > historyFile.getContentVersion()) {
+					// A reverted file only commit its tip
+					continue;
+				}
+				previousVersion = helper.getRegisteredFileVersion(head, path);
+			}
+			int viewVersion = historyFile.getViewVersion();
+			if (previousVersion + 1 > viewVersion) {
+				continue;
+			}
+			// The tip is already populated, no need to ask for the history when it
+			// is the only revision we miss.
+			historyIndex.put(historyFile);
+			if (previousVersion + 1 == viewVersion) {
+				continue;
+			}
+			try {
+				for (Item revision : source.getHistory(historyFile)) {
+					int version = revision.getViewVersion();
+					if (version > previousVersion && version < viewVersion) {
+						revisions.add((File) revision);
+					}
+				}
+			} catch (ServerException e) {
+				Log.logf("Could not prefetch the history of file %s: %s", path, e.getMessage());
+			}
+		}
+		if (revisions.size() > 0) {
+			try {
+				PropertyNames propNames = currentView.getPropertyNames();
+				String[] populated = populatedProperties(propNames);
+				String[] populateProps = Arrays.copyOf(populated, populated.length + 1);
+				populateProps[populated.length] = propNames.FILE_MD5_CHECKSUM;
+				source.populate(revisions, populateProps);
+			} catch (ServerException e) {
+				Log.logf("Could not populate the history of folder %s: %s", gitpath, e.getMessage());
+			}
+			for (File revision : revisions) {
+				historyIndex.put(revision);
+			}
+		}
+	}
+
 	/***
 	 * Process an individual file to create a commit in relation with its
 	 * modifications
@@ -239,7 +426,9 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
         //Log.logf("File %s id: %d", path, historyFile.getItemID());
         if (fileid != null && fileid != historyFile.getItemID()) {
             if (previousVersion <= historyFile.getViewVersion()) {
-                File fromHistory = (File) historyFile.getFromHistoryByVersion(previousVersion);
+                long start = System.nanoTime();
+                File fromHistory = StarteamSource.getInstance().getFromHistoryByVersion(historyFile, previousVersion);
+                Metrics.current().time(Metrics.HISTORY_BY_VERSION, start);
                 if (fromHistory == null) {
                 	Log.logf("pre version: %d cur version: %d", previousVersion, historyFile.getViewVersion());
                 }
@@ -268,7 +457,12 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 				// If theirs is a concurrent acces to the file, we need to retry again
 				// later.
 				try {
-					File fromHistory = (File) historyFile.getFromHistoryByVersion(ver);
+					File fromHistory = historyIndex.get(historyFile.getItemID(), ver);
+					if (fromHistory == null) {
+						long start = System.nanoTime();
+						fromHistory = StarteamSource.getInstance().getFromHistoryByVersion(historyFile, ver);
+						Metrics.current().time(Metrics.HISTORY_BY_VERSION, start);
+					}
 					if (fromHistory != null) {
 						// iterationCounter only serve as an helper in case the multiple
 						// version of the same file are done in the past
@@ -366,16 +560,8 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 	 *          base root folder we are importing from
 	 */
 	private void recoverDeleteInformation(String head, Folder root) {
-		RecycleBin recycleBin = null;
-		Type fileType = currentView.getServer().typeForName(currentView.getTypeNames().FILE);
-		try {
-			recycleBin = root.getView().getRecycleBin();
-			recycleBin.setIncludeDeletedItems(true);
-			fileType = currentView.getServer().typeForName(recycleBin.getTypeNames().FILE);
-		} catch (java.lang.UnsupportedOperationException e) {
-			recycleBin = null;
-			fileType = currentView.getServer().typeForName(currentView.getTypeNames().FILE);
-		}
+		StarteamSource source = StarteamSource.getInstance();
+		View recycleBin = source.getRecycleBin(root.getView());
 
 		RenameFinder renameFinder = new RenameFinder();
 		
@@ -393,7 +579,7 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 					item = null;
 				} else {
 					try {
-						item = (File) recycleBin.findItem(fileType, fileID);
+						item = source.findFile(recycleBin, fileID);
 					} catch (ServerException e) {
 						Log.logf("Coulfd not find deleted files <%s> ID: %d [%s]", path, fileID, e.getMessage());
 					}
@@ -402,7 +588,7 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 					deletedpaths.add(new Pair<String, File>(path, item));
 					ith.remove();
 				} else {
-					item = (File) root.getView().findItem(fileType, fileID);
+					item = source.findFile(root.getView(), fileID);
 					if(null != item && isChildOf(item, root)) {
 						CommitInformation deleteInfo;
 						String newPath = pathname(item, root);
@@ -446,9 +632,9 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 		}
 		
 		if (deletedpaths.size() > 0) {
-			ItemList items = new ItemList();
+			List<File> items = new ArrayList<File>(deletedpaths.size());
 			for (int i = 0; i < deletedpaths.size(); i++) {
-				items.addItem(deletedpaths.get(i).getSecond());
+				items.add(deletedpaths.get(i).getSecond());
 			}
 			PropertyNames propNames = currentView.getPropertyNames();
 			String[] populateProps = new String[] {
@@ -457,7 +643,7 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 					PropertyNames.ITEM_DELETED_USER_ID,
 			};
 			try {
-				items.populateNow(populateProps);
+				source.populate(items, populateProps);
 			} catch (com.starbase.starteam.NoSuchPropertyException e) {
 				Log.log("Could not populate the deleted files information");
 			}
@@ -487,21 +673,20 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 	 *          The path to check for
 	 */
 	private void declareEarlierCommitAsMoved(File item, String newPath) {
-		CommitInformation replacement = null;
-		File originalValue = null;
-		for (Iterator<Map.Entry<CommitInformation, File>> it = currentCommitList.entrySet().iterator(); it.hasNext();) {
-			Entry<CommitInformation, File> entry = it.next();
-			if (entry.getKey().getPath().equals(newPath) && item.getObjectID() == entry.getValue().getObjectID()) {
-				originalValue = entry.getValue();
-				// Time need to match with the delete instruction to be combined
-				// together
-				replacement = new CommitInformation(earliestTime, entry.getKey().getUid(), "Unexpected Move",
-				    newPath);
-				it.remove();
-				break;
+		CommitInformation moved = null;
+		for (CommitInformation info : currentCommitList.get(newPath)) {
+			// the earliest commit of the file
+			if (item.getObjectID() == currentCommitList.getRevision(info).getObjectID()
+			    && (null == moved || info.compareTo(moved) < 0)) {
+				moved = info;
 			}
 		}
-		if (replacement != null) {
+		if (moved != null) {
+			File originalValue = currentCommitList.remove(moved);
+			// Time need to match with the delete instruction to be combined
+			// together
+			CommitInformation replacement = new CommitInformation(earliestTime, moved.getUid(), "Unexpected Move",
+			    newPath);
 			currentCommitList.put(replacement, originalValue);
 		}
 
@@ -520,14 +705,7 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 	 *          The root folder on which the importation is based on
 	 */
 	private void replaceEarlierCommitInfo(CommitInformation info, File file, Folder root) {
-		String path = pathname(file, root);
-		// TODO: a better data structure for fileList would make this more efficient.
-		for(Iterator<Map.Entry<CommitInformation, File>> ith = currentCommitList.entrySet().iterator(); ith.hasNext(); ) {
-			CommitInformation info2 = ith.next().getKey();
-			if (path.equals(info2.getPath()) && info2.getCommitDate().before(info.getCommitDate())) {
-				ith.remove();
-			}
-		}
+		currentCommitList.removeEarlier(pathname(file, root), info.getCommitDate());
 	}
 	
 	/**
@@ -562,9 +740,13 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 	 */
 	protected void createCommitInformation(String path, File fileToCommit, int iterationCounter) {
 		String comment = correctedComment(fileToCommit);
-		String realAuthor = getRealAuthor(comment);
-		String commentWithFormatBugId = getCommentWithFormatBugId(comment);
-		String realComment = getRealComment(commentWithFormatBugId);
+		CommentPipeline.Rewritten rewritten = CommentPipeline.instance.rewrite(comment);
+		String realAuthor = rewritten.getAuthor();
+		String commentWithFormatBugId = rewritten.getComment();
+		// The review board description is resolved once the whole folder is
+		// populated, see resolveReviewComments()
+		boolean hasReview = null != findReviewId(commentWithFormatBugId);
+		String realComment = hasReview ? commentWithFormatBugId : getRealComment(commentWithFormatBugId);
 		Date authorDate = new java.util.Date(fileToCommit.getModifiedTime().getLongValue());
 		Date commitDate = calculateCommitDate(authorDate, iterationCounter);
 
@@ -575,98 +757,28 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 			Log.log("Discovered commit <" + info + ">");
 		}
 		currentCommitList.put(info, fileToCommit);
+		if (hasReview) {
+			pendingReviewComments.put(info, commentWithFormatBugId);
+		}
 	}
-	
+
 	/**
-	 * 将注释中的 bug id 替换为 gitlab 可识别的 bug id
-	 * 
-	 * 比如：To fix TD bug21581_bug123545_YF-20180909-001 by yukai : 将oscarJDBC.jar打包进其他jar包执行时，抛出未捕获异常
-     *      Review Link : http://192.168.101.27/r/8199/
-     *      
-     * 替换后：To fix TD bug #21581 bug #12345 req #30768(YF-20180909-001) by yukai : 将oscarJDBC.jar打包进其他jar包执行时，抛出未捕获异常
-     *      Review Link : http://192.168.101.27/r/8199/
-     * 
-	 * @param comment
-	 * @return
+	 * Fetch concurrently the review board description of every review found in
+	 * the comments of this population pass and complete the comments with it.
 	 */
-	private static String getCommentWithFormatBugId(String comment) {
-	    String commentWithFormatBugId = comment;
-        // 匹配 bugXXX BugXXX BUGXXX
-        commentWithFormatBugId = recursiveCheckBugTag(commentWithFormatBugId);
-        commentWithFormatBugId = recursiveCheckReqTag(commentWithFormatBugId);
-        // 将连续的bugID之间的"_"替换为" "
-        String pattern = "To\\s+fix\\s+.+by\\s+\\w+";
-        Matcher matcher = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE).matcher(commentWithFormatBugId);
-        if (matcher.find()) {
-            String reviewTag = matcher.group(0);
-            // 去掉 "TD"
-            Matcher tdMatcher = Pattern.compile("TD\\s+", Pattern.CASE_INSENSITIVE).matcher(reviewTag);
-            if (tdMatcher.find()) {
-                reviewTag = tdMatcher.replaceFirst("");
-            }
-            // 去掉 by XXX
-            Matcher byMatcher = Pattern.compile("\\s+by\\s+\\w+", Pattern.CASE_INSENSITIVE).matcher(reviewTag);
-            if (byMatcher.find()) {
-                reviewTag = byMatcher.replaceFirst("");
-            }
-            commentWithFormatBugId = matcher.replaceFirst(Matcher.quoteReplacement(reviewTag.replaceAll("_", " ")));
-        }
-        return commentWithFormatBugId;
-	}
-	
-	private static String recursiveCheckReqTag(String comment) {
-	    String pattern = "[A-Z]{2}-\\d{8}-\\d{3}";
-        Matcher matcher = Pattern.compile(pattern).matcher(comment);
-        if (matcher.find()) {
-             String reqTag = matcher.group(0);
-             String formatComment = matcher.replaceFirst(Matcher.quoteReplacement(getFormatReqId(reqTag)));
-             return recursiveCheckReqTag(formatComment);
-        } else {
-            return comment;
-        }
-	}
-	
-	private static String recursiveCheckBugTag(String comment) {
-	    String pattern = "(bug|td)\\s*\\d+((\\s+|_|(\\s*(&|、|和|,|，)\\s*))\\d+)*";
-        Matcher matcher = Pattern.compile(pattern,Pattern.CASE_INSENSITIVE).matcher(comment);
-        if (matcher.find()) {
-             String bugTag = matcher.group(0);
-             String formatComment = matcher.replaceFirst(Matcher.quoteReplacement(getFormatBugId(bugTag)));
-             return recursiveCheckBugTag(formatComment);
-        } else {
-            return comment;
-        }
-	}
-	
-	private static String getFormatReqId(String reqName) {
-	    StringBuilder sBuilder = new StringBuilder("req");
-	    List<String> seqList = Config.instance.getReqSeqbyReqName(reqName);
-	    if (seqList.isEmpty()) {
-	        reqName = reqName.replaceAll("-", "--");// 防止无限递归
-	        return reqName ;
-        } else {
-            for (int i = 0; i < seqList.size(); ++i) {
-                int reqNumber = Config.instance.getTdReqStartNumber() + Integer.valueOf(seqList.get(i));
-                sBuilder.append("#").append(String.valueOf(reqNumber));
-                if (i < seqList.size() - 1) {
-                    sBuilder.append("|");
-                }
-            }
-//            sBuilder.append("(").append(reqName).append(")");
-            return sBuilder.toString();
-        }
-	}
-	
-	private static String getFormatBugId(String bugId) {
-	    StringBuilder sBuilder = new StringBuilder("bug");
-	    String pattern = "\\d+";
-	    Matcher matcher = Pattern.compile(pattern).matcher(bugId);
-        while (matcher.find()) {
-             sBuilder.append("#");
-             String bug = matcher.group();
-             sBuilder.append(bug).append(" ");
-        } 
-        return sBuilder.toString();
+	private void resolveReviewComments() {
+		if (pendingReviewComments.isEmpty()) {
+			return;
+		}
+		Set<String> reviewIds = new HashSet<String>();
+		for (String comment : pendingReviewComments.values()) {
+			reviewIds.add(findReviewId(comment));
+		}
+		ReviewDescriptionCache.instance.prefetch(reviewIds);
+		for (Map.Entry<CommitInformation, String> pending : pendingReviewComments.entrySet()) {
+			pending.getKey().setComment(getRealComment(pending.getValue()));
+		}
+		pendingReviewComments.clear();
 	}
 	
 	/**
@@ -689,8 +801,7 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
      */
 	private static String getRealComment(String comment) {
 	    StringBuilder realComment = new StringBuilder(comment);
-	    String pattern = "(Review\\s+)*(Link\\s+:\\s+)*[hH][tT]{2}[pP]://((192.168.101.27)|(10.0.5.169))/r/\\d+/*";
-        Matcher matcher = Pattern.compile(pattern,Pattern.CASE_INSENSITIVE).matcher(comment);
+        Matcher matcher = REVIEW_LINK.matcher(comment);
         String reviewLink = "";
         int reviewLinkStartIndex = -1;
         while (matcher.find()) {
@@ -700,22 +811,12 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
         if (!"".equals(reviewLink)) {
             // reviewLinux 之前的部分
             realComment = new StringBuilder(comment.substring(0, reviewLinkStartIndex));
-            Matcher seqMatcher = Pattern.compile("\\d+").matcher(reviewLink);
-            String seq = "";
-            while(seqMatcher.find()) {// 找到需求编号
-                seq = seqMatcher.group();
-            }
+            String seq = findReviewSeq(reviewLink);
             if (!"".equals(seq)) {
-                String reviewBoardAPI = Config.instance.getReviewBoardRestDomain() + seq;
-                try {
-                    String res = HttpClient.httpRequest(reviewBoardAPI);
-                    JSONObject resObj = JSONObject.fromObject(res);
-                    JSONObject reviewRequest = JSONObject.fromObject(resObj.getString("review_request"));
-                    String description = reviewRequest.getString("description");
+                String description = ReviewDescriptionCache.instance.getDescription(seq);
+                if (null != description) {
                     // 换行并插入空行 插入reviewboard上的描述信息
                     realComment.append("\n").append("\n").append(description);
-                } catch (IOException e) {
-                    Log.log("connect review board failed " + e.getMessage());
                 }
             }
             // 插入reviewboard 连接
@@ -724,34 +825,37 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
         
         // 将 reviewboard 连接替换为域名
         String result = realComment.toString();
-        result = result.replaceAll("(192.168.101.27)|(10.0.5.169)", "reviewboard.db.org");
+        result = REVIEW_HOST.matcher(result).replaceAll("reviewboard.db.org");
         
         return result;
 	    
 	}
 	
-	
 	/**
-	 * 从注释中识别出真正的提交者
+	 * 取得注释中最后一个 review 连接的 review id
 	 * 
-	 * 比如：To fix TD bug21581 by yukai : 将oscarJDBC.jar打包进其他jar包执行时，抛出未捕获异常
-     *      Review Link : http://192.168.101.27/r/8199/
-     *      
-     * 真正的提交者为 yukai
-     * 
-	 * @return
+	 * @return review id，没有 review 连接时返回 null
 	 */
-	private static String getRealAuthor(String comment) {
-	    String realUser = null;
-	    String pattern = "To\\s+fix\\s+.+by\\s+\\w+";
-	    Matcher matcher = Pattern.compile(pattern).matcher(comment);
-	    if (matcher.find()) {
-            String reviewTag = matcher.group(0);
-            realUser = reviewTag.substring(reviewTag.lastIndexOf(" ")).trim();
-        }
-        return realUser;
+	private static String findReviewId(String comment) {
+	    Matcher matcher = REVIEW_LINK.matcher(comment);
+	    String reviewLink = "";
+	    while (matcher.find()) {
+	        reviewLink = matcher.group();
+	    }
+	    String seq = findReviewSeq(reviewLink);
+	    return "".equals(seq) ? null : seq;
+	}
+	
+	private static String findReviewSeq(String reviewLink) {
+	    Matcher seqMatcher = REVIEW_SEQ.matcher(reviewLink);
+	    String seq = "";
+	    while(seqMatcher.find()) {// 找到需求编号
+	        seq = seqMatcher.group();
+	    }
+	    return seq;
 	}
 	
+	
 	/**
 	 * 对于同一文件，保证提交时间是线性增长的，防止提交在view label之间错乱。
 	 * 
@@ -782,7 +886,7 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 
 	@Override
 	public NavigableMap<CommitInformation, File> getListOfCommit() {
-		return currentCommitList;
+		return currentCommitList.asMap();
 	}
 
 	@Override
@@ -793,6 +897,9 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 	@Override
 	public void setRepositoryHelper(RepositoryHelper helper) {
 		this.helper = helper;
+		if (Boolean.parseBoolean(Config.instance.get("reviewCacheOnDisk", "true"))) {
+			ReviewDescriptionCache.instance.setStore(new java.io.File(helper.getStarteamInfoDirectory(), "reviewboard"));
+		}
 	}
 
 	@Override
@@ -820,6 +927,18 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 		// The base population strategy isn't interested by this added information
 	}
 
+	@Override
+	public Object saveState() {
+		return new State(lastFiles, earliestTime);
+	}
+
+	@Override
+	public void restoreState(Object state) {
+		State saved = (State) state;
+		lastFiles = new HashSet<String>(saved.lastFiles);
+		earliestTime = saved.earliestTime;
+	}
+
 	@Override
 	public boolean isTagRequired() {
 		// Tag are always welcome with the base strategy
@@ -829,10 +948,24 @@ public class BasePopulationStrategy implements CommitPopulationStrategy {
 	public static void main(String[] args) {
 	    String comment = "bug td19262 19291、14567&88888和939393，2231,33333 To fix td td19262_19291 by yangyancheng : 移植 from 7.0.7 to 7.0.8:调用包中函数时，结果出错"
     + " Review Link : http://192.168.101.27/r/8199/";
-        String realAuthor = getRealAuthor(comment);
-        String commentWithFormatBugId = getCommentWithFormatBugId(comment);
-        String realComment = getRealComment(commentWithFormatBugId);
+        CommentPipeline.Rewritten rewritten = CommentPipeline.instance.rewrite(comment);
+        String realAuthor = rewritten.getAuthor();
+        String realComment = getRealComment(rewritten.getComment());
         System.out.println(realAuthor);
         System.out.println(realComment);
     }
+
+	/**
+	 * The files seen and the time reached by a population, the lists of commits
+	 * and deleted files start again at each population.
+	 */
+	private static class State {
+		private final Set<String> lastFiles;
+		private final Date earliestTime;
+
+		private State(Set<String> lastFiles, Date earliestTime) {
+			this.lastFiles = new HashSet<String>(lastFiles);
+			this.earliestTime = earliestTime;
+		}
+	}
 }
@@ -0,0 +1,55 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.sync.commitstrategy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.starbase.starteam.File;
+
+/**
+ * Index of prefetched history revisions by item id and view version. It let
+ * the population strategy serve the revisions it needs from a batch of
+ * history fetched at once instead of querying the server for each version.
+ */
+class HistoryIndex {
+
+	private final Map<Long, File> revisions = new HashMap<Long, File>();
+
+	private static long key(int itemId, int viewVersion) {
+		return ((long) itemId << 32) | (viewVersion & 0xffffffffL);
+	}
+
+	void put(File revision) {
+		revisions.put(key(revision.getItemID(), revision.getViewVersion()), revision);
+	}
+
+	/**
+	 * @return the prefetched revision or null if it wasn't prefetched
+	 */
+	File get(int itemId, int viewVersion) {
+		return revisions.get(key(itemId, viewVersion));
+	}
+
+	int size() {
+		return revisions.size();
+	}
+
+	void clear() {
+		revisions.clear();
+	}
+}
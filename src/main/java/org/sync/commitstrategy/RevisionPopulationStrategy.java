@@ -33,6 +33,8 @@ public class RevisionPopulationStrategy extends BasePopulationStrategy {
 
 	public RevisionPopulationStrategy(View view) {
 		super(view);
+		// the revision attached to the label can differ from an unchanged tip
+		deltaPopulation = false;
 	}
 
 	@Override
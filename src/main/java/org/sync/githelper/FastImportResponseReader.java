@@ -0,0 +1,332 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.githelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+
+/**
+ * Reader of the answers fast-import writes on its standard output to the
+ * cat-blob and progress requests.
+ *
+ * fast-import answers the requests in the order they were sent, each request
+ * is registered before it is written and completed by its answer in the same
+ * order. Several requests can so be waiting at the same time. The answers are
+ * read in large blocks and the headers are parsed from the bytes, the content
+ * of a blob is copied to the stream of its request as it is read.
+ */
+public class FastImportResponseReader implements Runnable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final byte[] BLOB = " blob ".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] MISSING = "missing ".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] PROGRESS = "progress ".getBytes(StandardCharsets.US_ASCII);
+
+	private final InputStream stream;
+	private final ConcurrentLinkedQueue<Request<?>> pending = new ConcurrentLinkedQueue<Request<?>>();
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position;
+	private int limit;
+	private volatile boolean closed;
+
+	public FastImportResponseReader(InputStream stream) {
+		this.stream = stream;
+	}
+
+	/**
+	 * Register a cat-blob request, to be called before the request is written.
+	 *
+	 * @param sink
+	 *          Where the content of the blob is copied, from the reader thread
+	 * @return the size of the blob once copied, -1 if fast-import doesn't know
+	 *         the blob.
+	 */
+	public Future<Long> expectCatBlob(OutputStream sink) {
+		CatBlobRequest request = new CatBlobRequest(sink);
+		register(request);
+		return request.answer;
+	}
+
+	/**
+	 * Register a progress request, to be called before the request is written.
+	 *
+	 * @return the message written back, once fast-import processed every
+	 *         command before the request.
+	 */
+	public Future<String> expectProgress() {
+		ProgressRequest request = new ProgressRequest();
+		register(request);
+		return request.answer;
+	}
+
+	private void register(Request<?> request) {
+		pending.add(request);
+		if (closed) {
+			// the reader may have drained the queue already
+			failPending(new IOException("fast-import ended"));
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			byte[] line;
+			while (null != (line = readLine())) {
+				if (line.length == 0) {
+					continue;
+				}
+				if (!dispatch(line)) {
+					System.err.println("Unknown response <" + new String(line, StandardCharsets.UTF_8) + ">");
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		} finally {
+			closed = true;
+			failPending(new IOException("fast-import ended before answering"));
+		}
+		// fast-import would block on a full pipe if its output stopped being read
+		try {
+			while (stream.read(buffer, 0, buffer.length) >= 0) {
+				// discarded, the answers can't be matched to their requests anymore
+			}
+		} catch (IOException e) {
+			// fast-import is gone
+		}
+	}
+
+	private boolean dispatch(byte[] line) throws IOException {
+		Request<?> request = pending.peek();
+		try {
+			if (isCatBlobHeader(line)) {
+				if (!(request instanceof CatBlobRequest)) {
+					return false;
+				}
+				pending.poll();
+				((CatBlobRequest) request).receive(this, line);
+				return true;
+			}
+			if (startsWith(line, 0, PROGRESS)) {
+				if (!(request instanceof ProgressRequest)) {
+					return false;
+				}
+				pending.poll();
+				((ProgressRequest) request).receive(line);
+				return true;
+			}
+		} catch (IOException e) {
+			// the request is out of the queue, failPending won't see it
+			request.answer.completeExceptionally(e);
+			throw e;
+		} catch (RuntimeException e) {
+			request.answer.completeExceptionally(e);
+			throw e;
+		}
+		return false;
+	}
+
+	/**
+	 * <code>&lt;sha1&gt; blob &lt;size&gt;</code> or
+	 * <code>&lt;dataref&gt; missing</code>
+	 */
+	private static boolean isCatBlobHeader(byte[] line) {
+		if (line.length > 41 && isHex(line, 40) && startsWith(line, 40, BLOB)) {
+			return true;
+		}
+		return endsWith(line, " missing") && !startsWith(line, 0, MISSING);
+	}
+
+	private static boolean isHex(byte[] line, int length) {
+		for (int i = 0; i < length; i++) {
+			byte b = line[i];
+			if (!((b >= '0' && b <= '9') || (b >= 'a' && b <= 'f') || (b >= 'A' && b <= 'F'))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean startsWith(byte[] line, int offset, byte[] prefix) {
+		if (line.length < offset + prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (line[offset + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean endsWith(byte[] line, String suffix) {
+		int offset = line.length - suffix.length();
+		if (offset < 0) {
+			return false;
+		}
+		for (int i = 0; i < suffix.length(); i++) {
+			if (line[offset + i] != suffix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long parseLong(byte[] line, int from, int to) throws IOException {
+		if (from >= to) {
+			throw new IOException("Missing number in the answer of fast-import");
+		}
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			byte b = line[i];
+			if (b < '0' || b > '9') {
+				throw new IOException("Invalid number in the answer of fast-import");
+			}
+			value = value * 10 + (b - '0');
+		}
+		return value;
+	}
+
+	private boolean fill() throws IOException {
+		position = 0;
+		limit = stream.read(buffer, 0, buffer.length);
+		if (limit < 0) {
+			limit = 0;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the next line without its LF, null at the end of the stream.
+	 */
+	private byte[] readLine() throws IOException {
+		byte[] line = null;
+		int length = 0;
+		while (true) {
+			if (position >= limit && !fill()) {
+				return length > 0 ? Arrays.copyOf(line, length) : null;
+			}
+			int start = position;
+			while (position < limit && buffer[position] != '\n') {
+				position++;
+			}
+			int chunk = position - start;
+			if (null == line && position < limit) {
+				// the usual case, the whole line is in the buffer
+				byte[] complete = Arrays.copyOfRange(buffer, start, position);
+				position++;
+				return complete;
+			}
+			if (null == line) {
+				line = new byte[Math.max(chunk * 2, 128)];
+			} else if (length + chunk > line.length) {
+				line = Arrays.copyOf(line, Math.max(line.length * 2, length + chunk));
+			}
+			System.arraycopy(buffer, start, line, length, chunk);
+			length += chunk;
+			if (position < limit) {
+				position++;
+				return Arrays.copyOf(line, length);
+			}
+		}
+	}
+
+	/**
+	 * Copy the content of a blob and skip the LF following it.
+	 *
+	 * @return the failure of the sink, null if the content was copied. The
+	 *         whole blob is read anyway so the next answers stay in sync.
+	 */
+	private IOException copy(long size, OutputStream sink) throws IOException {
+		IOException failure = null;
+		while (size > 0) {
+			if (position >= limit && !fill()) {
+				throw new IOException("fast-import ended in the middle of a blob");
+			}
+			int chunk = (int) Math.min(size, limit - position);
+			if (null == failure) {
+				try {
+					sink.write(buffer, position, chunk);
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			position += chunk;
+			size -= chunk;
+		}
+		if (position >= limit) {
+			fill();
+		}
+		if (position < limit && buffer[position] == '\n') {
+			position++;
+		}
+		return failure;
+	}
+
+	private void failPending(IOException cause) {
+		Request<?> request;
+		while (null != (request = pending.poll())) {
+			request.answer.completeExceptionally(cause);
+		}
+	}
+
+	private static abstract class Request<T> {
+		protected final CompletableFuture<T> answer = new CompletableFuture<T>();
+	}
+
+	private static class CatBlobRequest extends Request<Long> {
+		private final OutputStream sink;
+
+		private CatBlobRequest(OutputStream sink) {
+			this.sink = sink;
+		}
+
+		private void receive(FastImportResponseReader reader, byte[] header) throws IOException {
+			if (!startsWith(header, 40, BLOB)) {
+				answer.complete(-1L);
+				return;
+			}
+			long size = parseLong(header, 40 + BLOB.length, header.length);
+			IOException failure;
+			try {
+				failure = reader.copy(size, sink);
+			} catch (IOException e) {
+				answer.completeExceptionally(e);
+				throw e;
+			}
+			if (null != failure) {
+				answer.completeExceptionally(failure);
+			} else {
+				answer.complete(size);
+			}
+		}
+	}
+
+	private static class ProgressRequest extends Request<String> {
+		private void receive(byte[] line) {
+			answer.complete(new String(line, PROGRESS.length, line.length - PROGRESS.length, StandardCharsets.UTF_8));
+		}
+	}
+}
@@ -0,0 +1,331 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.githelper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ossnoize.git.fastimport.FileContentSink;
+import org.sync.util.Metrics;
+
+/**
+ * Stream handing the fast-import commands to a dedicated writer thread.
+ *
+ * The importer thread serializes into large chunks which are queued in a
+ * bounded queue; the writer thread drains them into the fast-import pipe. The
+ * importer only waits when the queue is full, meaning git is the bottleneck.
+ * {@link #flush()} queues the current chunk and asks the writer to flush the
+ * pipe so that a request waiting for an answer (cat-blob, ls) reaches git.
+ *
+ * File contents are not copied in the chunks, the writer thread reads them
+ * from their channel into its own buffer and writes them to the pipe. It is not
+ * a zero-copy transfer, the pipe of a process has no channel to send them to.
+ */
+public class FastImportWriter extends OutputStream implements FileContentSink {
+
+	private static final Chunk CLOSE = new Chunk(new byte[0]);
+
+	private final OutputStream pipe;
+	private final int chunkSize;
+	private final BlockingQueue<Chunk> queue;
+	private final BlockingQueue<byte[]> free;
+	private final Thread writer;
+
+	private byte[] current;
+	private int position;
+	private volatile IOException failure;
+	private boolean closed;
+
+	private final long startTime;
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private final AtomicLong writerIdleNanos = new AtomicLong();
+	private long importerStallNanos;
+	// bytes handed over by the importer thread, complete chunks and files
+	private long bytesQueued;
+	private int maximumDepth;
+	// only used by the writer thread
+	private ByteBuffer transferBuffer;
+
+	/**
+	 * @param pipe
+	 *          The input of the fast-import process
+	 * @param chunkSize
+	 *          Size of each queued chunk
+	 * @param queueDepth
+	 *          Number of chunks that can wait for the writer
+	 * @param name
+	 *          Name of the writer thread
+	 */
+	public FastImportWriter(OutputStream pipe, int chunkSize, int queueDepth, String name) {
+		this.pipe = pipe;
+		this.chunkSize = Math.max(chunkSize, 4096);
+		this.queue = new ArrayBlockingQueue<Chunk>(Math.max(queueDepth, 1));
+		this.free = new ArrayBlockingQueue<byte[]>(Math.max(queueDepth, 1) + 1);
+		this.current = new byte[this.chunkSize];
+		this.startTime = System.nanoTime();
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, name);
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (position == current.length) {
+			push(false);
+		}
+		current[position++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (position == current.length) {
+				push(false);
+			}
+			int copy = Math.min(len, current.length - position);
+			System.arraycopy(b, off, current, position, copy);
+			position += copy;
+			off += copy;
+			len -= copy;
+		}
+	}
+
+	@Override
+	public void writeFile(FileChannel content, long size) throws IOException {
+		try {
+			push(false);
+			enqueue(new Chunk(content, size));
+			bytesQueued += size;
+		} catch (IOException e) {
+			content.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		push(true);
+	}
+
+	/**
+	 * Queue what is left, wait for the writer to drain it and close the pipe.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		push(true);
+		closed = true;
+		enqueue(CLOSE);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while closing the fast-import stream");
+		}
+		checkFailure();
+	}
+
+	/**
+	 * @return the number of chunks waiting for the writer thread.
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return the number of bytes sent to fast-import so far.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	/**
+	 * @return the number of bytes written to this stream so far, to be called
+	 *         from the importer thread.
+	 */
+	public long getBytesAccepted() {
+		return bytesQueued + position;
+	}
+
+	/**
+	 * @return a summary of the throughput and of which side waited on the other.
+	 */
+	public String getStatistics() {
+		long elapsed = Math.max(1, System.nanoTime() - startTime);
+		long bytes = bytesWritten.get();
+		return String.format(
+				"fast-import writer: %d MB at %.2f MB/s, queue %d/%d (max %d), importer stalled %d ms, writer idle %d ms",
+				bytes >> 20, (bytes / 1048576.0) / (elapsed / 1e9), queue.size(), queue.size() + queue.remainingCapacity(),
+				maximumDepth, TimeUnit.NANOSECONDS.toMillis(importerStallNanos),
+				TimeUnit.NANOSECONDS.toMillis(writerIdleNanos.get()));
+	}
+
+	private void push(boolean flush) throws IOException {
+		checkFailure();
+		if (closed) {
+			throw new IOException("The fast-import stream is closed");
+		}
+		if (position == 0 && !flush) {
+			return;
+		}
+		Chunk chunk = new Chunk(current, position, flush);
+		enqueue(chunk);
+		bytesQueued += position;
+		byte[] next = free.poll();
+		current = null != next ? next : new byte[chunkSize];
+		position = 0;
+	}
+
+	private void enqueue(Chunk chunk) throws IOException {
+		try {
+			if (!queue.offer(chunk)) {
+				long start = System.nanoTime();
+				while (!queue.offer(chunk, 1, TimeUnit.SECONDS)) {
+					checkFailure();
+				}
+				long stall = System.nanoTime() - start;
+				importerStallNanos += stall;
+				Metrics.current().record(Metrics.FAST_IMPORT_STALL, stall);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing to fast-import");
+		}
+		maximumDepth = Math.max(maximumDepth, queue.size());
+	}
+
+	private void checkFailure() throws IOException {
+		if (null != failure) {
+			throw new IOException("Writing to fast-import failed", failure);
+		}
+	}
+
+	private void drain() {
+		try {
+			while (true) {
+				Chunk chunk = queue.poll();
+				if (null == chunk) {
+					long start = System.nanoTime();
+					chunk = queue.take();
+					writerIdleNanos.addAndGet(System.nanoTime() - start);
+				}
+				if (chunk == CLOSE) {
+					pipe.close();
+					return;
+				}
+				if (null == failure) {
+					try {
+						if (null != chunk.file) {
+							transfer(chunk.file, chunk.size);
+						} else {
+							pipe.write(chunk.data, 0, chunk.length);
+							bytesWritten.addAndGet(chunk.length);
+						}
+						if (chunk.flush) {
+							pipe.flush();
+						}
+					} catch (IOException e) {
+						// keep draining so the importer is never left blocked
+						failure = e;
+					}
+				}
+				if (null != chunk.file) {
+					try {
+						chunk.file.close();
+					} catch (IOException e) {
+						// Nothing left to read from it
+					}
+				} else if (chunk.data.length == chunkSize) {
+					free.offer(chunk.data);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			if (null == failure) {
+				failure = e;
+			}
+		}
+	}
+
+	/**
+	 * Copy a file content into the pipe through the writer's buffer. The pipe of
+	 * the process exposes no channel, and {@link FileChannel#transferTo} into a
+	 * {@link java.nio.channels.Channels#newChannel(OutputStream)} wrapper loops
+	 * over a small buffer of the JDK instead, so reading chunk sized blocks is
+	 * the cheaper copy.
+	 */
+	private void transfer(FileChannel file, long size) throws IOException {
+		long position = 0;
+		if (null == transferBuffer) {
+			transferBuffer = ByteBuffer.allocate(chunkSize);
+		}
+		while (position < size) {
+			transferBuffer.clear();
+			transferBuffer.limit((int) Math.min(transferBuffer.capacity(), size - position));
+			int read = file.read(transferBuffer, position);
+			if (read <= 0) {
+				throw new IOException("File shrank while sent to fast-import");
+			}
+			pipe.write(transferBuffer.array(), 0, read);
+			position += read;
+			bytesWritten.addAndGet(read);
+		}
+	}
+
+	private static class Chunk {
+		private final byte[] data;
+		private final int length;
+		private final boolean flush;
+		private final FileChannel file;
+		private final long size;
+
+		private Chunk(byte[] data) {
+			this(data, 0, false);
+		}
+
+		private Chunk(byte[] data, int length, boolean flush) {
+			this.data = data;
+			this.length = length;
+			this.flush = flush;
+			this.file = null;
+			this.size = 0;
+		}
+
+		private Chunk(FileChannel file, long size) {
+			this.data = null;
+			this.length = 0;
+			this.flush = false;
+			this.file = file;
+			this.size = size;
+		}
+	}
+}
@@ -18,15 +18,12 @@ package org.sync.githelper;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -37,43 +34,63 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import java.util.regex.Pattern;
-import org.ossnoize.git.fastimport.CatBlob;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.ossnoize.git.fastimport.CatBlob;
 import org.ossnoize.git.fastimport.Commit;
 import org.ossnoize.git.fastimport.DataRef;
 import org.ossnoize.git.fastimport.Feature;
 import org.ossnoize.git.fastimport.FileDelete;
+import org.ossnoize.git.fastimport.FileModification;
 import org.ossnoize.git.fastimport.FileOperation;
+import org.ossnoize.git.fastimport.Progress;
 import org.ossnoize.git.fastimport.Sha1Ref;
 import org.ossnoize.git.fastimport.enumeration.FeatureType;
 import org.sync.ErrorEater;
 import org.sync.Log;
 import org.sync.RepositoryHelper; 
+import org.sync.util.Config;
 import org.sync.util.FileUtility;
 import org.sync.util.LogEntry;
 import org.sync.util.SmallRef;
-import org.sync.util.StarteamFileInfo;
+import org.sync.util.StarteamFileInfoStore;
 import org.sync.util.enumeration.FileStatusStyle;
 
 public class GitHelper extends RepositoryHelper {
 	
 	private final static String STARTEAMFILEINFODIR = "starteam";
+	// legacy serialized file information, migrated on load
 	private final static String STARTEAMFILEINFO = "StarteamFileInfo.gz";
 
 	private String gitExecutable;
 	private Process gitFastImport;
+	private FastImportWriter fastImportWriter;
 	private Thread gitFastImportOutputEater;
 	private Thread gitFastImportErrorEater;
-	private GitFastImportOutputReader gitResponse;
+	private FastImportResponseReader gitResponse;
 	private int debugFileCounter = 0;
-	private Map<String, Map<String, DataRef>> trackedFiles;
+	// files of each head and the last commit written on it
+	private Map<String, HeadTree> headTrees;
+	private Map<String, String> headTips;
+	// trees of the tags the views are based on, shared by the streams
+	private Map<String, HeadTree> taggedTrees;
+	private Repository repository;
 	private boolean isBare;
+	// marks kept from one run to the next, null when disabled
+	private MarkStore markStore;
+	private volatile MarkStore.Session markSession;
 
 	public GitHelper(String preferedPath, boolean createRepo, String workingDir) throws Exception {
 		if (!findExecutable(preferedPath)) {
@@ -83,11 +100,58 @@ public class GitHelper extends RepositoryHelper {
 			workingDir = System.getProperty("user.dir");
 		}
 		setWorkingDirectory(workingDir, createRepo);
-		trackedFiles = Collections.synchronizedMap(new HashMap<String, Map<String, DataRef>>());
+		headTrees = new HashMap<String, HeadTree>();
+		headTips = new HashMap<String, String>();
+		taggedTrees = new ConcurrentHashMap<String, HeadTree>();
 
 		loadFileInformation();
 	}
 
+	/**
+	 * Load the marks saved by the earlier runs, once the repository exists.
+	 */
+	private void loadMarks() {
+		if(null != markStore || !Boolean.parseBoolean(Config.instance.get("persistentMarks", "false"))) {
+			return;
+		}
+		if(!new File(getWorkingDirectory()).isDirectory()) {
+			// the repository is created later, with no saved marks
+			return;
+		}
+		MarkStore store = new MarkStore(getStarteamInfoDirectory());
+		try {
+			store.load(getRepository().getObjectDatabase());
+			markStore = store;
+		} catch (IOException e) {
+			Log.logf("Could not load the saved marks, they won't be used: %s", e);
+		}
+	}
+
+	/**
+	 * Create a helper with its own fast-import process on the same repository
+	 * as <code>shared</code>. The file information is shared but journaled by
+	 * each helper once its own fast-import stored the commits, the marks of each
+	 * fast-import process are only valid in the stream they were written in
+	 * until the next run.
+	 * The trees of the tags are shared so a view starts from the tree of its
+	 * parent without reading it again.
+	 * @param shared Helper of the repository
+	 */
+	public GitHelper(GitHelper shared) {
+		gitExecutable = shared.gitExecutable;
+		repositoryDir = shared.repositoryDir;
+		isBare = shared.isBare;
+		headTrees = new HashMap<String, HeadTree>();
+		headTips = new HashMap<String, String>();
+		taggedTrees = shared.taggedTrees;
+		markStore = shared.markStore;
+		if(null == shared.fileInformation) {
+			shared.loadFileInformation();
+		}
+		fileInformation = shared.fileInformation;
+		fileInformationBatch = fileInformation.newBatch();
+	}
+
 	private boolean findExecutable(String preferedPath) {
 		String os = System.getProperty("os.name");
 		if(null != preferedPath) {
@@ -155,29 +219,115 @@ public class GitHelper extends RepositoryHelper {
 		return false;
 	}
 	
-	private void grabTrackedFiles(String head) {
-		ProcessBuilder process = new ProcessBuilder();
-		process.command(gitExecutable, "ls-tree", "--full-tree" ,"-r", head);
-		process.directory(new File(repositoryDir));
+	/**
+	 * Read the files of a revision from the repository, the first time a head
+	 * is used in this session.
+	 * @param revision The head or commit to read
+	 * @return the files of the revision, empty if it doesn't exist.
+	 */
+	private HeadTree readTree(String revision) {
+		HeadTree tree = new HeadTree();
 		try {
-			Process lsFiles = process.start();
-			Thread gitQueryWorker = new Thread(new GitLsFilesReader(lsFiles.getInputStream(), head));
-			Thread gitErrorStreamEater = new Thread(new ErrorEater(lsFiles.getErrorStream(), "ls-tree"));
-			gitQueryWorker.start();
-			gitErrorStreamEater.start();
-			int returnCode = lsFiles.waitFor();
-			gitQueryWorker.join();
-			gitErrorStreamEater.join();
-			if(0 != returnCode) {
-				trackedFiles.put(head, new HashMap<String, DataRef>());
+			Repository repo = getRepository();
+			ObjectId commit = repo.resolve(revision + "^{commit}");
+			if(null == commit) {
+				return tree;
+			}
+			ObjectReader reader = repo.newObjectReader();
+			RevWalk walk = new RevWalk(reader);
+			TreeWalk files = new TreeWalk(reader);
+			try {
+				files.addTree(walk.parseCommit(commit).getTree());
+				files.setRecursive(true);
+				while(files.next()) {
+					FileMode mode = files.getFileMode(0);
+					if(mode.getObjectType() != Constants.OBJ_BLOB) {
+						continue;
+					}
+					String path = files.getPathString();
+					ObjectId blob = files.getObjectId(0);
+					byte[] content = null;
+					if(path.equals(".gitattributes")) {
+						content = reader.open(blob, Constants.OBJ_BLOB).getBytes();
+					}
+					tree.put(path, new Sha1Ref(blob.name()), Integer.toOctalString(mode.getBits()), content);
+				}
+			} finally {
+				files.close();
+				walk.close();
+				reader.close();
 			}
 		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+			Log.log("Could not read the files of " + revision + ": " + e.getMessage());
 		}
+		return tree;
 	}
-	
+
+	private Repository getRepository() throws IOException {
+		if(null == repository) {
+			repository = new FileRepositoryBuilder().setGitDir(new File(getWorkingDirectory())).setMustExist(true).build();
+		}
+		return repository;
+	}
+
+	private HeadTree getHeadTree(String head) {
+		HeadTree tree = headTrees.get(head);
+		if(null == tree) {
+			tree = readTree(head);
+			headTrees.put(head, tree);
+		}
+		return tree;
+	}
+
+	/**
+	 * Find the files a commit starts from: the files of its head when it
+	 * follows the last commit of the head, else the files of the commit it is
+	 * based on.
+	 */
+	private HeadTree startTree(Commit commit) {
+		String head = commit.getReference();
+		HeadTree tree = headTrees.get(head);
+		DataRef from = commit.getFrom();
+		if(null != from) {
+			if(null == tree || !from.getId().equals(headTips.get(head))) {
+				tree = findTree(from);
+			}
+		} else if(!headTips.containsKey(head)) {
+			// fast-import starts a new branch without any file
+			if(commit.isResumingOnTopOfRef()) {
+				tree = getHeadTree(head);
+			} else {
+				tree = new HeadTree();
+			}
+		}
+		headTrees.put(head, tree);
+		return tree;
+	}
+
+	private HeadTree findTree(DataRef commit) {
+		HeadTree tree = taggedTrees.get(commit.getId());
+		if(null == tree) {
+			tree = findTipTree(commit);
+		}
+		if(null != tree) {
+			return tree.snapshot();
+		}
+		if(commit instanceof Sha1Ref) {
+			return readTree(commit.getId());
+		}
+		Log.log("The files of " + commit.getId() + " are unknown, starting from an empty tree");
+		return new HeadTree();
+	}
+
+	private HeadTree findTipTree(DataRef commit) {
+		for(Map.Entry<String, String> tip : headTips.entrySet()) {
+			if(commit.getId().equals(tip.getValue())) {
+				return headTrees.get(tip.getKey());
+			}
+		}
+		return null;
+	}
+
 	private boolean isValidGitRepository() {
 		ProcessBuilder process = new ProcessBuilder();
 		process.command(gitExecutable, "branch");
@@ -251,19 +401,52 @@ public class GitHelper extends RepositoryHelper {
 	@Override
 	public void dispose() {
     super.dispose();
+		if(null != repository) {
+			repository.close();
+			repository = null;
+		}
+	}
+
+	@Override
+	protected boolean awaitFastImportEnd() {
+		if(null != fastImportWriter) {
+			Log.log(fastImportWriter.getStatistics());
+			fastImportWriter = null;
+		}
+		boolean stored = true;
 		try {
 			if(null != gitFastImport) {
 				int endCode = gitFastImport.waitFor();
 				if(endCode != 0) {
 					Log.log("Git fast-import has finished anormally with code:" + endCode);
+					stored = false;
+				}
+				if(null != contentIndex) {
+					// The blobs are only safe to reference once fast-import is done
+					if(endCode == 0) {
+						contentIndex.commitSession();
+					} else {
+						contentIndex.abandonSession();
+					}
 				}
 				gitFastImportOutputEater.join();
 				gitFastImportErrorEater.join();
         gitFastImport = null;
+				if(null != markSession) {
+					// fast-import exported its marks when it ended, even on failure
+					try {
+						markSession.close(getRepository().getObjectDatabase());
+					} catch (IOException e) {
+						Log.logf("Could not save the marks of the session: %s", e);
+					}
+					markSession = null;
+				}
 			}
 		} catch (InterruptedException e) {
 			e.printStackTrace();
+			stored = false;
 		}
+		return stored;
 	}
 
 	@Override
@@ -277,25 +460,43 @@ public class GitHelper extends RepositoryHelper {
 	
 	@Override
 	public void writeCommit(Commit commit) throws IOException {
+		if(commit.isWritten()) {
+			return;
+		}
+		HeadTree tree = startTree(commit);
 		super.writeCommit(commit);
 		
-		String headName = commit.getReference();
 		for(FileOperation ops : commit.getFileOperation()) {
-			if(null != ops.getMark()) {
-				if(!trackedFiles.containsKey(headName)) {
-					trackedFiles.put(headName, new HashMap<String, DataRef>());
+			if(ops instanceof FileModification && null != ops.getMark()) {
+				FileModification modification = (FileModification) ops;
+				byte[] content = null;
+				if(ops.getPath().equals(".gitattributes") && null != commit.getAttributes()) {
+					// kept to be read back without a cat-blob
+					content = commit.getAttributes().toBytes();
 				}
-				trackedFiles.get(headName).put(ops.getPath(), ops.getMark());
+				tree.put(ops.getPath(), ops.getMark(), modification.getFileType().getOctalRepresentation(), content);
 			} else if(ops instanceof FileDelete) {
-				// This shouldn't be null, but sometimes is. I think the
-				// file janitor is getting invoked, too. The problems may
-				// have the same cause.
-				Map<String, DataRef> headTracked = trackedFiles.get(headName);
-				if (headTracked != null) {
-					headTracked.remove(ops.getPath());
-				}
+				tree.remove(ops.getPath());
 			}
 		}
+		headTips.put(commit.getReference(), commit.getMarkID().getId());
+	}
+
+	@Override
+	public void keepTagTree(String tagName, DataRef commit) {
+		HeadTree tree = findTipTree(commit);
+		if(null == tree) {
+			tree = taggedTrees.get(commit.getId());
+		}
+		if(null == tree) {
+			// the same tag resolved to its commit in the repository
+			tree = taggedTrees.get(Constants.R_TAGS + tagName);
+		}
+		if(null != tree) {
+			HeadTree snapshot = tree.snapshot();
+			taggedTrees.put(Constants.R_TAGS + tagName, snapshot);
+			taggedTrees.put(commit.getId(), snapshot);
+		}
 	}
 	
 	@Override
@@ -326,16 +527,29 @@ public class GitHelper extends RepositoryHelper {
 		if(null == fastExportOverrideToFile) {
       if(null == gitFastImport) {
         ProcessBuilder process = new ProcessBuilder();
-        process.command(gitExecutable, "fast-import", "--done");
+        List<String> command = new ArrayList<String>();
+        command.add(gitExecutable);
+        command.add("fast-import");
+        command.add("--done");
         process.directory(new File(repositoryDir));
         try {
+          if(null != markStore) {
+            markSession = markStore.openSession();
+            command.add("--import-marks-if-exists=" + markStore.getMarksFile().getAbsolutePath());
+            command.add("--export-marks=" + markSession.getMarksFile().getAbsolutePath());
+          }
+          process.command(command);
           gitFastImport = process.start();
-          gitResponse = new GitFastImportOutputReader(gitFastImport.getInputStream());
+          gitResponse = new FastImportResponseReader(gitFastImport.getInputStream());
           gitFastImportOutputEater = new Thread(gitResponse);
           gitFastImportErrorEater = new Thread(new ErrorEater(gitFastImport.getErrorStream(), "fast-import"));
           gitFastImportOutputEater.start();
           gitFastImportErrorEater.start();
-          OutputStream out = gitFastImport.getOutputStream();
+          fastImportWriter = new FastImportWriter(gitFastImport.getOutputStream(),
+              Integer.parseInt(Config.instance.get("fastImportChunkSize", "262144")),
+              Integer.parseInt(Config.instance.get("fastImportQueueDepth", "64")),
+              "fast-import-writer");
+          OutputStream out = fastImportWriter;
           // Validate Feature needed;
           Feature feature = new Feature(FeatureType.DateFormat, "raw");
           feature.writeTo(out);
@@ -346,7 +560,7 @@ public class GitHelper extends RepositoryHelper {
           return null;
         }
       }
-      return gitFastImport.getOutputStream();
+      return fastImportWriter;
 		} else {
 			try {
 				return new FileOutputStream(fastExportOverrideToFile.getPath() + "." + (debugFileCounter++));
@@ -357,6 +571,72 @@ public class GitHelper extends RepositoryHelper {
 		}
 	}
 	
+	@Override
+	protected boolean awaitCheckpoint() {
+		if(null != fastExportOverrideToFile || null == gitResponse) {
+			return true;
+		}
+		try {
+			// fast-import answers the progress once the checkpoint is done
+			Future<String> answer = gitResponse.expectProgress();
+			new Progress("checkpoint").writeTo(getFastImportStream());
+			answer.get();
+			return true;
+		} catch (IOException e) {
+			Log.logf("Could not wait for the checkpoint: %s", e);
+		} catch (ExecutionException e) {
+			Log.logf("Could not wait for the checkpoint: %s", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	@Override
+	public void writeCheckpoint() throws IOException {
+		super.writeCheckpoint();
+		if(null != fastImportWriter) {
+			Log.log(fastImportWriter.getStatistics());
+		}
+		if(null != markSession) {
+			// fast-import exports the marks of the session at the checkpoint
+			markSession.flush();
+		}
+	}
+
+	@Override
+	public boolean keepsImportedContent() {
+		return null != markStore;
+	}
+
+	@Override
+	public DataRef findImportedContent(int itemId, int contentVersion) {
+		MarkStore.Session session = markSession;
+		if(null != session) {
+			return session.find(itemId, contentVersion);
+		}
+		if(null != markStore) {
+			// the saved marks are imported by the next fast-import process
+			return markStore.find(itemId, contentVersion);
+		}
+		return null;
+	}
+
+	@Override
+	public void registerImportedContent(int itemId, int contentVersion, DataRef blob) {
+		if(null != markSession) {
+			markSession.register(itemId, contentVersion, blob);
+		}
+	}
+
+	@Override
+	protected long getBytesAccepted() {
+		if(null == fastExportOverrideToFile && null != fastImportWriter) {
+			return fastImportWriter.getBytesAccepted();
+		}
+		return -1;
+	}
+
 	@Override
 	public boolean isFastImportRunning() {
 		if(null == fastExportOverrideToFile && null != gitFastImport ) {
@@ -371,13 +651,7 @@ public class GitHelper extends RepositoryHelper {
 
 	@Override
 	public Set<String> getListOfTrackedFile(String head) {
-		if(!trackedFiles.containsKey(head)) {
-			grabTrackedFiles(head);
-		}
-		if(!trackedFiles.containsKey(head)) {
-			return null;
-		}
-		return trackedFiles.get(head).keySet();
+		return getHeadTree(head).paths();
 	}
 	
 	@Override
@@ -425,62 +699,27 @@ public class GitHelper extends RepositoryHelper {
 		return getCommitLog(null, to);
 	}
 
-    private File buildStarteamInfoDir() {
+	@Override
+	public File getStarteamInfoDirectory() {
 		File objDir = new File(repositoryDir + (isBare?"":File.separator + ".git") + File.separator + STARTEAMFILEINFODIR);
 		if(!objDir.exists()) {
 			objDir.mkdir();
 		}
-		File objFile = new File(objDir.getAbsolutePath() + File.separator + STARTEAMFILEINFO);
-		return objFile;
+		return objDir;
 	}
-	
+
 	@Override
-	@SuppressWarnings("unchecked")
 	protected boolean loadFileInformation() {
-		FileInputStream fin = null;
-		ObjectInputStream objin = null;
-
-		File objFile = buildStarteamInfoDir();
-		if(!objFile.exists())
-			return false;
-		
-		try {
-			fin = new FileInputStream(objFile);
-			objin = new ObjectInputStream(fin);
-			
-			Object tempObject = objin.readObject();
-			if(tempObject instanceof Map) {
-				fileInformation = (Map<String, Map<String, StarteamFileInfo>>) tempObject;
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-			return false;
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
-			return false;
-		} finally {
-			FileUtility.close(objin, fin);
+		if(null == fileInformation) {
+			fileInformation = new StarteamFileInfoStore(getStarteamInfoDirectory(), STARTEAMFILEINFO);
 		}
-		return true;
+		return fileInformation.load();
 	}
 
 	@Override
 	protected void saveFileInformation() {
 		if(null != fileInformation) {
-			FileOutputStream fout = null;
-			ObjectOutputStream objout = null;
-			
-			File objFile = buildStarteamInfoDir();
-			try {
-				fout = new FileOutputStream(objFile);
-				objout = new ObjectOutputStream(fout);
-				
-				objout.writeObject(fileInformation);
-			} catch (IOException e) {
-				e.printStackTrace();
-			} finally {
-				FileUtility.close(objout, fout);
-			}
+			fileInformation.sync(fileInformationBatch);
 		}
 	}
 
@@ -492,6 +731,7 @@ public class GitHelper extends RepositoryHelper {
 			Log.log("Destination repository not found in '" + repositoryDir + "'");
 		}
 		isBare = isBareRepository();
+		loadMarks();
 	}
   
   @Override
@@ -504,67 +744,46 @@ public class GitHelper extends RepositoryHelper {
   
   @Override
   public void getFileContent(String head, String path, OutputStream whereToStore) {
-    if(!trackedFiles.containsKey(head)) {
-      grabTrackedFiles(head);
-    }
-    if(trackedFiles.containsKey(head)) {
-      if(trackedFiles.get(head).containsKey(path))
-      {
-        OutputStream gitFastImportStream = getFastImportStream(); // Make sure fast import process is started
-        DataRef fileRef = trackedFiles.get(head).get(path);
-        CatBlob request = new CatBlob(fileRef);
-        try {
-          gitResponse.setCatBlobStream(whereToStore);
-          request.writeTo(gitFastImportStream);
-          gitResponse.waitForCatBlob();
-        } catch (IOException ex) {
-          Log.logf("Failed to cat-blob the path <%s> on head <%s>:%s", path, head, ex);
-        }
-        gitResponse.setCatBlobStream(null);
-      }
+    try {
+      requestFileContent(head, path, whereToStore).get();
+    } catch (IOException ex) {
+      Log.logf("Failed to read the path <%s> on head <%s>:%s", path, head, ex);
+    } catch (ExecutionException ex) {
+      Log.logf("Failed to cat-blob the path <%s> on head <%s>:%s", path, head, ex.getCause());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
     }
   }
-	
-	private class GitLsFilesReader implements Runnable {
 
-		private InputStream input;
-		private String head;
-		private GitLsFilesReader(InputStream in, String head) {
-			this.input = in;
-			this.head = head;
-		}
-		
-		@Override
-		public void run() {
-			synchronized (trackedFiles) {
-				InputStreamReader reader = null;
-				BufferedReader buffer = null;
-				
-				try {
-					reader = new InputStreamReader(input, "UTF-8");
-					buffer = new BufferedReader(reader);
-					
-					String file = null;
-					while(null != (file = buffer.readLine())) {
-						String path = file.substring(53).trim();
-						String sha1 = file.substring(12, 52).trim();
-						String type = file.substring(6,12).trim();
-						if(type.equalsIgnoreCase("blob")) {
-							if(!trackedFiles.containsKey(head)) {
-								trackedFiles.put(head, new HashMap<String, DataRef>());
-							}
-							trackedFiles.get(head).put(path, new Sha1Ref(sha1));
-						}
-					}
-				} catch (IOException e) {
-					e.printStackTrace();
-				} finally {
-					FileUtility.close(buffer, reader);
-				}
-			}
-		}
-		
-	}
+  /**
+   * Ask the content of a file without waiting for it. The requests sent to
+   * fast-import are answered in order, several of them can be waiting.
+   *
+   * @param head which branch to look at
+   * @param path which file we should grab
+   * @param whereToStore where the content is copied, possibly from another thread
+   * @return the size of the content once copied, -1 if the file is unknown.
+   */
+  public Future<Long> requestFileContent(String head, String path, OutputStream whereToStore) throws IOException {
+    HeadTree.Entry file = getHeadTree(head).get(path);
+    if(null == file) {
+      return CompletableFuture.completedFuture(-1L);
+    }
+    if(null != file.getContent()) {
+      whereToStore.write(file.getContent());
+      return CompletableFuture.completedFuture((long) file.getContent().length);
+    }
+    if(file.getRef() instanceof Sha1Ref) {
+      // already in the repository
+      ObjectLoader blob = getRepository().open(ObjectId.fromString(file.getRef().getId()), Constants.OBJ_BLOB);
+      blob.copyTo(whereToStore);
+      return CompletableFuture.completedFuture(blob.getSize());
+    }
+    OutputStream gitFastImportStream = getFastImportStream(); // Make sure fast import process is started
+    Future<Long> answer = gitResponse.expectCatBlob(whereToStore);
+    new CatBlob(file.getRef()).writeTo(gitFastImportStream);
+    return answer;
+  }
 
 	private class GitLogReader implements Runnable {
 		private static final String dateKey = "Date:";
@@ -624,110 +843,4 @@ public class GitHelper extends RepositoryHelper {
 			}
 		}
 	}
-
-	private class GitFastImportOutputReader implements Runnable {
-		
-    private final Lock outputReaderLock = new ReentrantLock();
-    private final Condition outputCatBlobCondition = outputReaderLock.newCondition();
-		private InputStream stream;
-		private String currentHead;
-		private Pattern ls = Pattern.compile("^[0-9]{6} [a-z]+ [0-9a-fA-F]{40}\t.+$");
-    private Pattern catblob = Pattern.compile("^[0-9a-fA-F]{40} blob [0-9]+$");
-    private OutputStream catBlobStream;
-    private boolean catBlobInProgress;
-
-		public GitFastImportOutputReader(InputStream stream) {
-			this.stream = stream;
-		}
-		
-		public void setCurrentHead(String currentHead) {
-			this.currentHead = currentHead;
-		}
-    
-    public void setCatBlobStream(OutputStream stream) {
-      catBlobInProgress = true;
-      catBlobStream = stream;
-    }
-    
-    public void waitForCatBlob()
-    {
-      outputReaderLock.lock();
-      try {
-        while (catBlobInProgress)
-        {
-          try {
-            outputCatBlobCondition.await();
-          } catch (InterruptedException ex) {
-            Logger.getLogger(GitHelper.class.getName()).log(Level.SEVERE, null, ex);
-          }
-        }
-      } finally {
-        outputReaderLock.unlock();
-      }
-    }
-		
-		public void run() {
-			StringBuilder firstResponse = new StringBuilder(50);
-			try {
-				int character;
-				do {
-					character = stream.read();
-					while(character >= 0) {
-						if(character == '\n') {
-							break;
-						}
-						firstResponse.append((char)character);
-						character = stream.read();
-					}
-					if (ls.matcher(firstResponse).matches()) {
-            outputReaderLock.lock();
-            try {
-              String type = firstResponse.substring(6, 10);
-              if(type.equalsIgnoreCase("blob")) {
-                String sha1 = firstResponse.substring(13,53);
-                String filename = firstResponse.substring(54).trim();
-                trackedFiles.get(currentHead).put(filename, new Sha1Ref(sha1));
-              }
-            } finally {
-              outputReaderLock.unlock();
-            }
-          } else if(catblob.matcher(firstResponse).matches()) {
-            outputReaderLock.lock();
-            try {
-              // In case we have a cat-blob response
-              String strSize = firstResponse.substring(45).trim();
-              long size;
-              try
-              {
-                size = Long.parseLong(strSize);
-              } catch(NumberFormatException ex) {
-                continue; // Invalid number go to the next iteration
-              }
-              // we need to read the full object regardless of it's size
-              byte[] buffer = new byte[Math.min((int)size, 4096)];
-              int readSize = stream.read(buffer);
-              while(readSize >= 0) {
-                catBlobStream.write(buffer, 0, readSize);
-                size -= readSize;
-                if(size <= 0) {
-                  break;
-                }
-                readSize = stream.read(buffer);
-              }
-              // Notify we are finished
-              catBlobInProgress = false;
-              outputCatBlobCondition.signalAll();
-            } finally {
-              outputReaderLock.unlock();
-            }
-					} else if (firstResponse.toString().trim().length() > 0) {
-						System.err.println("Unknown response <" + firstResponse + ">");
-					}
-					firstResponse.setLength(0);
-				} while(character >= 0);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-	}
 }
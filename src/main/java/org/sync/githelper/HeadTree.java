@@ -0,0 +1,123 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.githelper;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.ossnoize.git.fastimport.DataRef;
+
+/**
+ * The files of a head as written in the fast-import stream: the content
+ * reference and the mode of every path.
+ *
+ * A snapshot shares the entries with the tree it was taken from until one of
+ * them is modified, so a derived view can start from the tree of its parent
+ * without copying it. A tree is only modified by one thread, a snapshot can be
+ * handed to another one.
+ */
+public class HeadTree {
+
+	private Map<String, Entry> entries;
+	private boolean shared;
+
+	public HeadTree() {
+		entries = new HashMap<String, Entry>();
+	}
+
+	private HeadTree(Map<String, Entry> entries) {
+		this.entries = entries;
+		this.shared = true;
+	}
+
+	/**
+	 * @return a tree with the same entries, both are copied on their next
+	 *         modification.
+	 */
+	public synchronized HeadTree snapshot() {
+		shared = true;
+		return new HeadTree(entries);
+	}
+
+	public Entry get(String path) {
+		return entries.get(path);
+	}
+
+	/**
+	 * @return the paths of the tree, not modifiable.
+	 */
+	public Set<String> paths() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	/**
+	 * @param path
+	 *          Path of the file
+	 * @param ref
+	 *          Mark or sha-1 of the content
+	 * @param mode
+	 *          Octal mode of the file
+	 * @param content
+	 *          The content when it is kept in memory, null otherwise
+	 */
+	public void put(String path, DataRef ref, String mode, byte[] content) {
+		modify().put(path, new Entry(ref, mode, content));
+	}
+
+	public void remove(String path) {
+		if (entries.containsKey(path)) {
+			modify().remove(path);
+		}
+	}
+
+	private synchronized Map<String, Entry> modify() {
+		if (shared) {
+			entries = new HashMap<String, Entry>(entries);
+			shared = false;
+		}
+		return entries;
+	}
+
+	public static class Entry {
+		private final DataRef ref;
+		private final String mode;
+		private final byte[] content;
+
+		private Entry(DataRef ref, String mode, byte[] content) {
+			this.ref = ref;
+			this.mode = mode;
+			this.content = content;
+		}
+
+		public DataRef getRef() {
+			return ref;
+		}
+
+		public String getMode() {
+			return mode;
+		}
+
+		/**
+		 * @return the content of the file, null if only the reference is known.
+		 */
+		public byte[] getContent() {
+			return content;
+		}
+	}
+}
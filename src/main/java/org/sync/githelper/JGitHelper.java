@@ -0,0 +1,882 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.githelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.lib.TagBuilder;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.FS;
+import org.ossnoize.git.fastimport.Blob;
+import org.ossnoize.git.fastimport.Commit;
+import org.ossnoize.git.fastimport.Data;
+import org.ossnoize.git.fastimport.DataRef;
+import org.ossnoize.git.fastimport.FileDelete;
+import org.ossnoize.git.fastimport.FileModification;
+import org.ossnoize.git.fastimport.FileOperation;
+import org.ossnoize.git.fastimport.GitAttributes;
+import org.ossnoize.git.fastimport.Reset;
+import org.ossnoize.git.fastimport.Sha1Ref;
+import org.ossnoize.git.fastimport.Tag;
+import org.sync.Log;
+import org.sync.RepositoryHelper;
+import org.sync.util.LogEntry;
+import org.sync.util.Metrics;
+import org.sync.util.SmallRef;
+import org.sync.util.StarteamFileInfoStore;
+
+/**
+ * Repository helper storing the objects with JGit instead of a git
+ * fast-import process.
+ *
+ * The blobs, trees and commits are written in a pack by the inserter of the
+ * repository. The tree of every head is kept in memory, only the directories
+ * modified by a commit are written again. The refs are updated at each
+ * checkpoint and when the helper is disposed, as fast-import does. No git
+ * executable is needed.
+ *
+ * The marks of the fast-import objects are resolved by this helper, so the
+ * importer uses both helpers the same way.
+ */
+public class JGitHelper extends RepositoryHelper {
+
+	private final static String STARTEAMFILEINFODIR = "starteam";
+	// legacy serialized file information, migrated on load
+	private final static String STARTEAMFILEINFO = "StarteamFileInfo.gz";
+	private final static Pattern SHA1 = Pattern.compile("[0-9a-fA-F]{40}");
+
+	private File gitDirectory;
+	private boolean isBare;
+	private Repository repository;
+	private ObjectInserter inserter;
+	private ObjectReader reader;
+	private RevWalk revWalk;
+	private final Map<String, ObjectId> marks = new HashMap<String, ObjectId>();
+	private final Map<String, Head> heads = new HashMap<String, Head>();
+	private final Map<String, ObjectId> pendingTags = new LinkedHashMap<String, ObjectId>();
+	private boolean refUpdateFailed;
+	private int debugFileCounter = 0;
+
+	public JGitHelper(String workingDir, boolean createRepo) throws IOException {
+		if(workingDir == null) {
+			workingDir = System.getProperty("user.dir");
+		}
+		super.setWorkingDirectory(workingDir, createRepo);
+		openRepository(createRepo);
+		loadFileInformation();
+	}
+
+	/**
+	 * Create a helper writing its own pack in the same repository as
+	 * <code>shared</code>, sharing its file information. The mutations of the
+	 * helper are journaled once its own pack is written.
+	 * @param shared Helper of the repository
+	 */
+	public JGitHelper(JGitHelper shared) throws IOException {
+		super.setWorkingDirectory(shared.repositoryDir, false);
+		openRepository(false);
+		if(null == shared.fileInformation) {
+			shared.loadFileInformation();
+		}
+		fileInformation = shared.fileInformation;
+		fileInformationBatch = fileInformation.newBatch();
+	}
+
+	private void openRepository(boolean create) throws IOException {
+		File dir = new File(repositoryDir);
+		File dotGit = new File(dir, Constants.DOT_GIT);
+		FileRepositoryBuilder builder = new FileRepositoryBuilder();
+		if(dotGit.isDirectory()) {
+			builder.setGitDir(dotGit);
+		} else if(RepositoryCache.FileKey.isGitRepository(dir, FS.DETECTED)) {
+			builder.setGitDir(dir);
+		} else if(create) {
+			builder.setWorkTree(dir);
+			repository = builder.build();
+			repository.create(false);
+		} else {
+			throw new IOException("Destination repository not found in '" + repositoryDir + "'");
+		}
+		if(null == repository) {
+			repository = builder.setMustExist(true).build();
+		}
+		gitDirectory = repository.getDirectory();
+		isBare = repository.isBare();
+		inserter = newInserter(repository);
+		openReader();
+	}
+
+	/**
+	 * Write all the objects of a session in packs rather than loose objects
+	 * when the repository is on the file system.
+	 */
+	private static ObjectInserter newInserter(Repository repository) {
+		ObjectDatabase database = repository.getObjectDatabase();
+		if(database instanceof ObjectDirectory) {
+			return ((ObjectDirectory) database).newPackInserter();
+		}
+		return repository.newObjectInserter();
+	}
+
+	// The reader of the inserter also sees the objects not flushed yet
+	private void openReader() {
+		reader = inserter.newReader();
+		revWalk = new RevWalk(reader);
+	}
+
+	private void closeReader() {
+		if(null != revWalk) {
+			revWalk.close();
+			revWalk = null;
+		}
+		if(null != reader) {
+			reader.close();
+			reader = null;
+		}
+	}
+
+	@Override
+	public Set<String> getListOfTrackedFile(String head) {
+		Set<String> files = new HashSet<String>();
+		try {
+			Head current = heads.get(Constants.R_HEADS + head);
+			if(null != current) {
+				current.root.collect("", files);
+				return files;
+			}
+			Ref ref = repository.exactRef(Constants.R_HEADS + head);
+			if(null == ref) {
+				return null;
+			}
+			TreeWalk walk = new TreeWalk(reader);
+			try {
+				walk.addTree(revWalk.parseCommit(ref.getObjectId()).getTree());
+				walk.setRecursive(true);
+				while(walk.next()) {
+					files.add(walk.getPathString());
+				}
+			} finally {
+				walk.close();
+			}
+		} catch (IOException e) {
+			Log.logf("Could not list the files of head <%s>:%s", head, e);
+		}
+		return files;
+	}
+
+	@Override
+	public boolean isSpecialFile(String filename) {
+		if(filename.equalsIgnoreCase(".gitignore")
+			|| filename.equalsIgnoreCase(".gitattributes")) {
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public int gc() {
+		// The helper is disposed already, work on a fresh repository instance.
+		Repository repo = null;
+		try {
+			repo = new FileRepositoryBuilder().setGitDir(gitDirectory).setMustExist(true).build();
+			Git.wrap(repo).gc().call();
+			return 0;
+		} catch (IOException e) {
+			Log.log("gc failed: " + e.getMessage());
+		} catch (GitAPIException e) {
+			Log.log("gc failed: " + e.getMessage());
+		} finally {
+			if(null != repo) {
+				repo.close();
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean isFastImportRunning() {
+		return false;
+	}
+
+	@Override
+	public boolean isBareRepository() {
+		return isBare;
+	}
+
+	@Override
+	protected OutputStream getFastImportStream() {
+		// Only used to dump the stream, the objects are otherwise stored directly
+		if(null != fastExportOverrideToFile) {
+			try {
+				return new FileOutputStream(fastExportOverrideToFile.getPath() + "." + (debugFileCounter++));
+			} catch (FileNotFoundException e) {
+				e.printStackTrace();
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected boolean loadFileInformation() {
+		if(null == fileInformation) {
+			fileInformation = new StarteamFileInfoStore(getStarteamInfoDirectory(), STARTEAMFILEINFO);
+		}
+		return fileInformation.load();
+	}
+
+	@Override
+	protected void saveFileInformation() {
+		if(null != fileInformation) {
+			fileInformation.sync(fileInformationBatch);
+		}
+	}
+
+	@Override
+	public void writeBlob(Blob fileToStage) throws IOException {
+		if(null != fastExportOverrideToFile) {
+			super.writeBlob(fileToStage);
+			return;
+		}
+		String mark = fileToStage.getMarkID().getId();
+		if(!marks.containsKey(mark)) {
+			marks.put(mark, insert(fileToStage.getData()));
+			Metrics.current().add(Metrics.BLOB_BYTES, fileToStage.getData().getLength());
+		}
+	}
+
+	@Override
+	public void writeCommit(Commit commit) throws IOException {
+		if(null != fastExportOverrideToFile) {
+			super.writeCommit(commit);
+			return;
+		}
+		if(commit.isWritten()) {
+			return;
+		}
+		String ref = Constants.R_HEADS + commit.getReference();
+		Head head = startCommit(ref, commit);
+		for(FileOperation ops : commit.getFileOperation()) {
+			if(ops instanceof FileDelete) {
+				head.root.remove(ops.getPath());
+			} else if(ops instanceof FileModification) {
+				FileModification modification = (FileModification) ops;
+				ObjectId content;
+				if(modification.isInline()) {
+					content = insert(modification.getData());
+				} else {
+					content = resolve(modification.getMark());
+				}
+				FileMode mode = FileMode.fromBits(Integer.parseInt(modification.getFileType().getOctalRepresentation(), 8));
+				head.root.put(modification.getPath(), content, mode);
+			}
+		}
+		GitAttributes attributes = commit.getAttributes();
+		if(null != attributes && attributes.needsWrite(commit.getReference())) {
+			DataRef written = attributes.getWrittenBlob();
+			ObjectId blob = null != written ? resolve(written) : inserter.insert(Constants.OBJ_BLOB, attributes.toBytes());
+			head.root.put(".gitattributes", blob, FileMode.REGULAR_FILE);
+			attributes.setWritten(commit.getReference(), new Sha1Ref(blob.name()));
+		}
+
+		CommitBuilder builder = new CommitBuilder();
+		builder.setTreeId(head.root.write());
+		List<ObjectId> parents = new ArrayList<ObjectId>(2);
+		if(null != head.tip) {
+			parents.add(head.tip);
+		}
+		if(null != commit.getMerge()) {
+			parents.add(resolveCommit(commit.getMerge()));
+		}
+		builder.setParentIds(parents);
+		PersonIdent committer = new PersonIdent(commit.getCommitterName(), commit.getCommitterEmail(),
+				commit.getCommitDate(), TimeZone.getDefault());
+		builder.setCommitter(committer);
+		Date authorDate = null != commit.getAuthorDate() ? commit.getAuthorDate() : commit.getCommitDate();
+		if(null != commit.getAuthorName() && null != commit.getAuthorEmail()) {
+			builder.setAuthor(new PersonIdent(commit.getAuthorName(), commit.getAuthorEmail(), authorDate,
+					TimeZone.getDefault()));
+		} else {
+			builder.setAuthor(new PersonIdent(committer, authorDate));
+		}
+		builder.setEncoding(StandardCharsets.UTF_8);
+		builder.setMessage(new String(read(commit.getComment()), StandardCharsets.UTF_8));
+
+		byte[] raw = builder.build();
+		ObjectId id = inserter.insert(Constants.OBJ_COMMIT, raw);
+		Metrics.current().add(Metrics.COMMIT_BYTES, raw.length);
+		marks.put(commit.getMarkID().getId(), id);
+		head.tip = id;
+		head.changed = true;
+		commit.setWritten();
+
+		if(lastCheckpointTime <= 0) {
+			lastCheckpointTime = System.currentTimeMillis();
+		}
+		if((System.currentTimeMillis() - lastCheckpointTime) >= timeForEachCheckpoint) {
+			writeCheckpoint();
+		}
+	}
+
+	/**
+	 * Find the state of the head the commit is based on, as fast-import does: the
+	 * from commit when given, else the last commit of the head in this session,
+	 * else the head in the repository when resuming.
+	 */
+	private Head startCommit(String ref, Commit commit) throws IOException {
+		Head head = heads.get(ref);
+		if(null != commit.getFrom()) {
+			ObjectId base = resolveCommit(commit.getFrom());
+			if(null == head || !base.equals(head.tip)) {
+				head = new Head(base);
+				heads.put(ref, head);
+			}
+		} else if(null == head) {
+			ObjectId base = null;
+			if(commit.isResumingOnTopOfRef()) {
+				Ref existing = repository.exactRef(ref);
+				if(null != existing) {
+					base = revWalk.parseCommit(existing.getObjectId()).getId();
+				}
+			}
+			head = new Head(base);
+			heads.put(ref, head);
+		}
+		return head;
+	}
+
+	@Override
+	public void writeReset(Reset reset) throws IOException {
+		if(null != fastExportOverrideToFile) {
+			super.writeReset(reset);
+			return;
+		}
+		String ref = reset.getRef();
+		if(!ref.startsWith(Constants.R_REFS)) {
+			ref = Constants.R_HEADS + ref;
+		}
+		ObjectId base = null;
+		if(null != reset.getCommittish()) {
+			base = resolveCommit(reset.getCommittish());
+		}
+		Head head = new Head(base);
+		head.changed = null != base;
+		heads.put(ref, head);
+	}
+
+	@Override
+	public void writeTag(Tag tag) throws IOException {
+		if(null != fastExportOverrideToFile) {
+			super.writeTag(tag);
+			return;
+		}
+		ObjectId target = resolve(tag.getCommittish());
+		TagBuilder builder = new TagBuilder();
+		builder.setObjectId(target, revWalk.parseAny(target).getType());
+		builder.setTag(tag.getTagName());
+		builder.setTagger(new PersonIdent(tag.getTaggerName(), tag.getTaggerEmail(), tag.getTagDate(),
+				TimeZone.getDefault()));
+		builder.setMessage(new String(read(tag.getComment()), StandardCharsets.UTF_8));
+		byte[] raw = builder.build();
+		pendingTags.put(Constants.R_TAGS + tag.getTagName(), inserter.insert(Constants.OBJ_TAG, raw));
+		Metrics.current().add(Metrics.TAG_BYTES, raw.length);
+	}
+
+	@Override
+	public void writeCheckpoint() throws IOException {
+		if(null != fastExportOverrideToFile) {
+			super.writeCheckpoint();
+			return;
+		}
+		flush();
+		// journal the file information recorded up to this checkpoint
+		saveFileInformation();
+		lastCheckpointTime = System.currentTimeMillis();
+		Log.out("Checkpoint done");
+	}
+
+	/**
+	 * Write the pack and update the refs, the objects are then visible to the
+	 * other processes.
+	 */
+	private void flush() throws IOException {
+		inserter.flush();
+		closeReader();
+		openReader();
+		for(Map.Entry<String, Head> entry : heads.entrySet()) {
+			Head head = entry.getValue();
+			if(head.changed && null != head.tip) {
+				updateRef(entry.getKey(), head.tip, false);
+				head.changed = false;
+			}
+		}
+		for(Map.Entry<String, ObjectId> tag : pendingTags.entrySet()) {
+			updateRef(tag.getKey(), tag.getValue(), true);
+		}
+		pendingTags.clear();
+	}
+
+	private void updateRef(String name, ObjectId id, boolean force) throws IOException {
+		RefUpdate update = repository.updateRef(name);
+		update.setNewObjectId(id);
+		update.setForceUpdate(force);
+		update.setRefLogMessage("starteam import", false);
+		RefUpdate.Result result = update.update(revWalk);
+		switch(result) {
+		case NEW:
+		case FORCED:
+		case FAST_FORWARD:
+		case NO_CHANGE:
+			break;
+		default:
+			// fast-import refuses the same way to move a branch backward
+			Log.log("Could not update " + name + " to " + id.name() + ": " + result);
+			refUpdateFailed = true;
+		}
+	}
+
+	@Override
+	public void dispose() {
+		if(null == repository) {
+			return;
+		}
+		if(null != fastExportOverrideToFile) {
+			super.dispose();
+		}
+		boolean success = false;
+		try {
+			flush();
+			success = !refUpdateFailed;
+		} catch (IOException e) {
+			Log.log("Could not write the imported objects: " + e.getMessage());
+		}
+		if(success) {
+			saveFileInformation();
+		} else {
+			Log.log("The import did not end properly, the Starteam file information since the last checkpoint is not saved");
+		}
+		if(null != fileInformationBatch) {
+			fileInformation.closeBatch(fileInformationBatch);
+		}
+		if(null != contentIndex) {
+			// The blobs are only safe to reference once the pack is written
+			if(success) {
+				contentIndex.commitSession();
+			} else {
+				contentIndex.abandonSession();
+			}
+		}
+		closeReader();
+		inserter.close();
+		repository.close();
+		repository = null;
+	}
+
+	@Override
+	public Date getLastCommitOfBranch(String branchName) {
+		SmallRef to = new SmallRef(branchName);
+		List<LogEntry> commits = getCommitLog(to.back(1), to);
+		if (commits.size() <= 0) {
+			commits = getCommitLog(to);
+		}
+		return commits.get(0).getTimeOfCommit();
+	}
+
+	@Override
+	public List<LogEntry> getCommitLog(SmallRef from, SmallRef to) {
+		List<LogEntry> entries = new ArrayList<LogEntry>();
+		try {
+			ObjectId toId = resolveRevision(to);
+			if(null == toId) {
+				return entries;
+			}
+			RevWalk walk = new RevWalk(reader);
+			try {
+				walk.markStart(walk.parseCommit(toId));
+				if(null != from) {
+					ObjectId fromId = resolveRevision(from);
+					if(null == fromId) {
+						// git log fails on an unknown revision as well
+						return entries;
+					}
+					walk.markUninteresting(walk.parseCommit(fromId));
+				}
+				for(RevCommit commit : walk) {
+					PersonIdent author = commit.getAuthorIdent();
+					LogEntry entry = new LogEntry(new Sha1Ref(commit.name()));
+					entry.setAuthor(author.getName() + " <" + author.getEmailAddress() + ">");
+					entry.appendComment(commit.getFullMessage());
+					entry.setTimeOfCommit(author.getWhen());
+					entries.add(entry);
+				}
+			} finally {
+				walk.close();
+			}
+		} catch (IOException e) {
+			Log.log("Could not read the log of " + to.getRef() + ": " + e.getMessage());
+		}
+		return entries;
+	}
+
+	@Override
+	public List<LogEntry> getCommitLog(SmallRef to) {
+		return getCommitLog(null, to);
+	}
+
+	private ObjectId resolveRevision(SmallRef revision) throws IOException {
+		String ref = revision.getRef();
+		if(ref.startsWith(":")) {
+			return marks.get(ref);
+		}
+		return repository.resolve(ref);
+	}
+
+	@Override
+	public void setWorkingDirectory(String dir, boolean create) {
+		super.setWorkingDirectory(dir, create);
+		if(null != repository) {
+			dispose();
+		}
+		try {
+			openRepository(create);
+		} catch (IOException e) {
+			Log.log(e.getMessage());
+		}
+	}
+
+	@Override
+	public String getWorkingDirectory() {
+		return gitDirectory.getPath();
+	}
+
+	@Override
+	public File getStarteamInfoDirectory() {
+		File objDir = new File(gitDirectory, STARTEAMFILEINFODIR);
+		if(!objDir.exists()) {
+			objDir.mkdir();
+		}
+		return objDir;
+	}
+
+	@Override
+	public void getFileContent(String head, String path, OutputStream stream) {
+		try {
+			ObjectId blob = null;
+			Head current = heads.get(Constants.R_HEADS + head);
+			if(null != current) {
+				FileEntry file = current.root.get(path);
+				blob = null != file ? file.id : null;
+			} else {
+				Ref ref = repository.exactRef(Constants.R_HEADS + head);
+				if(null != ref) {
+					TreeWalk walk = TreeWalk.forPath(reader, path, revWalk.parseCommit(ref.getObjectId()).getTree());
+					if(null != walk) {
+						blob = walk.getObjectId(0);
+						walk.close();
+					}
+				}
+			}
+			if(null != blob) {
+				reader.open(blob, Constants.OBJ_BLOB).copyTo(stream);
+			}
+		} catch (IOException ex) {
+			Log.logf("Failed to read the path <%s> on head <%s>:%s", path, head, ex);
+		}
+	}
+
+	private ObjectId insert(Data data) throws IOException {
+		InputStream content = data.openStream();
+		try {
+			return inserter.insert(Constants.OBJ_BLOB, data.getLength(), content);
+		} finally {
+			content.close();
+		}
+	}
+
+	private static byte[] read(Data data) throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream((int) data.getLength());
+		InputStream in = data.openStream();
+		try {
+			byte[] buffer = new byte[4096];
+			int read;
+			while((read = in.read(buffer)) >= 0) {
+				content.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		return content.toByteArray();
+	}
+
+	/**
+	 * Find the object of a mark or of a sha-1.
+	 */
+	private ObjectId resolve(DataRef ref) throws IOException {
+		String id = ref.getId();
+		if(id.startsWith(":")) {
+			ObjectId marked = marks.get(id);
+			if(null == marked) {
+				throw new IOException("Unknown mark " + id);
+			}
+			return marked;
+		}
+		if(SHA1.matcher(id).matches()) {
+			return ObjectId.fromString(id);
+		}
+		ObjectId resolved = repository.resolve(id);
+		if(null == resolved) {
+			throw new IOException("Unknown revision " + id);
+		}
+		return resolved;
+	}
+
+	private ObjectId resolveCommit(DataRef ref) throws IOException {
+		// peel the tags
+		return revWalk.parseCommit(resolve(ref)).getId();
+	}
+
+	/**
+	 * Last commit and tree of a head in this session.
+	 */
+	private class Head {
+		private ObjectId tip;
+		private final Directory root;
+		private boolean changed;
+
+		private Head(ObjectId tip) throws IOException {
+			this.tip = tip;
+			this.root = new Directory(null != tip ? revWalk.parseCommit(tip).getTree().getId() : null);
+		}
+	}
+
+	private static class FileEntry {
+		private final ObjectId id;
+		private final FileMode mode;
+
+		private FileEntry(ObjectId id, FileMode mode) {
+			this.id = id;
+			this.mode = mode;
+		}
+	}
+
+	/**
+	 * A directory of a head. Its entries are only read from the repository when
+	 * it is modified or listed; its tree id is kept until one of its entries
+	 * changes.
+	 */
+	private class Directory {
+		private Map<String, Object> entries;
+		private ObjectId id;
+
+		private Directory(ObjectId id) {
+			this.id = id;
+			if(null == id) {
+				entries = new HashMap<String, Object>();
+			}
+		}
+
+		private Map<String, Object> entries() throws IOException {
+			if(null == entries) {
+				entries = new HashMap<String, Object>();
+				CanonicalTreeParser parser = new CanonicalTreeParser(null, reader, id);
+				while(!parser.eof()) {
+					FileMode mode = parser.getEntryFileMode();
+					ObjectId entryId = parser.getEntryObjectId();
+					if(FileMode.TREE.equals(mode)) {
+						entries.put(parser.getEntryPathString(), new Directory(entryId));
+					} else {
+						entries.put(parser.getEntryPathString(), new FileEntry(entryId, mode));
+					}
+					parser.next();
+				}
+			}
+			return entries;
+		}
+
+		private FileEntry get(String path) throws IOException {
+			Directory directory = this;
+			String[] names = path.split("/");
+			for(int i = 0; i < names.length - 1; ++i) {
+				Object entry = directory.entries().get(names[i]);
+				if(!(entry instanceof Directory)) {
+					return null;
+				}
+				directory = (Directory) entry;
+			}
+			Object entry = directory.entries().get(names[names.length - 1]);
+			return entry instanceof FileEntry ? (FileEntry) entry : null;
+		}
+
+		private void put(String path, ObjectId blob, FileMode mode) throws IOException {
+			Directory directory = this;
+			String[] names = path.split("/");
+			for(int i = 0; i < names.length - 1; ++i) {
+				directory.id = null;
+				Object entry = directory.entries().get(names[i]);
+				if(!(entry instanceof Directory)) {
+					// a file replaced by a directory
+					entry = new Directory(null);
+					directory.entries().put(names[i], entry);
+				}
+				directory = (Directory) entry;
+			}
+			directory.id = null;
+			directory.entries().put(names[names.length - 1], new FileEntry(blob, mode));
+		}
+
+		/**
+		 * Remove a file or a whole directory, the directories left empty are
+		 * removed too.
+		 */
+		private boolean remove(String path) throws IOException {
+			int slash = path.indexOf('/');
+			String name = slash < 0 ? path : path.substring(0, slash);
+			Object entry = entries().get(name);
+			if(null == entry) {
+				return false;
+			}
+			if(slash >= 0) {
+				if(!(entry instanceof Directory) || !((Directory) entry).remove(path.substring(slash + 1))) {
+					return false;
+				}
+				if(!((Directory) entry).entries().isEmpty()) {
+					id = null;
+					return true;
+				}
+			}
+			entries().remove(name);
+			id = null;
+			return true;
+		}
+
+		private void collect(String prefix, Set<String> files) throws IOException {
+			for(Map.Entry<String, Object> entry : entries().entrySet()) {
+				if(entry.getValue() instanceof Directory) {
+					((Directory) entry.getValue()).collect(prefix + entry.getKey() + "/", files);
+				} else {
+					files.add(prefix + entry.getKey());
+				}
+			}
+		}
+
+		/**
+		 * @return the id of the tree, written with the modified sub-directories
+		 */
+		private ObjectId write() throws IOException {
+			if(null != id) {
+				return id;
+			}
+			List<TreeEntry> sorted = new ArrayList<TreeEntry>(entries.size());
+			for(Map.Entry<String, Object> entry : entries.entrySet()) {
+				if(entry.getValue() instanceof Directory) {
+					sorted.add(new TreeEntry(entry.getKey(), FileMode.TREE, ((Directory) entry.getValue()).write()));
+				} else {
+					FileEntry file = (FileEntry) entry.getValue();
+					sorted.add(new TreeEntry(entry.getKey(), file.mode, file.id));
+				}
+			}
+			Collections.sort(sorted, TreeEntry.GIT_ORDER);
+			TreeFormatter formatter = new TreeFormatter();
+			for(TreeEntry entry : sorted) {
+				formatter.append(entry.name, entry.mode, entry.id);
+			}
+			id = formatter.insertTo(inserter);
+			return id;
+		}
+	}
+
+	private static class TreeEntry {
+		/**
+		 * The order of the entries in a git tree: by bytes, a directory sorting
+		 * as if its name ended with a '/'.
+		 */
+		private static final Comparator<TreeEntry> GIT_ORDER = new Comparator<TreeEntry>() {
+			@Override
+			public int compare(TreeEntry a, TreeEntry b) {
+				int length = Math.min(a.name.length, b.name.length);
+				for(int i = 0; i < length; ++i) {
+					int difference = (a.name[i] & 0xff) - (b.name[i] & 0xff);
+					if(difference != 0) {
+						return difference;
+					}
+				}
+				return a.next(length) - b.next(length);
+			}
+		};
+
+		private final byte[] name;
+		private final FileMode mode;
+		private final ObjectId id;
+
+		private TreeEntry(String name, FileMode mode, ObjectId id) {
+			this.name = Constants.encode(name);
+			this.mode = mode;
+			this.id = id;
+		}
+
+		private int next(int position) {
+			if(position < name.length) {
+				return name[position] & 0xff;
+			}
+			return FileMode.TREE.equals(mode) ? '/' : 0;
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(name);
+		}
+	}
+}
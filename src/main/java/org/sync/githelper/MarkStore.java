@@ -0,0 +1,425 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.githelper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.ObjectId;
+import org.ossnoize.git.fastimport.DataRef;
+import org.ossnoize.git.fastimport.MarkID;
+import org.sync.Log;
+
+/**
+ * The marks of the fast-import sessions of a repository, kept from one run to
+ * the next with the Starteam content each blob was written from.
+ *
+ * Every fast-import process imports the saved marks when it starts and exports
+ * its own marks to a session file at each checkpoint and when it ends. A
+ * session is merged into the saved marks once its process is done, or on the
+ * next run when it was killed, so a crash only loses what was written since
+ * the last checkpoint. Only the marks of objects found in the repository are
+ * merged. The mark counter is moved past the saved marks so the new marks
+ * never redefine them. The contents file is written again from the contents
+ * known in memory once it holds twice as many lines, since the contents of the
+ * marks that didn't make it to the marks file are left in it.
+ */
+public class MarkStore {
+
+	private static final String MARKS_FILE = "marks";
+	private static final String CONTENTS_FILE = "MarkContents.txt";
+	private static final String SESSION_PREFIX = "marks-session-";
+	private static final String CONTENTS_SUFFIX = ".contents";
+	// Each fast-import stream has its own session when the views are imported
+	// in parallel
+	private static final Object FILE_LOCK = new Object();
+
+	private final File directory;
+	private final File marksFile;
+	private final File contentsFile;
+	// content key -> saved mark, read only once loaded
+	private final Map<Long, Long> savedContents = new HashMap<Long, Long>();
+	// content key -> mark merged by the sessions since loaded, and the number of
+	// lines of the contents file, guarded by FILE_LOCK
+	private final Map<Long, Long> mergedContents = new HashMap<Long, Long>();
+	private long contentLines = -1;
+
+	/**
+	 * @param starteamDirectory
+	 *          Where the marks are saved
+	 */
+	public MarkStore(File starteamDirectory) {
+		directory = starteamDirectory;
+		marksFile = new File(starteamDirectory, MARKS_FILE);
+		contentsFile = new File(starteamDirectory, CONTENTS_FILE);
+	}
+
+	/**
+	 * Merge the sessions left by an interrupted run and load the saved marks.
+	 * Shall be called before any fast-import process of the repository starts.
+	 *
+	 * @param objects
+	 *          The object database the marks are checked in
+	 */
+	public void load(ObjectDatabase objects) throws IOException {
+		synchronized (FILE_LOCK) {
+			File[] sessions = directory.listFiles(new FilenameFilter() {
+				@Override
+				public boolean accept(File dir, String name) {
+					return name.startsWith(SESSION_PREFIX) && !name.endsWith(CONTENTS_SUFFIX);
+				}
+			});
+			if (null != sessions) {
+				for (File session : sessions) {
+					Log.log("Recovering the marks of an interrupted session: " + session.getName());
+					merge(session, objects);
+				}
+			}
+			// the contents of the marks that didn't make it to the marks file are
+			// dropped
+			Map<Long, Long> contentByMark = new HashMap<Long, Long>();
+			long lines = readContents(contentsFile, contentByMark);
+			long last = 0;
+			if (marksFile.exists()) {
+				BufferedReader marks = open(marksFile);
+				try {
+					String line;
+					while (null != (line = marks.readLine())) {
+						long mark = parseMark(line);
+						if (mark <= 0) {
+							continue;
+						}
+						last = Math.max(last, mark);
+						Long key = contentByMark.remove(mark);
+						if (null != key) {
+							savedContents.put(key, mark);
+						}
+					}
+				} finally {
+					marks.close();
+				}
+			}
+			mergedContents.clear();
+			contentLines = lines;
+			if (contentLines > savedContents.size()) {
+				writeContents();
+			}
+			MarkID.skipTo(last);
+			if (last > 0) {
+				Log.logf("Loaded the marks up to :%d, %d contents known", last, savedContents.size());
+			}
+		}
+	}
+
+	/**
+	 * @return the file of the saved marks, may not exist yet.
+	 */
+	public File getMarksFile() {
+		return marksFile;
+	}
+
+	/**
+	 * Start the session of a new fast-import process.
+	 */
+	public Session openSession() throws IOException {
+		return new Session(File.createTempFile(SESSION_PREFIX, "", directory));
+	}
+
+	/**
+	 * Find the blob of a content saved by an earlier session.
+	 *
+	 * @return the mark of the blob, null if unknown
+	 */
+	public DataRef find(int itemId, int contentVersion) {
+		return findSaved(key(itemId, contentVersion));
+	}
+
+	private DataRef findSaved(long key) {
+		Long mark = savedContents.get(key);
+		if (null == mark) {
+			return null;
+		}
+		return MarkID.valueOf(mark);
+	}
+
+	/**
+	 * Read the content key of each mark of a contents file.
+	 * @return the number of lines read
+	 */
+	private static long readContents(File file, Map<Long, Long> contentByMark) throws IOException {
+		if (!file.exists()) {
+			return 0;
+		}
+		long lines = 0;
+		BufferedReader contents = open(file);
+		try {
+			String line;
+			while (null != (line = contents.readLine())) {
+				lines++;
+				String[] fields = line.split(" ");
+				if (fields.length != 3) {
+					continue;
+				}
+				long mark = parseMark(fields[0]);
+				if (mark <= 0) {
+					continue;
+				}
+				try {
+					contentByMark.put(mark, key(Integer.parseInt(fields[1]), Integer.parseInt(fields[2])));
+				} catch (NumberFormatException e) {
+					// a line cut by a crash
+				}
+			}
+		} finally {
+			contents.close();
+		}
+		return lines;
+	}
+
+	/**
+	 * Write the contents file again with the contents of the saved marks only.
+	 */
+	private void writeContents() throws IOException {
+		Map<Long, Long> contents = new HashMap<Long, Long>(savedContents);
+		contents.putAll(mergedContents);
+		File written = new File(directory, CONTENTS_FILE + ".new");
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(written), StandardCharsets.US_ASCII));
+		try {
+			for (Map.Entry<Long, Long> content : contents.entrySet()) {
+				writeContent(out, content.getValue(), content.getKey());
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(written.toPath(), contentsFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		contentLines = contents.size();
+	}
+
+	private static void writeContent(Writer out, long mark, long key) throws IOException {
+		out.write(":" + mark + " " + (int) (key >>> 32) + " " + (int) key + "\n");
+	}
+
+	/**
+	 * Merge the marks exported by a session in the saved marks. Both files are
+	 * sorted by mark as fast-import writes them.
+	 */
+	private void merge(File session, ObjectDatabase objects) throws IOException {
+		File sessionContents = new File(session.getPath() + CONTENTS_SUFFIX);
+		Set<Long> kept = new HashSet<Long>();
+		if (session.length() > 0) {
+			File merged = new File(directory, MARKS_FILE + ".new");
+			BufferedReader saved = marksFile.exists() ? open(marksFile) : null;
+			BufferedReader added = open(session);
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(merged), StandardCharsets.US_ASCII));
+			int dropped = 0;
+			try {
+				String a = null == saved ? null : saved.readLine();
+				String b = added.readLine();
+				while (null != a || null != b) {
+					long ma = null == a ? Long.MAX_VALUE : parseMark(a);
+					long mb = null == b ? Long.MAX_VALUE : parseMark(b);
+					if (null != a && ma <= mb) {
+						out.write(a);
+						out.write('\n');
+						a = saved.readLine();
+						if (ma == mb) {
+							b = added.readLine();
+						}
+					} else {
+						if (mb > 0 && exists(b, objects)) {
+							out.write(b);
+							out.write('\n');
+							kept.add(mb);
+						} else {
+							dropped++;
+						}
+						b = added.readLine();
+					}
+				}
+			} finally {
+				out.close();
+				added.close();
+				if (null != saved) {
+					saved.close();
+				}
+			}
+			if (dropped > 0) {
+				Log.logf("%d marks of the session %s were not found in the repository", dropped, session.getName());
+			}
+			Files.move(merged.toPath(), marksFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+		if (sessionContents.exists()) {
+			Map<Long, Long> contentByMark = new HashMap<Long, Long>();
+			readContents(sessionContents, contentByMark);
+			contentByMark.keySet().retainAll(kept);
+			if (contentLines >= 0) {
+				for (Map.Entry<Long, Long> content : contentByMark.entrySet()) {
+					mergedContents.put(content.getValue(), content.getKey());
+				}
+			}
+			if (contentLines >= 0
+					&& contentLines + contentByMark.size() > 2 * (savedContents.size() + mergedContents.size())) {
+				writeContents();
+			} else {
+				Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(contentsFile, true),
+						StandardCharsets.US_ASCII));
+				try {
+					for (Map.Entry<Long, Long> content : contentByMark.entrySet()) {
+						writeContent(out, content.getKey(), content.getValue());
+					}
+				} finally {
+					out.close();
+				}
+				if (contentLines >= 0) {
+					contentLines += contentByMark.size();
+				}
+			}
+			sessionContents.delete();
+		}
+		session.delete();
+	}
+
+	private static boolean exists(String markLine, ObjectDatabase objects) throws IOException {
+		int space = markLine.indexOf(' ');
+		if (space < 0 || !ObjectId.isId(markLine.substring(space + 1))) {
+			return false;
+		}
+		return objects.has(ObjectId.fromString(markLine.substring(space + 1)));
+	}
+
+	/**
+	 * @return the mark of a <code>:&lt;mark&gt; &lt;sha-1&gt;</code> line, 0 if
+	 *         the line isn't valid.
+	 */
+	private static long parseMark(String line) {
+		if (!line.startsWith(":")) {
+			return 0;
+		}
+		int end = line.indexOf(' ');
+		try {
+			return Long.parseLong(line.substring(1, end < 0 ? line.length() : end));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static BufferedReader open(File file) throws IOException {
+		return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.US_ASCII));
+	}
+
+	private static long key(int itemId, int contentVersion) {
+		return ((long) itemId << 32) | (contentVersion & 0xffffffffL);
+	}
+
+	/**
+	 * The marks of one fast-import process. The contents registered in the
+	 * session are only written to the session file at the checkpoints, they
+	 * are saved with the marks when the session is closed.
+	 */
+	public class Session {
+		private final File marks;
+		private final File contents;
+		private final Map<Long, DataRef> written = new HashMap<Long, DataRef>();
+		private final List<String> pending = new ArrayList<String>();
+
+		private Session(File marks) {
+			this.marks = marks;
+			this.contents = new File(marks.getPath() + CONTENTS_SUFFIX);
+		}
+
+		/**
+		 * @return the file fast-import exports the marks of the session to.
+		 */
+		public File getMarksFile() {
+			return marks;
+		}
+
+		/**
+		 * Find the blob of a content written in this session or saved by an
+		 * earlier one.
+		 *
+		 * @return the mark of the blob, null if unknown
+		 */
+		public synchronized DataRef find(int itemId, int contentVersion) {
+			long key = key(itemId, contentVersion);
+			DataRef ref = written.get(key);
+			if (null != ref) {
+				return ref;
+			}
+			return findSaved(key);
+		}
+
+		/**
+		 * Record the Starteam content a blob of this session was written from.
+		 */
+		public synchronized void register(int itemId, int contentVersion, DataRef blob) {
+			if (!(blob instanceof MarkID)) {
+				return;
+			}
+			written.put(key(itemId, contentVersion), blob);
+			pending.add(blob.getId() + " " + itemId + " " + contentVersion + "\n");
+		}
+
+		/**
+		 * Write the registered contents to the session file, called at each
+		 * checkpoint.
+		 */
+		public synchronized void flush() throws IOException {
+			if (pending.isEmpty()) {
+				return;
+			}
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(contents, true), StandardCharsets.US_ASCII));
+			try {
+				for (String line : pending) {
+					out.write(line);
+				}
+			} finally {
+				out.close();
+			}
+			pending.clear();
+		}
+
+		/**
+		 * Save the marks of the session, shall only be called once fast-import
+		 * ended.
+		 */
+		public void close(ObjectDatabase objects) throws IOException {
+			flush();
+			synchronized (FILE_LOCK) {
+				merge(marks, objects);
+			}
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.starteam;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.starbase.starteam.CheckoutManager;
+import com.starbase.starteam.File;
+import com.starbase.starteam.Folder;
+import com.starbase.starteam.Item;
+import com.starbase.starteam.ItemList;
+import com.starbase.starteam.Label;
+import com.starbase.starteam.RecycleBin;
+import com.starbase.starteam.Type;
+import com.starbase.starteam.View;
+import com.starbase.starteam.ViewConfiguration;
+
+/**
+ * The source calling the Starteam server through the SDK.
+ */
+public class LiveStarteamSource extends StarteamSource {
+
+	@Override
+	public Item[] getItems(Folder folder) {
+		return folder.getItems(folder.getTypeNames().FILE);
+	}
+
+	@Override
+	public Folder[] getSubFolders(Folder folder) {
+		return folder.getSubFolders();
+	}
+
+	@Override
+	public void populate(Folder root, String[] properties) {
+		root.populateNow(root.getTypeNames().FILE, properties, -1);
+	}
+
+	@Override
+	public void populate(List<File> revisions, String[] properties) {
+		ItemList items = new ItemList();
+		for (File revision : revisions) {
+			items.addItem(revision);
+		}
+		items.populateNow(properties);
+	}
+
+	@Override
+	public Item[] getHistory(Item item) {
+		return item.getHistory();
+	}
+
+	@Override
+	public File getFromHistoryByVersion(File file, int viewVersion) {
+		return (File) file.getFromHistoryByVersion(viewVersion);
+	}
+
+	@Override
+	public Label[] fetchAllLabels(View view) {
+		return view.fetchAllLabels();
+	}
+
+	@Override
+	public View getRecycleBin(View view) {
+		try {
+			RecycleBin recycleBin = view.getRecycleBin();
+			recycleBin.setIncludeDeletedItems(true);
+			return recycleBin;
+		} catch (UnsupportedOperationException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public File findFile(View view, int itemId) {
+		Type fileType = view.getServer().typeForName(view.getTypeNames().FILE);
+		return (File) view.findItem(fileType, itemId);
+	}
+
+	@Override
+	public View openView(View view, ViewConfiguration configuration) {
+		return new View(view, configuration);
+	}
+
+	@Override
+	public String getUserName(View view, int uid) {
+		return view.getServer().getUser(uid).getName();
+	}
+
+	@Override
+	public Checkout openCheckout(View view) {
+		// http://techpubs.borland.com/starteam/2009/en/sdk_documentation/api/com/starbase/starteam/CheckoutManager.html
+		// said old version (passed in /opt/StarTeamCP_2005r2/lib/starteam80.jar) "Deprecated. Use View.createCheckoutManager() instead."
+		final CheckoutManager cm = new CheckoutManager(view);
+		cm.getOptions().setEOLConversionEnabled(false);
+		// Disabling status update leads to a large performance increase.
+		cm.getOptions().setUpdateStatus(false);
+		return new Checkout() {
+			@Override
+			public void checkoutTo(File file, java.io.File target) throws IOException {
+				cm.checkoutTo(file, target);
+			}
+
+			@Override
+			public boolean isKeywordExpansionEnabled() {
+				return cm.getOptions().getKeywordExpansionEnabled();
+			}
+		};
+	}
+}
@@ -0,0 +1,348 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.starteam;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.sync.Log;
+
+import com.starbase.starteam.File;
+import com.starbase.starteam.Folder;
+import com.starbase.starteam.Item;
+import com.starbase.starteam.Label;
+import com.starbase.starteam.NoSuchPropertyException;
+import com.starbase.starteam.PropertyNames;
+import com.starbase.starteam.RecycleBin;
+import com.starbase.starteam.View;
+import com.starbase.starteam.ViewConfiguration;
+import com.starbase.util.OLEDate;
+
+/**
+ * A source recording what the import reads from another source in an archive
+ * that {@link ReplayStarteamSource} replays without the server. The checked
+ * out contents are kept too, a recorded import can so be run again offline.
+ */
+public class RecordingStarteamSource extends StarteamSource {
+
+	private final StarteamSource delegate;
+	private final java.io.File directory;
+	private final StarteamArchive.RecordWriter records;
+	// what was written already, a record is written once
+	private final Set<String> recorded = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * @param delegate
+	 *          The source actually read
+	 * @param directory
+	 *          Where the archive is written, the records are added to the ones
+	 *          already there
+	 */
+	public RecordingStarteamSource(StarteamSource delegate, java.io.File directory) throws IOException {
+		this.delegate = delegate;
+		this.directory = directory;
+		java.io.File contents = new java.io.File(directory, StarteamArchive.CONTENTS);
+		if (!contents.isDirectory() && !contents.mkdirs()) {
+			throw new IOException("Could not create the archive directory " + contents);
+		}
+		records = new StarteamArchive.RecordWriter(directory);
+	}
+
+	/**
+	 * Record a view and the views derived from it, with their labels. Shall be
+	 * called with the root view before the import.
+	 */
+	public void recordViews(View root) {
+		recordView(root, null);
+	}
+
+	private void recordView(View view, View parent) {
+		String key = viewKey(view);
+		Folder rootFolder = view.getRootFolder();
+		String baseConfiguration = StarteamArchive.NONE;
+		if (null != parent) {
+			baseConfiguration = StarteamArchive.configurationKey(view.getBaseConfiguration());
+		}
+		recorded.add("V" + key);
+		records.write("V", key, view.getID(), view.getName(), StarteamArchive.configurationKey(view.getConfiguration()),
+				rootFolder.getObjectID(), time(view.getCreatedTime()), null == parent ? StarteamArchive.NONE : viewKey(parent),
+				baseConfiguration);
+		recordFolder(rootFolder);
+		Set<Integer> active = new HashSet<Integer>();
+		for (Label label : view.getActiveLabels()) {
+			active.add(label.getID());
+		}
+		recorded.add("L" + key);
+		for (Label label : delegate.fetchAllLabels(view)) {
+			recordLabel(key, label, active.contains(label.getID()));
+		}
+		View[] derived;
+		try {
+			derived = view.getDerivedViews();
+		} catch (RuntimeException e) {
+			Log.log("Could not record the derived views of " + view.getName() + ": " + e);
+			return;
+		}
+		for (View child : derived) {
+			recordView(child, view);
+		}
+	}
+
+	private void recordLabel(String viewKey, Label label, boolean active) {
+		records.write("L", viewKey, label.getID(), label.getName(), label.getDescription(), label.isViewLabel() ? 1 : 0,
+				label.isRevisionLabel() ? 1 : 0, active ? 1 : 0, label.isViewLabel() ? time(label.getTime()) : 0,
+				label.isRevisionLabel() ? time(label.getRevisionTime()) : 0);
+	}
+
+	/**
+	 * Write the records of the archive.
+	 */
+	public void close() throws IOException {
+		records.close();
+	}
+
+	@Override
+	public Item[] getItems(Folder folder) {
+		Item[] items = delegate.getItems(folder);
+		List<Object> fields = new ArrayList<Object>(items.length + 2);
+		String viewKey = viewKey(folder.getView());
+		fields.add(viewKey);
+		fields.add(folder.getObjectID());
+		for (Item item : items) {
+			if (item instanceof File) {
+				fields.add(recordFile((File) item));
+			}
+		}
+		recordFolder(folder);
+		records.write("I", fields.toArray());
+		return items;
+	}
+
+	@Override
+	public Folder[] getSubFolders(Folder folder) {
+		Folder[] subFolders = delegate.getSubFolders(folder);
+		List<Object> fields = new ArrayList<Object>(subFolders.length + 2);
+		fields.add(viewKey(folder.getView()));
+		fields.add(folder.getObjectID());
+		for (Folder subFolder : subFolders) {
+			recordFolder(subFolder);
+			fields.add(subFolder.getObjectID());
+		}
+		records.write("S", fields.toArray());
+		return subFolders;
+	}
+
+	@Override
+	public void populate(Folder root, String[] properties) {
+		delegate.populate(root, properties);
+	}
+
+	@Override
+	public void populate(List<File> revisions, String[] properties) {
+		delegate.populate(revisions, properties);
+	}
+
+	@Override
+	public Item[] getHistory(Item item) {
+		Item[] history = delegate.getHistory(item);
+		if (item instanceof File) {
+			List<File> revisions = new ArrayList<File>(history.length);
+			for (Item revision : history) {
+				revisions.add((File) revision);
+			}
+			// a single request instead of one for each property of each revision
+			populateRecorded(revisions);
+			List<Object> fields = new ArrayList<Object>(history.length + 1);
+			fields.add(item.getItemID());
+			for (File revision : revisions) {
+				fields.add(recordFile(revision));
+			}
+			records.write("H", fields.toArray());
+		} else if (item instanceof Folder) {
+			List<Object> fields = new ArrayList<Object>(history.length * 2 + 2);
+			fields.add(viewKey(item.getView()));
+			fields.add(item.getObjectID());
+			for (Item revision : history) {
+				fields.add(((Folder) revision).getName());
+				fields.add(time(revision.getModifiedTime()));
+			}
+			records.write("G", fields.toArray());
+		}
+		return history;
+	}
+
+	@Override
+	public File getFromHistoryByVersion(File file, int viewVersion) {
+		File revision = delegate.getFromHistoryByVersion(file, viewVersion);
+		records.write("Y", file.getItemID(), viewVersion, null == revision ? StarteamArchive.NONE : recordFile(revision));
+		return revision;
+	}
+
+	@Override
+	public Label[] fetchAllLabels(View view) {
+		Label[] labels = delegate.fetchAllLabels(view);
+		String key = viewKey(view);
+		if (recorded.add("L" + key)) {
+			for (Label label : labels) {
+				recordLabel(key, label, false);
+			}
+		}
+		return labels;
+	}
+
+	@Override
+	public View getRecycleBin(View view) {
+		View recycleBin = delegate.getRecycleBin(view);
+		records.write("B", viewKey(view), null == recycleBin ? StarteamArchive.NONE : viewKey(recycleBin));
+		return recycleBin;
+	}
+
+	@Override
+	public File findFile(View view, int itemId) {
+		File file = delegate.findFile(view, itemId);
+		records.write("D", viewKey(view), itemId, null == file ? StarteamArchive.NONE : recordFile(file));
+		return file;
+	}
+
+	@Override
+	public View openView(View view, ViewConfiguration configuration) {
+		View opened = delegate.openView(view, configuration);
+		String key = viewKey(opened);
+		records.write("O", viewKey(view), StarteamArchive.configurationKey(configuration), key);
+		if (recorded.add("V" + key)) {
+			Folder rootFolder = opened.getRootFolder();
+			records.write("V", key, opened.getID(), opened.getName(), StarteamArchive.configurationKey(configuration),
+					rootFolder.getObjectID(), time(opened.getCreatedTime()), StarteamArchive.NONE, StarteamArchive.NONE);
+			recordFolder(rootFolder);
+		}
+		return opened;
+	}
+
+	@Override
+	public String getUserName(View view, int uid) {
+		String name = delegate.getUserName(view, uid);
+		if (recorded.add("U" + uid)) {
+			records.write("U", uid, name);
+		}
+		return name;
+	}
+
+	@Override
+	public Checkout openCheckout(View view) {
+		final Checkout checkout = delegate.openCheckout(view);
+		return new Checkout() {
+			@Override
+			public void checkoutTo(File file, java.io.File target) throws IOException {
+				checkout.checkoutTo(file, target);
+				java.io.File content = StarteamArchive.contentFile(directory, file.getItemID(), file.getContentVersion());
+				if (!content.exists()) {
+					java.io.File copy = new java.io.File(content.getPath() + "." + Thread.currentThread().getId());
+					Files.copy(target.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					Files.move(copy.toPath(), content.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+
+			@Override
+			public boolean isKeywordExpansionEnabled() {
+				return checkout.isKeywordExpansionEnabled();
+			}
+		};
+	}
+
+	private void populateRecorded(List<File> revisions) {
+		if (revisions.isEmpty()) {
+			return;
+		}
+		PropertyNames names = revisions.get(0).getPropertyNames();
+		try {
+			delegate.populate(revisions, new String[] { names.FILE_NAME, names.COMMENT, names.FILE_DESCRIPTION,
+					names.FILE_CONTENT_REVISION, names.MODIFIED_TIME, names.MODIFIED_USER_ID, names.FILE_EOL_CHARACTER,
+					names.FILE_EXECUTABLE, names.PATH_REVISION, names.FILE_MD5_CHECKSUM, names.FILE_SIZE, });
+		} catch (RuntimeException e) {
+			Log.log("Could not populate the revisions to record: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the key of the revision in the archive.
+	 */
+	private String recordFile(File file) {
+		Folder parent = file.getParentFolder();
+		int parentId = null == parent ? -1 : parent.getObjectID();
+		boolean deleted = file.isDeleted();
+		String key = file.getItemID() + "." + file.getViewVersion() + "." + parentId + (deleted ? ".d" : "");
+		if (!recorded.add("R" + key)) {
+			return key;
+		}
+		if (null != parent) {
+			recordFolder(parent);
+		}
+		records.write("R", key, file.getItemID(), file.getObjectID(), file.getViewVersion(), file.getContentVersion(),
+				parentId, time(file.getModifiedTime()), file.getModifiedBy(), file.getSizeEx(),
+				StarteamArchive.hex(file.getMD5()), intProperty(file, file.getPropertyNames().FILE_EOL_CHARACTER),
+				intProperty(file, file.getPropertyNames().FILE_EXECUTABLE), deleted ? 1 : 0,
+				deleted ? time(file.getDeletedTime()) : 0, deleted ? file.getDeletedUserID() : 0, file.getName(),
+				file.getComment(), file.getDescription());
+		return key;
+	}
+
+	/**
+	 * Record a folder and its parents.
+	 */
+	private void recordFolder(Folder folder) {
+		while (null != folder) {
+			String viewKey = viewKey(folder.getView());
+			if (!recorded.add("F" + viewKey + "/" + folder.getObjectID())) {
+				return;
+			}
+			Folder parent = folder.getParentFolder();
+			records.write("F", viewKey, folder.getObjectID(), folder.getViewVersion(),
+					null == parent ? -1 : parent.getObjectID(), folder.getName(), folder.getFolderHierarchy());
+			folder = parent;
+		}
+	}
+
+	private static int intProperty(File file, String property) {
+		try {
+			Object value = file.get(property);
+			return value instanceof Integer ? (Integer) value : 0;
+		} catch (NoSuchPropertyException e) {
+			return 0;
+		}
+	}
+
+	private static long time(OLEDate date) {
+		return null == date ? 0 : date.getLongValue();
+	}
+
+	static String viewKey(View view) {
+		String configuration;
+		try {
+			configuration = StarteamArchive.configurationKey(view.getConfiguration());
+		} catch (RuntimeException e) {
+			configuration = "tip";
+		}
+		return view.getID() + ":" + configuration + (view instanceof RecycleBin ? "/recycle" : "");
+	}
+}
@@ -0,0 +1,229 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.starteam;
+
+import java.util.List;
+
+import com.starbase.starteam.File;
+import com.starbase.starteam.Folder;
+import com.starbase.starteam.Item;
+import com.starbase.starteam.NoSuchPropertyException;
+import com.starbase.starteam.PropertyNames;
+import com.starbase.starteam.TypeNames;
+import com.starbase.starteam.View;
+import com.starbase.util.OLEDate;
+
+/**
+ * A file revision replayed from an archive, seen from one of the views.
+ */
+class ReplayFile extends File {
+
+	private final ReplayStarteamSource source;
+	private final List<String> record;
+	private final String viewKey;
+	private final int itemId;
+	private final int objectId;
+	private final int viewVersion;
+	private final int contentVersion;
+	private final int parentId;
+	private final long modifiedTime;
+	private final int modifiedBy;
+	private final long size;
+	private final byte[] md5;
+	private final int eol;
+	private final int executable;
+	private final boolean deleted;
+	private final long deletedTime;
+	private final int deletedBy;
+
+	ReplayFile(ReplayStarteamSource source, List<String> record) {
+		this(source, record, null);
+	}
+
+	private ReplayFile(ReplayStarteamSource source, List<String> record, String viewKey) {
+		super((com.borland.starteam.impl.File) null);
+		this.source = source;
+		this.record = record;
+		this.viewKey = viewKey;
+		itemId = Integer.parseInt(record.get(2));
+		objectId = Integer.parseInt(record.get(3));
+		viewVersion = Integer.parseInt(record.get(4));
+		contentVersion = Integer.parseInt(record.get(5));
+		parentId = Integer.parseInt(record.get(6));
+		modifiedTime = Long.parseLong(record.get(7));
+		modifiedBy = Integer.parseInt(record.get(8));
+		size = Long.parseLong(record.get(9));
+		md5 = StarteamArchive.unhex(record.get(10));
+		eol = Integer.parseInt(record.get(11));
+		executable = Integer.parseInt(record.get(12));
+		deleted = "1".equals(record.get(13));
+		deletedTime = Long.parseLong(record.get(14));
+		deletedBy = Integer.parseInt(record.get(15));
+	}
+
+	/**
+	 * @return this revision as found in a view.
+	 */
+	ReplayFile inView(String key) {
+		return new ReplayFile(source, record, key);
+	}
+
+	@Override
+	public int getItemID() {
+		return itemId;
+	}
+
+	@Override
+	public int getObjectID() {
+		return objectId;
+	}
+
+	@Override
+	public int getID() {
+		return objectId;
+	}
+
+	@Override
+	public int getViewVersion() {
+		return viewVersion;
+	}
+
+	@Override
+	public int getContentVersion() {
+		return contentVersion;
+	}
+
+	@Override
+	public String getName() {
+		return record.get(16);
+	}
+
+	@Override
+	public String getComment() {
+		return record.get(17);
+	}
+
+	@Override
+	public String getDescription() {
+		return record.get(18);
+	}
+
+	@Override
+	public OLEDate getModifiedTime() {
+		return new OLEDate(modifiedTime);
+	}
+
+	@Override
+	public int getModifiedBy() {
+		return modifiedBy;
+	}
+
+	@Override
+	public long getSizeEx() {
+		return size;
+	}
+
+	@Override
+	public int getSize() {
+		return (int) size;
+	}
+
+	@Override
+	public byte[] getMD5() {
+		return null == md5 ? null : md5.clone();
+	}
+
+	@Override
+	public boolean isDeleted() {
+		return deleted;
+	}
+
+	@Override
+	public OLEDate getDeletedTime() {
+		return new OLEDate(deletedTime);
+	}
+
+	@Override
+	public int getDeletedUserID() {
+		return deletedBy;
+	}
+
+	@Override
+	public Object get(String propertyName) throws NoSuchPropertyException {
+		if (ReplayStarteamSource.PROPERTY_NAMES.FILE_EOL_CHARACTER.equals(propertyName)) {
+			return eol;
+		} else if (ReplayStarteamSource.PROPERTY_NAMES.FILE_EXECUTABLE.equals(propertyName)) {
+			return executable;
+		}
+		throw new NoSuchPropertyException(propertyName);
+	}
+
+	@Override
+	public Folder getParentFolder() {
+		return parentId < 0 ? null : source.folder(viewKey, parentId);
+	}
+
+	@Override
+	public String getParentFolderHierarchy() {
+		Folder parent = getParentFolder();
+		return null == parent ? "" : parent.getFolderHierarchy();
+	}
+
+	@Override
+	public View getView() {
+		return source.view(viewKey);
+	}
+
+	@Override
+	public Item[] getHistory() {
+		return source.getHistory(this);
+	}
+
+	@Override
+	public Item getFromHistoryByVersion(int version) {
+		return source.getFromHistoryByVersion(this, version);
+	}
+
+	@Override
+	public PropertyNames getPropertyNames() {
+		return ReplayStarteamSource.PROPERTY_NAMES;
+	}
+
+	@Override
+	public TypeNames getTypeNames() {
+		return ReplayStarteamSource.TYPE_NAMES;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof ReplayFile)) {
+			return false;
+		}
+		ReplayFile other = (ReplayFile) obj;
+		return record == other.record && (null == viewKey ? null == other.viewKey : viewKey.equals(other.viewKey));
+	}
+
+	@Override
+	public int hashCode() {
+		return objectId * 31 + viewVersion;
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
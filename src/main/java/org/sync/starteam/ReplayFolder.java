@@ -0,0 +1,169 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.starteam;
+
+import java.util.List;
+
+import com.starbase.starteam.Folder;
+import com.starbase.starteam.Item;
+import com.starbase.starteam.PropertyNames;
+import com.starbase.starteam.TypeNames;
+import com.starbase.starteam.View;
+import com.starbase.util.OLEDate;
+
+/**
+ * A folder of a view replayed from an archive. The folders of the history
+ * only have their name and modification time.
+ */
+class ReplayFolder extends Folder {
+
+	private final ReplayStarteamSource source;
+	private final String viewKey;
+	private final int id;
+	private final int viewVersion;
+	private final int parentId;
+	private final String name;
+	private final String hierarchy;
+	private final long modifiedTime;
+
+	ReplayFolder(ReplayStarteamSource source, String viewKey, List<String> record) {
+		this(source, viewKey, Integer.parseInt(record.get(2)), Integer.parseInt(record.get(3)),
+				Integer.parseInt(record.get(4)), record.get(5), record.get(6), 0);
+	}
+
+	private ReplayFolder(ReplayStarteamSource source, String viewKey, int id, int viewVersion, int parentId,
+			String name, String hierarchy, long modifiedTime) {
+		super((com.borland.starteam.impl.Folder) null);
+		this.source = source;
+		this.viewKey = viewKey;
+		this.id = id;
+		this.viewVersion = viewVersion;
+		this.parentId = parentId;
+		this.name = name;
+		this.hierarchy = hierarchy;
+		this.modifiedTime = modifiedTime;
+	}
+
+	/**
+	 * @return a revision of the history of this folder.
+	 */
+	ReplayFolder revision(String revisionName, long revisionTime) {
+		return new ReplayFolder(source, viewKey, id, -1, parentId, revisionName, hierarchy, revisionTime);
+	}
+
+	@Override
+	public int getObjectID() {
+		return id;
+	}
+
+	@Override
+	public int getItemID() {
+		return id;
+	}
+
+	@Override
+	public int getID() {
+		return id;
+	}
+
+	@Override
+	public int getViewVersion() {
+		return viewVersion;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String getFolderHierarchy() {
+		return hierarchy;
+	}
+
+	@Override
+	public Folder getParentFolder() {
+		return parentId < 0 ? null : source.folder(viewKey, parentId);
+	}
+
+	@Override
+	public View getView() {
+		return source.view(viewKey);
+	}
+
+	@Override
+	public Item[] getItems(String typeName) {
+		return source.getItems(this);
+	}
+
+	@Override
+	public Folder[] getSubFolders() {
+		return source.getSubFolders(this);
+	}
+
+	@Override
+	public int getSubFolderCount() {
+		return source.getSubFolders(this).length;
+	}
+
+	@Override
+	public Item[] getHistory() {
+		return source.getHistory(this);
+	}
+
+	@Override
+	public OLEDate getModifiedTime() {
+		return new OLEDate(modifiedTime);
+	}
+
+	@Override
+	public void populateNow(String typeName, String[] propertyNames, int depth) {
+	}
+
+	@Override
+	public void discardItems(String typeName, int depth) {
+	}
+
+	@Override
+	public PropertyNames getPropertyNames() {
+		return ReplayStarteamSource.PROPERTY_NAMES;
+	}
+
+	@Override
+	public TypeNames getTypeNames() {
+		return ReplayStarteamSource.TYPE_NAMES;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof ReplayFolder)) {
+			return false;
+		}
+		ReplayFolder other = (ReplayFolder) obj;
+		return id == other.id && viewVersion == other.viewVersion && viewKey.equals(other.viewKey);
+	}
+
+	@Override
+	public int hashCode() {
+		return viewKey.hashCode() * 31 + id;
+	}
+
+	@Override
+	public String toString() {
+		return hierarchy;
+	}
+}
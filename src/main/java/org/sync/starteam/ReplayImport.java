@@ -0,0 +1,93 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.starteam;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.sync.GitImporter;
+import org.sync.Log;
+import org.sync.RepositoryHelperFactory;
+import org.sync.UserMapping;
+import org.sync.util.Config;
+
+import com.starbase.starteam.View;
+
+/**
+ * Import a view recorded with the <code>starteamRecord</code> setting without
+ * any Starteam server, to measure the import on a known dataset. The settings
+ * of the import are read from config.properties as the normal import does,
+ * the archive and the latency of the server from <code>starteamReplay</code>,
+ * <code>replayLatency</code> and <code>replayCheckoutLatency</code>.
+ */
+public class ReplayImport {
+
+	public static void main(String[] args) throws IOException {
+		String archive = args.length > 0 ? args[0] : Config.instance.get("starteamReplay", "");
+		if (archive.isEmpty()) {
+			System.err.println("java org.sync.starteam.ReplayImport <archive directory>");
+			System.exit(1);
+		}
+		ReplayStarteamSource source = new ReplayStarteamSource(new File(archive));
+		source.setLatency(Double.parseDouble(Config.instance.get("replayLatency", "0")));
+		source.setCheckoutLatency(Double.parseDouble(Config.instance.get("replayCheckoutLatency", "0")));
+		View rootView = source.findView(Config.instance.get("view"));
+		if (null == rootView) {
+			System.err.println("View not recorded: " + Config.instance.get("view"));
+			System.exit(2);
+		}
+		StarteamSource.setInstance(source);
+
+		RepositoryHelperFactory.getFactory().setPreferedPath(Config.instance.get("gitexe"));
+		RepositoryHelperFactory.getFactory().setCreateRepo(true);
+		RepositoryHelperFactory.getFactory().setBackend(Config.instance.get("backend", "git"));
+		RepositoryHelperFactory.getFactory().setWorkingFolder(Config.instance.get("workfolder"));
+
+		GitImporter importer = new GitImporter(null, null);
+		importer.setDomain("db.org");
+		importer.setUserMapping(new UserMapping(null));
+		String labels = Config.instance.get("excludedLabels");
+		if (labels != null) {
+			importer.setLabelExclusion(Arrays.asList(labels.split(";")));
+		}
+		List<String> includeViews = new ArrayList<String>();
+		if (!"".equals(Config.instance.get("includeViews", ""))) {
+			includeViews = Arrays.asList(Config.instance.get("includeViews", "").split(";"));
+		}
+		importer.setViewInclusion(includeViews);
+		importer.setCheckoutThreads(Integer.parseInt(Config.instance.get("checkoutThreads", "1")),
+				Integer.parseInt(Config.instance.get("checkoutLookAhead", "0")));
+		importer.setContentDedup(Boolean.parseBoolean(Config.instance.get("contentDedup", "true")));
+		importer.setParallelViews(Integer.parseInt(Config.instance.get("parallelViews", "1")));
+		importer.setLabelLookAhead(Integer.parseInt(Config.instance.get("labelLookAhead", "0")));
+		if (Boolean.parseBoolean(Config.instance.get("metrics", "false"))) {
+			importer.startMetrics(Integer.parseInt(Config.instance.get("metricsInterval", "600")));
+		}
+
+		long start = System.currentTimeMillis();
+		try {
+			importer.generateAllViewsImport(null, rootView, null, Config.instance.get("skipViewsPattern"));
+		} finally {
+			importer.dispose();
+			Log.logf("Replayed the import of %s in %d ms", rootView.getName(), System.currentTimeMillis() - start);
+			Log.close();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.starteam;
+
+import java.util.List;
+
+import com.starbase.starteam.Label;
+import com.starbase.util.OLEDate;
+
+/**
+ * A label replayed from an archive.
+ */
+class ReplayLabel extends Label {
+
+	private final int id;
+	private final String name;
+	private final String description;
+	private final boolean viewLabel;
+	private final boolean revisionLabel;
+	private final boolean active;
+	private final long time;
+	private final long revisionTime;
+
+	ReplayLabel(List<String> record) {
+		super((com.borland.starteam.impl.Label) null);
+		id = Integer.parseInt(record.get(2));
+		name = record.get(3);
+		description = record.get(4);
+		viewLabel = "1".equals(record.get(5));
+		revisionLabel = "1".equals(record.get(6));
+		active = "1".equals(record.get(7));
+		time = Long.parseLong(record.get(8));
+		revisionTime = Long.parseLong(record.get(9));
+	}
+
+	boolean isActive() {
+		return active;
+	}
+
+	@Override
+	public int getID() {
+		return id;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String getDescription() {
+		return description;
+	}
+
+	@Override
+	public boolean isViewLabel() {
+		return viewLabel;
+	}
+
+	@Override
+	public boolean isRevisionLabel() {
+		return revisionLabel;
+	}
+
+	@Override
+	public OLEDate getTime() {
+		return new OLEDate(time);
+	}
+
+	@Override
+	public OLEDate getRevisionTime() {
+		return new OLEDate(revisionTime);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof ReplayLabel && id == ((ReplayLabel) obj).id;
+	}
+
+	@Override
+	public int hashCode() {
+		return id;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,437 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.starteam;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+import org.sync.Log;
+
+import com.starbase.starteam.File;
+import com.starbase.starteam.Folder;
+import com.starbase.starteam.Item;
+import com.starbase.starteam.Label;
+import com.starbase.starteam.PropertyNames;
+import com.starbase.starteam.TypeNames;
+import com.starbase.starteam.View;
+import com.starbase.starteam.ViewConfiguration;
+
+/**
+ * A source replaying an archive written by {@link RecordingStarteamSource},
+ * without any Starteam server. Each call waits for the configured latency, so
+ * the import can be measured with the delays of a real server.
+ *
+ * Only what was recorded can be replayed: an import replayed with other
+ * options than the recorded one may ask for items the archive doesn't know,
+ * they are then reported as not found.
+ */
+public class ReplayStarteamSource extends StarteamSource {
+
+	static final PropertyNames PROPERTY_NAMES = newInstance(PropertyNames.class);
+	static final TypeNames TYPE_NAMES = newInstance(TypeNames.class);
+
+	private final java.io.File directory;
+	private final Map<String, List<String>> views = new HashMap<String, List<String>>();
+	private final Map<String, String> opened = new HashMap<String, String>();
+	private final Map<String, String> recycleBins = new HashMap<String, String>();
+	private final Map<String, List<ReplayLabel>> labels = new HashMap<String, List<ReplayLabel>>();
+	private final Map<String, List<String>> folders = new HashMap<String, List<String>>();
+	// the folders by id only, for a parent recorded from another view
+	private final Map<Integer, String> folderViews = new HashMap<Integer, String>();
+	private final Map<String, List<String>> subFolders = new HashMap<String, List<String>>();
+	private final Map<String, List<String>> items = new HashMap<String, List<String>>();
+	private final Map<String, ReplayFile> files = new HashMap<String, ReplayFile>();
+	private final Map<Integer, List<String>> histories = new HashMap<Integer, List<String>>();
+	private final Map<String, List<String>> folderHistories = new HashMap<String, List<String>>();
+	private final Map<String, String> byVersion = new HashMap<String, String>();
+	private final Map<String, String> found = new HashMap<String, String>();
+	private final Map<Integer, String> users = new HashMap<Integer, String>();
+	private final Map<String, ReplayView> viewInstances = new ConcurrentHashMap<String, ReplayView>();
+	private long latencyNanos;
+	private long checkoutLatencyNanos;
+
+	/**
+	 * @param directory
+	 *          The directory of the archive
+	 */
+	public ReplayStarteamSource(java.io.File directory) throws IOException {
+		this.directory = directory;
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(new java.io.File(directory, StarteamArchive.INDEX)), StandardCharsets.UTF_8));
+		int count = 0;
+		try {
+			String line;
+			while (null != (line = in.readLine())) {
+				if (!line.isEmpty()) {
+					load(StarteamArchive.split(line));
+					count++;
+				}
+			}
+		} finally {
+			in.close();
+		}
+		Log.logf("Loaded %d records of the Starteam archive %s: %d views, %d revisions", count, directory,
+				views.size(), files.size());
+	}
+
+	/**
+	 * @param milliseconds
+	 *          Time each metadata call waits, as the round trip to the server
+	 */
+	public void setLatency(double milliseconds) {
+		latencyNanos = (long) (milliseconds * 1000000);
+	}
+
+	/**
+	 * @param milliseconds
+	 *          Time each checkout waits
+	 */
+	public void setCheckoutLatency(double milliseconds) {
+		checkoutLatencyNanos = (long) (milliseconds * 1000000);
+	}
+
+	/**
+	 * @return the recorded view of this name and its tip configuration, null if
+	 *         it wasn't recorded.
+	 */
+	public View findView(String name) {
+		for (Map.Entry<String, List<String>> view : views.entrySet()) {
+			if (view.getValue().get(3).equalsIgnoreCase(name) && view.getKey().endsWith(":tip")) {
+				return view(view.getKey());
+			}
+		}
+		return null;
+	}
+
+	private void load(List<String> record) {
+		String kind = record.get(0);
+		if ("V".equals(kind)) {
+			views.put(record.get(1), record);
+		} else if ("O".equals(kind)) {
+			opened.put(record.get(1) + "|" + record.get(2), record.get(3));
+		} else if ("B".equals(kind)) {
+			recycleBins.put(record.get(1), record.get(2));
+		} else if ("L".equals(kind)) {
+			List<ReplayLabel> viewLabels = labels.get(record.get(1));
+			if (null == viewLabels) {
+				viewLabels = new ArrayList<ReplayLabel>();
+				labels.put(record.get(1), viewLabels);
+			}
+			viewLabels.add(new ReplayLabel(record));
+		} else if ("F".equals(kind)) {
+			folders.put(record.get(1) + "/" + record.get(2), record);
+			folderViews.put(Integer.valueOf(record.get(2)), record.get(1));
+		} else if ("S".equals(kind)) {
+			subFolders.put(record.get(1) + "/" + record.get(2), record.subList(3, record.size()));
+		} else if ("I".equals(kind)) {
+			items.put(record.get(1) + "/" + record.get(2), record.subList(3, record.size()));
+		} else if ("R".equals(kind)) {
+			files.put(record.get(1), new ReplayFile(this, record));
+		} else if ("H".equals(kind)) {
+			histories.put(Integer.valueOf(record.get(1)), record.subList(2, record.size()));
+		} else if ("G".equals(kind)) {
+			folderHistories.put(record.get(1) + "/" + record.get(2), record.subList(3, record.size()));
+		} else if ("Y".equals(kind)) {
+			byVersion.put(record.get(1) + "." + record.get(2), record.get(3));
+		} else if ("D".equals(kind)) {
+			found.put(record.get(1) + "/" + record.get(2), record.get(3));
+		} else if ("U".equals(kind)) {
+			users.put(Integer.valueOf(record.get(1)), record.get(2));
+		}
+	}
+
+	@Override
+	public Item[] getItems(Folder folder) {
+		pause(latencyNanos);
+		String viewKey = viewKey(folder.getView());
+		List<String> keys = items.get(viewKey + "/" + folder.getObjectID());
+		if (null == keys) {
+			return new Item[0];
+		}
+		List<Item> listed = new ArrayList<Item>(keys.size());
+		for (String key : keys) {
+			File file = file(key, viewKey);
+			if (null != file) {
+				listed.add(file);
+			}
+		}
+		return listed.toArray(new Item[listed.size()]);
+	}
+
+	@Override
+	public Folder[] getSubFolders(Folder folder) {
+		pause(latencyNanos);
+		String viewKey = viewKey(folder.getView());
+		List<String> ids = subFolders.get(viewKey + "/" + folder.getObjectID());
+		if (null == ids) {
+			return new Folder[0];
+		}
+		List<Folder> listed = new ArrayList<Folder>(ids.size());
+		for (String id : ids) {
+			Folder subFolder = folder(viewKey, Integer.parseInt(id));
+			if (null != subFolder) {
+				listed.add(subFolder);
+			}
+		}
+		return listed.toArray(new Folder[listed.size()]);
+	}
+
+	@Override
+	public void populate(Folder root, String[] properties) {
+		// the recorded revisions have all their properties
+		pause(latencyNanos);
+	}
+
+	@Override
+	public void populate(List<File> revisions, String[] properties) {
+		pause(latencyNanos);
+	}
+
+	@Override
+	public Item[] getHistory(Item item) {
+		pause(latencyNanos);
+		String viewKey = viewKey(item.getView());
+		if (item instanceof File) {
+			List<String> keys = histories.get(item.getItemID());
+			if (null == keys) {
+				return new Item[0];
+			}
+			List<Item> history = new ArrayList<Item>(keys.size());
+			for (String key : keys) {
+				File revision = file(key, viewKey);
+				if (null != revision) {
+					history.add(revision);
+				}
+			}
+			return history.toArray(new Item[history.size()]);
+		}
+		List<String> revisions = folderHistories.get(viewKey + "/" + item.getObjectID());
+		if (null == revisions || !(item instanceof ReplayFolder)) {
+			return new Item[0];
+		}
+		Item[] history = new Item[revisions.size() / 2];
+		for (int i = 0; i < history.length; i++) {
+			history[i] = ((ReplayFolder) item).revision(revisions.get(2 * i), Long.parseLong(revisions.get(2 * i + 1)));
+		}
+		return history;
+	}
+
+	@Override
+	public File getFromHistoryByVersion(File file, int viewVersion) {
+		pause(latencyNanos);
+		String viewKey = viewKey(file.getView());
+		String key = byVersion.get(file.getItemID() + "." + viewVersion);
+		if (null != key) {
+			return file(key, viewKey);
+		}
+		// not asked when recording, it may be in the history
+		List<String> history = histories.get(file.getItemID());
+		if (null != history) {
+			for (String revision : history) {
+				File candidate = file(revision, viewKey);
+				if (null != candidate && candidate.getViewVersion() == viewVersion) {
+					return candidate;
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Label[] fetchAllLabels(View view) {
+		pause(latencyNanos);
+		List<ReplayLabel> viewLabels = labels.get(baseViewKey(viewKey(view)));
+		if (null == viewLabels) {
+			return new Label[0];
+		}
+		return viewLabels.toArray(new Label[viewLabels.size()]);
+	}
+
+	@Override
+	public View getRecycleBin(View view) {
+		pause(latencyNanos);
+		String key = recycleBins.get(viewKey(view));
+		return null == key || key.isEmpty() ? null : view(key);
+	}
+
+	@Override
+	public File findFile(View view, int itemId) {
+		pause(latencyNanos);
+		String viewKey = viewKey(view);
+		String key = found.get(viewKey + "/" + itemId);
+		return null == key ? null : file(key, viewKey);
+	}
+
+	@Override
+	public View openView(View view, ViewConfiguration configuration) {
+		pause(latencyNanos);
+		String baseKey = viewKey(view);
+		String configurationKey = StarteamArchive.configurationKey(configuration);
+		String key = opened.get(baseKey + "|" + configurationKey);
+		if (null == key) {
+			key = view.getID() + ":" + configurationKey;
+		}
+		ReplayView replayed = view(key);
+		if (null == replayed) {
+			throw new IllegalStateException("The view " + view.getName() + " wasn't recorded with the configuration "
+					+ configurationKey);
+		}
+		return replayed;
+	}
+
+	@Override
+	public String getUserName(View view, int uid) {
+		pause(latencyNanos);
+		String name = users.get(uid);
+		return null == name ? "user" + uid : name;
+	}
+
+	@Override
+	public Checkout openCheckout(View view) {
+		return new Checkout() {
+			@Override
+			public void checkoutTo(File file, java.io.File target) throws IOException {
+				pause(checkoutLatencyNanos);
+				java.io.File content = StarteamArchive.contentFile(directory, file.getItemID(), file.getContentVersion());
+				if (!content.exists()) {
+					throw new IOException("The content " + file.getContentVersion() + " of " + file.getName()
+							+ " wasn't recorded");
+				}
+				Files.copy(content.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			@Override
+			public boolean isKeywordExpansionEnabled() {
+				return false;
+			}
+		};
+	}
+
+	ReplayView view(String key) {
+		ReplayView view = viewInstances.get(key);
+		if (null == view) {
+			List<String> record = views.get(key);
+			if (null == record) {
+				return null;
+			}
+			view = new ReplayView(this, record);
+			viewInstances.put(key, view);
+		}
+		return view;
+	}
+
+	/**
+	 * @return the views derived from a view.
+	 */
+	View[] derivedViews(String key) {
+		List<View> derived = new ArrayList<View>();
+		for (List<String> record : views.values()) {
+			if (key.equals(record.get(7))) {
+				derived.add(view(record.get(1)));
+			}
+		}
+		return derived.toArray(new View[derived.size()]);
+	}
+
+	Label[] activeLabels(String key) {
+		List<ReplayLabel> viewLabels = labels.get(key);
+		List<Label> active = new ArrayList<Label>();
+		if (null != viewLabels) {
+			for (ReplayLabel label : viewLabels) {
+				if (label.isActive()) {
+					active.add(label);
+				}
+			}
+		}
+		return active.toArray(new Label[active.size()]);
+	}
+
+	ReplayFolder folder(String viewKey, int id) {
+		List<String> record = folders.get(viewKey + "/" + id);
+		if (null == record) {
+			String otherView = folderViews.get(id);
+			if (null == otherView) {
+				return null;
+			}
+			record = folders.get(otherView + "/" + id);
+		}
+		return new ReplayFolder(this, viewKey, record);
+	}
+
+	private File file(String key, String viewKey) {
+		if (key.isEmpty()) {
+			return null;
+		}
+		ReplayFile recorded = files.get(key);
+		return null == recorded ? null : recorded.inView(viewKey);
+	}
+
+	/**
+	 * @return the key of the view of an item, the tip of the view for the
+	 *         items not replayed.
+	 */
+	private static String viewKey(View view) {
+		if (view instanceof ReplayView) {
+			return ((ReplayView) view).getKey();
+		}
+		return view.getID() + ":tip";
+	}
+
+	/**
+	 * The labels are recorded with the view they belong to, not with its
+	 * configurations.
+	 */
+	private String baseViewKey(String key) {
+		int separator = key.indexOf(':');
+		String tip = key.substring(0, separator) + ":tip";
+		return labels.containsKey(key) || !labels.containsKey(tip) ? key : tip;
+	}
+
+	private static void pause(long nanos) {
+		long deadline = System.nanoTime() + nanos;
+		long left = nanos;
+		while (left > 0) {
+			LockSupport.parkNanos(left);
+			left = deadline - System.nanoTime();
+		}
+	}
+
+	/**
+	 * The names of the SDK are only created by the server connection.
+	 */
+	private static <T> T newInstance(Class<T> names) {
+		try {
+			Constructor<T> constructor = names.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			return constructor.newInstance();
+		} catch (Exception e) {
+			throw new IllegalStateException("Could not create the Starteam " + names.getSimpleName(), e);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.starteam;
+
+import java.util.List;
+
+import com.starbase.starteam.Folder;
+import com.starbase.starteam.Label;
+import com.starbase.starteam.PropertyNames;
+import com.starbase.starteam.RecycleBin;
+import com.starbase.starteam.Server;
+import com.starbase.starteam.TypeNames;
+import com.starbase.starteam.View;
+import com.starbase.starteam.ViewConfiguration;
+import com.starbase.util.OLEDate;
+
+/**
+ * A view replayed from an archive, in one of its configurations.
+ */
+class ReplayView extends View {
+
+	private final ReplayStarteamSource source;
+	private final String key;
+	private final int id;
+	private final String name;
+	private final String configuration;
+	private final int rootFolderId;
+	private final long createdTime;
+	private final String parentKey;
+	private final String baseConfiguration;
+
+	ReplayView(ReplayStarteamSource source, List<String> record) {
+		super((com.borland.starteam.impl.View) null);
+		this.source = source;
+		key = record.get(1);
+		id = Integer.parseInt(record.get(2));
+		name = record.get(3);
+		configuration = record.get(4);
+		rootFolderId = Integer.parseInt(record.get(5));
+		createdTime = Long.parseLong(record.get(6));
+		parentKey = record.get(7);
+		baseConfiguration = record.get(8);
+	}
+
+	String getKey() {
+		return key;
+	}
+
+	@Override
+	public int getID() {
+		return id;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public Folder getRootFolder() {
+		return source.folder(key, rootFolderId);
+	}
+
+	@Override
+	public ViewConfiguration getConfiguration() {
+		return StarteamArchive.configuration(configuration);
+	}
+
+	@Override
+	public ViewConfiguration getBaseConfiguration() {
+		return StarteamArchive.configuration(baseConfiguration);
+	}
+
+	@Override
+	public View getParentView() {
+		return parentKey.isEmpty() ? null : source.view(parentKey);
+	}
+
+	@Override
+	public View[] getDerivedViews() {
+		return source.derivedViews(key);
+	}
+
+	@Override
+	public Label[] getActiveLabels() {
+		return source.activeLabels(key);
+	}
+
+	@Override
+	public Label[] getLabels() {
+		return source.activeLabels(key);
+	}
+
+	@Override
+	public Label[] fetchAllLabels() {
+		return source.fetchAllLabels(this);
+	}
+
+	@Override
+	public OLEDate getCreatedTime() {
+		return new OLEDate(createdTime);
+	}
+
+	@Override
+	public RecycleBin getRecycleBin() {
+		throw new UnsupportedOperationException("The recycle bin is replayed by the source");
+	}
+
+	@Override
+	public Server getServer() {
+		return null;
+	}
+
+	@Override
+	public PropertyNames getPropertyNames() {
+		return ReplayStarteamSource.PROPERTY_NAMES;
+	}
+
+	@Override
+	public TypeNames getTypeNames() {
+		return ReplayStarteamSource.TYPE_NAMES;
+	}
+
+	@Override
+	public void refresh() {
+	}
+
+	@Override
+	public void discard() {
+	}
+
+	@Override
+	public void discardFolders() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof ReplayView && key.equals(((ReplayView) obj).key);
+	}
+
+	@Override
+	public int hashCode() {
+		return key.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,192 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.starteam;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.starbase.starteam.ViewConfiguration;
+import com.starbase.util.OLEDate;
+
+/**
+ * The format of a recorded Starteam view.
+ *
+ * An archive is a directory holding an index of text records and the checked
+ * out contents, one file per item and content version. Each record is a line
+ * of fields separated by tabs, the first field is the kind of record:
+ * <ul>
+ * <li>V: a view, its configuration, root folder and parent view</li>
+ * <li>O: the view opened from another view with a configuration</li>
+ * <li>B: the recycle bin of a view</li>
+ * <li>L: a label of a view</li>
+ * <li>F: a folder of a view</li>
+ * <li>S, I: the sub folders and the files of a folder</li>
+ * <li>R: a file revision</li>
+ * <li>H, G: the history of a file and of a folder</li>
+ * <li>Y: a file revision found by view version</li>
+ * <li>D: a file found by item id</li>
+ * <li>U: a user name</li>
+ * </ul>
+ */
+final class StarteamArchive {
+
+	static final String INDEX = "archive.txt";
+	static final String CONTENTS = "contents";
+	static final String NONE = "";
+
+	private StarteamArchive() {
+	}
+
+	static java.io.File contentFile(java.io.File directory, int itemId, int contentVersion) {
+		return new java.io.File(new java.io.File(directory, CONTENTS), itemId + "-" + contentVersion);
+	}
+
+	/**
+	 * @return the key of a view configuration, the same for the recorded and
+	 *         the replayed views.
+	 */
+	static String configurationKey(ViewConfiguration configuration) {
+		if (null == configuration || configuration.isTip()) {
+			return "tip";
+		} else if (configuration.isLabelBased()) {
+			return "label-" + configuration.getLabelID();
+		} else if (configuration.isTimeBased()) {
+			return "time-" + configuration.getTime().getLongValue();
+		} else if (configuration.isPromotionStateBased()) {
+			return "promotion-" + configuration.getPromotionStateID();
+		}
+		return "tip";
+	}
+
+	static ViewConfiguration configuration(String key) {
+		if (key.startsWith("label-")) {
+			return ViewConfiguration.createFromLabel(Integer.parseInt(key.substring(6)));
+		} else if (key.startsWith("time-")) {
+			return ViewConfiguration.createFromTime(new OLEDate(Long.parseLong(key.substring(5))));
+		} else if (key.startsWith("promotion-")) {
+			return ViewConfiguration.createFromPromotionState(Integer.parseInt(key.substring(10)));
+		}
+		return ViewConfiguration.createTip();
+	}
+
+	static String hex(byte[] bytes) {
+		if (null == bytes) {
+			return NONE;
+		}
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	static byte[] unhex(String hex) {
+		if (hex.isEmpty()) {
+			return null;
+		}
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return bytes;
+	}
+
+	private static void escape(String value, StringBuilder line) {
+		if (null == value) {
+			return;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '\\':
+				line.append("\\\\");
+				break;
+			case '\t':
+				line.append("\\t");
+				break;
+			case '\n':
+				line.append("\\n");
+				break;
+			case '\r':
+				line.append("\\r");
+				break;
+			default:
+				line.append(c);
+			}
+		}
+	}
+
+	/**
+	 * @return the fields of a record line.
+	 */
+	static List<String> split(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '\t') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else if (c == '\\' && i + 1 < line.length()) {
+				char escaped = line.charAt(++i);
+				field.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	/**
+	 * Writer of the records of an archive, shared by the threads of the import.
+	 */
+	static class RecordWriter {
+		private final Writer out;
+		private final StringBuilder line = new StringBuilder(256);
+
+		RecordWriter(java.io.File directory) throws IOException {
+			out = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(new java.io.File(directory, INDEX), true), StandardCharsets.UTF_8));
+		}
+
+		synchronized void write(String kind, Object... fields) {
+			line.setLength(0);
+			line.append(kind);
+			for (Object field : fields) {
+				line.append('\t');
+				escape(null == field ? null : field.toString(), line);
+			}
+			line.append('\n');
+			try {
+				out.write(line.toString());
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not write the Starteam archive", e);
+			}
+		}
+
+		synchronized void close() throws IOException {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.starteam;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.starbase.starteam.File;
+import com.starbase.starteam.Folder;
+import com.starbase.starteam.Item;
+import com.starbase.starteam.Label;
+import com.starbase.starteam.View;
+import com.starbase.starteam.ViewConfiguration;
+
+/**
+ * The calls of the import that go to the Starteam server. The importer goes
+ * through the source instead of calling the SDK directly so the server can be
+ * recorded once and replayed offline, see {@link RecordingStarteamSource} and
+ * {@link ReplayStarteamSource}.
+ *
+ * The objects handed out by a source are Starteam items, the importer reads
+ * their properties as usual.
+ */
+public abstract class StarteamSource {
+
+	private static volatile StarteamSource instance = new LiveStarteamSource();
+
+	public static StarteamSource getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Replace the source of the import, to be done before the import starts.
+	 */
+	public static void setInstance(StarteamSource source) {
+		instance = source;
+	}
+
+	/**
+	 * @return the files of a folder.
+	 */
+	public abstract Item[] getItems(Folder folder);
+
+	public abstract Folder[] getSubFolders(Folder folder);
+
+	/**
+	 * Populate the properties of the files of a folder and its sub folders.
+	 *
+	 * @param properties
+	 *          The properties to populate, null for all of them
+	 */
+	public abstract void populate(Folder root, String[] properties);
+
+	/**
+	 * Populate the properties of a batch of revisions in one request.
+	 */
+	public abstract void populate(List<File> revisions, String[] properties);
+
+	/**
+	 * @return the revisions of an item, the most recent first.
+	 */
+	public abstract Item[] getHistory(Item item);
+
+	/**
+	 * @return the revision of a file at a view version, null if there is none.
+	 */
+	public abstract File getFromHistoryByVersion(File file, int viewVersion);
+
+	public abstract Label[] fetchAllLabels(View view);
+
+	/**
+	 * @return the recycle bin of a view with the deleted items included, null
+	 *         if the server doesn't support it.
+	 */
+	public abstract View getRecycleBin(View view);
+
+	/**
+	 * @return the file of a view or recycle bin, null if not found.
+	 */
+	public abstract File findFile(View view, int itemId);
+
+	/**
+	 * @return a view with another configuration, to be closed by the caller.
+	 */
+	public abstract View openView(View view, ViewConfiguration configuration);
+
+	public abstract String getUserName(View view, int uid);
+
+	/**
+	 * Start checking out the files of a view. A checkout is only used by one
+	 * thread at a time.
+	 */
+	public abstract Checkout openCheckout(View view);
+
+	/**
+	 * The checkout of the revisions of a view.
+	 */
+	public interface Checkout {
+		void checkoutTo(File file, java.io.File target) throws IOException;
+
+		/**
+		 * @return true if the keywords of the contents are expanded.
+		 */
+		boolean isKeywordExpansionEnabled();
+	}
+}
@@ -0,0 +1,278 @@
+package org.sync.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.sync.Log;
+
+/**
+ * 提交注释的改写流水线
+ *
+ * 按照 config.properties 中 commentRewriteStages 的顺序执行各个改写步骤。每个步骤的正则表达式只编译一次，
+ * 并且只从头到尾扫描一遍注释，各个步骤在两个 StringBuilder 之间交替写入。
+ * 同一个 changeset 中各个文件版本的注释通常相同，所以按照原始注释缓存改写的结果。
+ *
+ * 内置的步骤：
+ * <ul>
+ * <li>bugId：bug21581_12345 改写为 bug#21581 #12345</li>
+ * <li>reqId：YF-20180909-001 改写为 td-req.csv 中对应的 req#30768</li>
+ * <li>fixTag：To fix TD bug#21581 by yukai 改写为 To fix bug#21581</li>
+ * </ul>
+ * 其他名字的步骤是正则替换，由 commentRewrite.名字.pattern 和 commentRewrite.名字.replacement 定义。
+ */
+public class CommentPipeline {
+    private static final String DEFAULT_STAGES = "bugId,reqId,fixTag";
+    private static final Pattern BUG_TAG = Pattern.compile(
+            "(bug|td)\\s*\\d+((\\s+|_|(\\s*(&|、|和|,|，)\\s*))\\d+)*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern REQ_TAG = Pattern.compile("[A-Z]{2}-\\d{8}-\\d{3}");
+    private static final Pattern NUMBER = Pattern.compile("\\d+");
+    private static final Pattern FIX_TAG = Pattern.compile("To\\s+fix\\s+.+by\\s+\\w+", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TD = Pattern.compile("TD\\s+", Pattern.CASE_INSENSITIVE);
+    private static final Pattern BY_AUTHOR = Pattern.compile("\\s+by\\s+\\w+", Pattern.CASE_INSENSITIVE);
+    // 识别真正的提交者时区分大小写
+    private static final Pattern AUTHOR_TAG = Pattern.compile("To\\s+fix\\s+.+by\\s+\\w+");
+
+    // 在正则表达式之后初始化
+    public static CommentPipeline instance = new CommentPipeline();
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final Map<String, Rewritten> memo;
+
+    private CommentPipeline() {
+        this(Config.instance.get("commentRewriteStages", DEFAULT_STAGES),
+                Integer.parseInt(Config.instance.get("commentCacheSize", "4096")));
+    }
+
+    /**
+     * @param stageNames 逗号分隔的改写步骤，按顺序执行
+     * @param capacity 缓存的注释个数
+     */
+    public CommentPipeline(String stageNames, final int capacity) {
+        for (String name : stageNames.split(",")) {
+            name = name.trim();
+            if (name.length() == 0) {
+                continue;
+            }
+            Stage stage = createStage(name);
+            if (null != stage) {
+                stages.add(stage);
+            }
+        }
+        this.memo = Collections.synchronizedMap(new LinkedHashMap<String, Rewritten>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Rewritten> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    /**
+     * 改写注释并识别真正的提交者
+     *
+     * @param comment 原始注释
+     */
+    public Rewritten rewrite(String comment) {
+        Rewritten rewritten = memo.get(comment);
+        if (null == rewritten) {
+            rewritten = new Rewritten(findAuthor(comment), apply(comment));
+            memo.put(comment, rewritten);
+        }
+        return rewritten;
+    }
+
+    private String apply(String comment) {
+        StringBuilder current = new StringBuilder(comment.length() + 32).append(comment);
+        StringBuilder next = new StringBuilder(comment.length() + 32);
+        for (Stage stage : stages) {
+            next.setLength(0);
+            if (stage.rewrite(current, next)) {
+                StringBuilder swap = current;
+                current = next;
+                next = swap;
+            }
+        }
+        return current.toString();
+    }
+
+    /**
+     * 从注释中识别出真正的提交者
+     *
+     * 比如：To fix TD bug21581 by yukai : 将oscarJDBC.jar打包进其他jar包执行时，抛出未捕获异常
+     * 真正的提交者为 yukai
+     *
+     * @return 提交者，没有找到时返回 null
+     */
+    private static String findAuthor(String comment) {
+        Matcher matcher = AUTHOR_TAG.matcher(comment);
+        if (matcher.find()) {
+            String reviewTag = matcher.group(0);
+            return reviewTag.substring(reviewTag.lastIndexOf(" ")).trim();
+        }
+        return null;
+    }
+
+    private static Stage createStage(String name) {
+        switch (name) {
+        case "bugId":
+            return new ReplacingStage(BUG_TAG, true) {
+                @Override
+                protected String replacement(String match) {
+                    return formatBugId(match);
+                }
+            };
+        case "reqId":
+            return new ReplacingStage(REQ_TAG, true) {
+                @Override
+                protected String replacement(String match) {
+                    return formatReqId(match);
+                }
+            };
+        case "fixTag":
+            return new ReplacingStage(FIX_TAG, false) {
+                @Override
+                protected String replacement(String match) {
+                    return formatFixTag(match);
+                }
+            };
+        default:
+            String pattern = Config.instance.get("commentRewrite." + name + ".pattern");
+            if (null == pattern) {
+                Log.log("Unknown comment rewrite stage " + name);
+                return null;
+            }
+            return new RegexStage(Pattern.compile(pattern),
+                    Config.instance.get("commentRewrite." + name + ".replacement", ""));
+        }
+    }
+
+    // 匹配 bugXXX BugXXX BUGXXX，连续的多个 bug id 改写为 bug#XXX #XXX
+    private static String formatBugId(String bugId) {
+        StringBuilder sBuilder = new StringBuilder("bug");
+        Matcher matcher = NUMBER.matcher(bugId);
+        while (matcher.find()) {
+            sBuilder.append("#").append(matcher.group()).append(" ");
+        }
+        return sBuilder.toString();
+    }
+
+    private static String formatReqId(String reqName) {
+        List<String> seqList = Config.instance.getReqSeqbyReqName(reqName);
+        if (seqList.isEmpty()) {
+            return reqName.replace("-", "--");
+        }
+        StringBuilder sBuilder = new StringBuilder("req");
+        for (int i = 0; i < seqList.size(); ++i) {
+            int reqNumber = Config.instance.getTdReqStartNumber() + Integer.valueOf(seqList.get(i));
+            sBuilder.append("#").append(reqNumber);
+            if (i < seqList.size() - 1) {
+                sBuilder.append("|");
+            }
+        }
+        return sBuilder.toString();
+    }
+
+    // 去掉 "TD" 和 "by XXX"，并将连续的 bug id 之间的 "_" 替换为 " "
+    private static String formatFixTag(String reviewTag) {
+        Matcher tdMatcher = TD.matcher(reviewTag);
+        if (tdMatcher.find()) {
+            reviewTag = tdMatcher.replaceFirst("");
+        }
+        Matcher byMatcher = BY_AUTHOR.matcher(reviewTag);
+        if (byMatcher.find()) {
+            reviewTag = byMatcher.replaceFirst("");
+        }
+        return reviewTag.replace('_', ' ');
+    }
+
+    private interface Stage {
+        /**
+         * @return 是否有改写，没有改写时 out 的内容无效
+         */
+        boolean rewrite(CharSequence in, StringBuilder out);
+    }
+
+    /**
+     * 从左到右扫描一遍，把匹配的部分替换掉。
+     * 替换后的内容不会再被同一个步骤匹配，所以和反复从头替换第一个匹配的结果相同。
+     */
+    private static abstract class ReplacingStage implements Stage {
+        private final Pattern pattern;
+        private final boolean all;
+
+        ReplacingStage(Pattern pattern, boolean all) {
+            this.pattern = pattern;
+            this.all = all;
+        }
+
+        protected abstract String replacement(String match);
+
+        @Override
+        public boolean rewrite(CharSequence in, StringBuilder out) {
+            Matcher matcher = pattern.matcher(in);
+            if (!matcher.find()) {
+                return false;
+            }
+            int lastEnd = 0;
+            do {
+                out.append(in, lastEnd, matcher.start()).append(replacement(matcher.group()));
+                lastEnd = matcher.end();
+            } while (all && matcher.find());
+            out.append(in, lastEnd, in.length());
+            return true;
+        }
+    }
+
+    /**
+     * 配置的正则替换，replacement 中可以使用 $1 之类的分组引用
+     */
+    private static class RegexStage implements Stage {
+        private final Pattern pattern;
+        private final String replacement;
+
+        RegexStage(Pattern pattern, String replacement) {
+            this.pattern = pattern;
+            this.replacement = replacement;
+        }
+
+        @Override
+        public boolean rewrite(CharSequence in, StringBuilder out) {
+            Matcher matcher = pattern.matcher(in);
+            if (!matcher.find()) {
+                return false;
+            }
+            out.append(matcher.replaceAll(replacement));
+            return true;
+        }
+    }
+
+    /**
+     * 改写后的注释和真正的提交者
+     */
+    public static final class Rewritten {
+        private final String author;
+        private final String comment;
+
+        private Rewritten(String author, String comment) {
+            this.author = author;
+            this.comment = comment;
+        }
+
+        /**
+         * @return 注释中 "To fix ... by xxx" 的提交者，没有时为 null
+         */
+        public String getAuthor() {
+            return author;
+        }
+
+        public String getComment() {
+            return comment;
+        }
+    }
+}
@@ -17,6 +17,8 @@
 package org.sync.util;
 
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 /**
  * Note: this class has a natural ordering that is inconsistent with equals.
@@ -25,6 +27,11 @@ import java.util.Date;
  */
 public final class CommitInformation implements Comparable<CommitInformation> {
 
+	private static final Pattern COMMENT_NOISE = Pattern.compile("(\\s+|/|\\pP|\\pZ|(Review Link :))+");
+	private static final Pattern UPDATE_LIST = Pattern.compile(".*UpdateList.*\\.xls");
+	private static final Pattern TD_NUMBER = Pattern.compile("(?s).*\\s+TD\\s+(\\S+)\\s+.*");
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+
 	private Date commitDate;
 	private Date authorDate;
 	private long time;
@@ -33,6 +40,12 @@ public final class CommitInformation implements Comparable<CommitInformation> {
 	private String path;
 	private boolean fileDelete;
 	private String uname;
+	// Comparison keys of equivalent(), computed once for the comment and path
+	private String commentKey;
+	private String tdNumber;
+	private boolean updateList;
+	// Orders the commits of the same time, so a commit can be found in a TreeMap
+	private final long sequence = SEQUENCE.incrementAndGet();
 
 	@Deprecated
 	public CommitInformation(long time, int uid, String comment, String path) {
@@ -40,9 +53,10 @@ public final class CommitInformation implements Comparable<CommitInformation> {
 		this.commitDate = new java.util.Date(time);
 		this.authorDate = this.commitDate;
 		this.uid = uid;
-		this.comment = comment.trim();
 		this.path = path;
 		this.fileDelete = false;
+		this.updateList = null != path && UPDATE_LIST.matcher(path).matches();
+		setComment(comment);
 	}
 	
 	public CommitInformation(Date date, int uid, String comment, String path) {
@@ -50,9 +64,10 @@ public final class CommitInformation implements Comparable<CommitInformation> {
 		this.commitDate = date;
 		this.authorDate = this.commitDate;
 		this.uid = uid;
-		this.comment = comment.trim();
 		this.path = path;
 		this.fileDelete = false;
+		this.updateList = null != path && UPDATE_LIST.matcher(path).matches();
+		setComment(comment);
 	}
 	
 	@Deprecated
@@ -91,6 +106,16 @@ public final class CommitInformation implements Comparable<CommitInformation> {
 	public String getComment() {
 		return comment;
 	}
+
+	public void setComment(String comment) {
+		this.comment = comment.trim();
+		this.commentKey = COMMENT_NOISE.matcher(this.comment).replaceAll("");
+		if (this.comment.contains(" TD ")) {
+			this.tdNumber = TD_NUMBER.matcher(this.comment).replaceAll("$1");
+		} else {
+			this.tdNumber = null;
+		}
+	}
 	
 	/**
 	 * This method will return if the 2 commit information that are compared are equivalent
@@ -109,16 +134,14 @@ public final class CommitInformation implements Comparable<CommitInformation> {
 		if (info.comment.length() == 0) {
 			return true;
 		}
-		if (info.comment.replaceAll("(\\s+|/|\\pP|\\pZ|(Review Link :))+", "").equalsIgnoreCase(comment.replaceAll("(\\s+|/|\\pP|\\pZ|(Review Link :))+", ""))) {
+		if (info.commentKey.equalsIgnoreCase(commentKey)) {
 			return true;
 		}
-		if (info.path.matches(".*UpdateList.*\\.xls")
+		if (info.updateList
 				&& info.time >= time) {
-			if (info.comment.contains(" TD ") && this.comment.contains(" TD "))
+			if (null != info.tdNumber && null != this.tdNumber)
 			{
-				String bug_num_1 = info.comment.replaceAll("(?s).*\\s+TD\\s+(\\S+)\\s+.*", "$1");
-				String bug_num_2 = this.comment.replaceAll("(?s).*\\s+TD\\s+(\\S+)\\s+.*", "$1");
-				if (bug_num_1.equalsIgnoreCase(bug_num_2))
+				if (info.tdNumber.equalsIgnoreCase(this.tdNumber))
 				{
 					return true;
 				}
@@ -165,9 +188,11 @@ public final class CommitInformation implements Comparable<CommitInformation> {
 //			return -1;
 		    if (getAuthorDate().after(o.getAuthorDate())) {
                 return 1;
-            } else {
+            } else if (getAuthorDate().before(o.getAuthorDate())) {
                 return -1;
             }
+		    // the last created first
+		    return Long.compare(o.sequence, sequence);
 		} else if (getCommitDate().after(o.getCommitDate())) {
 			return 1;
 		}
@@ -0,0 +1,137 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The commit informations of a population pass in commit order, indexed by
+ * path so the commits of a moved file are found without going through the
+ * whole list.
+ *
+ * @param <V>
+ *          The revision committed by each commit information
+ */
+public class CommitList<V> {
+
+	private final TreeMap<CommitInformation, V> commits = new TreeMap<CommitInformation, V>();
+	private final Map<String, List<CommitInformation>> byPath = new HashMap<String, List<CommitInformation>>();
+
+	public void put(CommitInformation info, V revision) {
+		if (commits.containsKey(info)) {
+			commits.put(info, revision);
+			return;
+		}
+		commits.put(info, revision);
+		List<CommitInformation> entries = byPath.get(info.getPath());
+		if (null == entries) {
+			entries = new ArrayList<CommitInformation>(2);
+			byPath.put(info.getPath(), entries);
+		}
+		entries.add(info);
+	}
+
+	/**
+	 * @return the revision of the removed commit information, null if it wasn't
+	 *         in the list.
+	 */
+	public V remove(CommitInformation info) {
+		if (!commits.containsKey(info)) {
+			return null;
+		}
+		List<CommitInformation> entries = byPath.get(info.getPath());
+		// CommitInformation.equals doesn't tell the instances apart
+		for (Iterator<CommitInformation> it = entries.iterator(); it.hasNext();) {
+			if (it.next() == info) {
+				it.remove();
+				break;
+			}
+		}
+		if (entries.isEmpty()) {
+			byPath.remove(info.getPath());
+		}
+		return commits.remove(info);
+	}
+
+	/**
+	 * Remove the commit informations of a path done before a date.
+	 *
+	 * @return the number of commit informations removed.
+	 */
+	public int removeEarlier(String path, Date date) {
+		List<CommitInformation> entries = byPath.get(path);
+		if (null == entries) {
+			return 0;
+		}
+		int removed = 0;
+		for (Iterator<CommitInformation> it = entries.iterator(); it.hasNext();) {
+			CommitInformation info = it.next();
+			if (info.getCommitDate().before(date)) {
+				commits.remove(info);
+				it.remove();
+				removed++;
+			}
+		}
+		if (entries.isEmpty()) {
+			byPath.remove(path);
+		}
+		return removed;
+	}
+
+	/**
+	 * @return the commit informations of a path, in the order they were added.
+	 */
+	public List<CommitInformation> get(String path) {
+		List<CommitInformation> entries = byPath.get(path);
+		if (null == entries) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(entries);
+	}
+
+	public V getRevision(CommitInformation info) {
+		return commits.get(info);
+	}
+
+	public boolean isEmpty() {
+		return commits.isEmpty();
+	}
+
+	public int size() {
+		return commits.size();
+	}
+
+	public void clear() {
+		commits.clear();
+		byPath.clear();
+	}
+
+	/**
+	 * @return the commit informations in commit order, not modifiable.
+	 */
+	public NavigableMap<CommitInformation, V> asMap() {
+		return Collections.unmodifiableNavigableMap(commits);
+	}
+}
@@ -76,7 +76,7 @@ public class Config {
     }
     
     public String getReviewBoardRestDomain() {
-        return reviewBoardAPI;
+        return properties.getProperty("reviewBoardAPI", reviewBoardAPI);
     }
     
     public String get(String key) {
@@ -0,0 +1,326 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.ossnoize.git.fastimport.DataRef;
+import org.ossnoize.git.fastimport.Sha1Ref;
+import org.sync.Log;
+
+/**
+ * Index of the file contents already imported, by the Starteam MD5 of the
+ * content.
+ *
+ * Within a fast-import session the content is referenced by the mark of its
+ * blob. Once the session ended successfully, the git blob id of every content
+ * is appended to a file in the starteam directory so the following runs can
+ * reference them too; those are checked against the object database before
+ * being used.
+ *
+ * A content is only indexed when the MD5 of the checked out file matches the
+ * MD5 Starteam has, so a checkout transformed on the way (keywords, EOL) is
+ * never reused for another revision. This class is threadsafe.
+ */
+public class ContentIndex {
+
+	private static final String INDEX_FILE = "ContentIndex.bin";
+	private static final int MAGIC = 0x53544349; // STCI
+	private static final int FORMAT_VERSION = 1;
+	private static final int RECORD_SIZE = 16 + 20;
+	// Each fast-import stream has its own index on the same file when the views
+	// are imported in parallel
+	private static final Object FILE_LOCK = new Object();
+
+	private final File indexFile;
+	private final File gitDirectory;
+	private final Map<ByteBuffer, DataRef> marks = new HashMap<ByteBuffer, DataRef>();
+	private final Map<ByteBuffer, ObjectId> blobs = new HashMap<ByteBuffer, ObjectId>();
+	private final Set<ObjectId> verified = new HashSet<ObjectId>();
+	private final List<byte[]> pending = new ArrayList<byte[]>();
+	private Repository repository;
+	private boolean loaded;
+
+	/**
+	 * @param starteamDirectory
+	 *          Where the index is saved
+	 * @param gitDirectory
+	 *          The git directory the blobs are checked in
+	 */
+	public ContentIndex(File starteamDirectory, File gitDirectory) {
+		this.indexFile = new File(starteamDirectory, INDEX_FILE);
+		this.gitDirectory = gitDirectory;
+	}
+
+	/**
+	 * Find the already imported content having this MD5.
+	 *
+	 * @param md5
+	 *          The Starteam MD5 of the content
+	 * @return the mark or blob id of the content, null if unknown
+	 */
+	public synchronized DataRef find(byte[] md5) {
+		if (null == md5 || md5.length != 16) {
+			return null;
+		}
+		ByteBuffer key = ByteBuffer.wrap(md5);
+		DataRef mark = marks.get(key);
+		if (null != mark) {
+			return mark;
+		}
+		load();
+		ObjectId blob = blobs.get(key);
+		if (null == blob) {
+			return null;
+		}
+		if (!verified.contains(blob)) {
+			if (!exists(blob)) {
+				blobs.remove(key);
+				return null;
+			}
+			verified.add(blob);
+		}
+		return new Sha1Ref(blob.name());
+	}
+
+	/**
+	 * Check a file against its Starteam MD5 without indexing it.
+	 *
+	 * @return true if the file has the MD5
+	 */
+	public static boolean hasMd5(byte[] md5, File content) throws IOException {
+		if (null == md5 || md5.length != 16) {
+			return false;
+		}
+		MessageDigest md5Digest;
+		try {
+			md5Digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			return false;
+		}
+		FileChannel channel = FileChannel.open(content.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(1024 * 64);
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				md5Digest.update(buffer.array(), 0, buffer.limit());
+				buffer.clear();
+			}
+		} finally {
+			channel.close();
+		}
+		return MessageDigest.isEqual(md5, md5Digest.digest());
+	}
+
+	/**
+	 * Record the content of a blob written in the current fast-import session.
+	 *
+	 * @param md5
+	 *          The Starteam MD5 of the content
+	 * @param mark
+	 *          The mark of the blob
+	 * @param content
+	 *          The file the blob was written from
+	 * @return true if the content was indexed
+	 */
+	public boolean register(byte[] md5, DataRef mark, File content) throws IOException {
+		if (null == md5 || md5.length != 16) {
+			return false;
+		}
+		// Hash outside of the lock, both digests in one pass
+		MessageDigest md5Digest;
+		MessageDigest sha1Digest;
+		try {
+			md5Digest = MessageDigest.getInstance("MD5");
+			sha1Digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			return false;
+		}
+		FileChannel channel = FileChannel.open(content.toPath(), StandardOpenOption.READ);
+		try {
+			sha1Digest.update(("blob " + channel.size() + "\0").getBytes("US-ASCII"));
+			ByteBuffer buffer = ByteBuffer.allocate(1024 * 64);
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				md5Digest.update(buffer.array(), 0, buffer.limit());
+				sha1Digest.update(buffer.array(), 0, buffer.limit());
+				buffer.clear();
+			}
+		} finally {
+			channel.close();
+		}
+		if (!MessageDigest.isEqual(md5, md5Digest.digest())) {
+			return false;
+		}
+		byte[] record = new byte[RECORD_SIZE];
+		System.arraycopy(md5, 0, record, 0, 16);
+		System.arraycopy(sha1Digest.digest(), 0, record, 16, 20);
+		synchronized (this) {
+			ByteBuffer key = ByteBuffer.wrap(record, 0, 16).slice();
+			if (!marks.containsKey(key)) {
+				marks.put(key, mark);
+				pending.add(record);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Save the blob ids of the contents imported in this session. Shall only be
+	 * called once fast-import ended successfully.
+	 */
+	public synchronized void commitSession() {
+		if (!pending.isEmpty()) {
+			load();
+			synchronized (FILE_LOCK) {
+				append();
+			}
+		}
+		pending.clear();
+		marks.clear();
+		close();
+	}
+
+	/**
+	 * Forget the contents of this session, fast-import didn't end successfully.
+	 */
+	public synchronized void abandonSession() {
+		pending.clear();
+		marks.clear();
+		close();
+	}
+
+	private void append() {
+		try {
+			boolean newFile = !indexFile.exists() || indexFile.length() == 0;
+			FileOutputStream fout = new FileOutputStream(indexFile, true);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout, 65536));
+			try {
+				if (newFile) {
+					out.writeInt(MAGIC);
+					out.writeInt(FORMAT_VERSION);
+				}
+				for (byte[] record : pending) {
+					out.write(record);
+					blobs.put(ByteBuffer.wrap(record, 0, 16).slice(), ObjectId.fromRaw(record, 16));
+				}
+				out.flush();
+				fout.getFD().sync();
+			} finally {
+				FileUtility.close(out, fout);
+			}
+		} catch (IOException e) {
+			Log.log("Could not save the content index: " + e.getMessage());
+		}
+	}
+
+	private void load() {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+		synchronized (FILE_LOCK) {
+			read();
+		}
+	}
+
+	private void read() {
+		if (!indexFile.exists()) {
+			return;
+		}
+		long validLength = 8;
+		FileInputStream fin = null;
+		DataInputStream in = null;
+		try {
+			fin = new FileInputStream(indexFile);
+			in = new DataInputStream(new BufferedInputStream(fin, 65536));
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+				Log.log("Ignoring the content index of an unknown format " + indexFile);
+				return;
+			}
+			byte[] record = new byte[RECORD_SIZE];
+			while (true) {
+				try {
+					in.readFully(record);
+				} catch (EOFException e) {
+					break;
+				}
+				blobs.put(ByteBuffer.wrap(record.clone(), 0, 16).slice(), ObjectId.fromRaw(record, 16));
+				validLength += RECORD_SIZE;
+			}
+		} catch (IOException e) {
+			Log.log("Could not read the content index: " + e.getMessage());
+			return;
+		} finally {
+			FileUtility.close(in, fin);
+		}
+		if (validLength < indexFile.length()) {
+			// A record was cut while appending
+			try {
+				RandomAccessFile truncate = new RandomAccessFile(indexFile, "rw");
+				try {
+					truncate.setLength(validLength);
+				} finally {
+					truncate.close();
+				}
+			} catch (IOException e) {
+				Log.log("Could not repair the content index: " + e.getMessage());
+			}
+		}
+	}
+
+	private boolean exists(ObjectId blob) {
+		try {
+			if (null == repository) {
+				repository = new FileRepositoryBuilder().setGitDir(gitDirectory).setMustExist(true).build();
+			}
+			return repository.getObjectDatabase().has(blob);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private void close() {
+		if (null != repository) {
+			repository.close();
+			repository = null;
+		}
+	}
+}
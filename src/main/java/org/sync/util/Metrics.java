@@ -0,0 +1,406 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sync.Log;
+
+/**
+ * Counters and latency histograms of the import phases, by view and label.
+ *
+ * The thread importing a view enters the view and label it works on, what
+ * that thread measures is recorded for them. A thread working for another one
+ * records in the scope it was handed. The metrics are written as JSON and CSV
+ * in the starteam directory periodically and when the import ends, with the
+ * totals of each view and of the whole import.
+ */
+public class Metrics {
+
+	public static final Metrics instance = new Metrics();
+
+	public static final String LABEL = "generateFastImportStream";
+	public static final String POPULATE_PROPERTIES = "populateStarteamProperties";
+	public static final String FILE_POPULATION = "doFilePopulation";
+	public static final String CHANGED_FILES = "population.changed";
+	public static final String UNCHANGED_FILES = "population.unchanged";
+	public static final String RECOVER_DELETE = "recoverDeleteInformation";
+	public static final String HISTORY_BY_VERSION = "getFromHistoryByVersion";
+	public static final String CHECKOUT = "checkoutTo";
+	public static final String CHECKOUT_BYTES = "checkoutTo.bytes";
+	public static final String BLOB_BYTES = "blob.bytes";
+	public static final String COMMIT_BYTES = "commit.bytes";
+	public static final String TAG_BYTES = "tag.bytes";
+	public static final String FAST_IMPORT_STALL = "fastImport.stall";
+	public static final String CHANGE_REQUEST_CACHE = "changeRequest.cache";
+	public static final String CHANGE_REQUEST = "changeRequest.get";
+
+	private static final String ALL = "*";
+	private static final String JSON_FILE = "metrics.json";
+	private static final String CSV_FILE = "metrics.csv";
+
+	private final ConcurrentMap<String, Scope> scopes = new ConcurrentHashMap<String, Scope>();
+	private final Scope global = new Scope(ALL, ALL);
+	private final ThreadLocal<Scope> entered = new ThreadLocal<Scope>();
+	private Timer timer;
+	private File directory;
+
+	private Metrics() {
+	}
+
+	/**
+	 * @return the scope of the current thread, the scope of the whole import
+	 *         when the thread didn't enter a view.
+	 */
+	public static Scope current() {
+		Scope scope = instance.entered.get();
+		return null != scope ? scope : instance.global;
+	}
+
+	/**
+	 * Record what the current thread measures for a view and label.
+	 *
+	 * @param view
+	 *          Name of the view
+	 * @param label
+	 *          Name of the label, empty when the import isn't done by label
+	 * @return the scope entered
+	 */
+	public Scope enter(String view, String label) {
+		String key = view + '\n' + label;
+		Scope scope = scopes.get(key);
+		if (null == scope) {
+			Scope created = new Scope(view, label);
+			scope = scopes.putIfAbsent(key, created);
+			if (null == scope) {
+				scope = created;
+			}
+		}
+		entered.set(scope);
+		return scope;
+	}
+
+	/**
+	 * Write the metrics to a directory periodically until stopped.
+	 *
+	 * @param where
+	 *          Directory of the metrics files
+	 * @param intervalSeconds
+	 *          Seconds between two writes, 0 to only write them at the end
+	 */
+	public synchronized void start(File where, int intervalSeconds) {
+		directory = where;
+		if (null == timer && intervalSeconds > 0) {
+			timer = new Timer("metrics", true);
+			long period = intervalSeconds * 1000L;
+			timer.scheduleAtFixedRate(new TimerTask() {
+				@Override
+				public void run() {
+					write();
+				}
+			}, period, period);
+		}
+	}
+
+	/**
+	 * Stop the periodic writes and write the metrics a last time.
+	 */
+	public synchronized void stop() {
+		if (null != timer) {
+			timer.cancel();
+			timer = null;
+		}
+		if (null != directory) {
+			write();
+			directory = null;
+		}
+	}
+
+	private synchronized void write() {
+		if (null == directory) {
+			return;
+		}
+		try {
+			List<Scope> all = snapshot();
+			writeAtomically(new File(directory, JSON_FILE), toJson(all));
+			writeAtomically(new File(directory, CSV_FILE), toCsv(all));
+		} catch (IOException e) {
+			Log.logf("Could not write the metrics: %s", e);
+		}
+	}
+
+	/**
+	 * @return the scopes by view and label followed by the total of each view
+	 *         and the total of the import.
+	 */
+	private List<Scope> snapshot() {
+		Map<String, Scope> ordered = new TreeMap<String, Scope>(scopes);
+		Map<String, Scope> views = new TreeMap<String, Scope>();
+		Scope total = new Scope(ALL, ALL);
+		total.addAll(global);
+		for (Scope scope : ordered.values()) {
+			Scope view = views.get(scope.view);
+			if (null == view) {
+				view = new Scope(scope.view, ALL);
+				views.put(scope.view, view);
+			}
+			view.addAll(scope);
+			total.addAll(scope);
+		}
+		List<Scope> all = new ArrayList<Scope>(ordered.values());
+		all.addAll(views.values());
+		all.add(total);
+		return all;
+	}
+
+	private static String toJson(List<Scope> all) {
+		StringBuilder out = new StringBuilder();
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+		out.append("{\n  \"time\": ").append(quote(format.format(new Date()))).append(",\n  \"scopes\": [");
+		String separator = "\n";
+		for (Scope scope : all) {
+			out.append(separator).append("    {\"view\": ").append(quote(scope.view))
+				.append(", \"label\": ").append(quote(scope.label)).append(", \"counters\": {");
+			String field = "";
+			for (Map.Entry<String, AtomicLong> counter : new TreeMap<String, AtomicLong>(scope.counters).entrySet()) {
+				out.append(field).append(quote(counter.getKey())).append(": ").append(counter.getValue().get());
+				field = ", ";
+			}
+			out.append("}, \"timers\": {");
+			field = "";
+			for (Map.Entry<String, Histogram> timer : new TreeMap<String, Histogram>(scope.timers).entrySet()) {
+				Histogram h = timer.getValue().copy();
+				out.append(field).append(quote(timer.getKey()))
+					.append(": {\"count\": ").append(h.count)
+					.append(", \"totalMs\": ").append(millis(h.sum))
+					.append(", \"minMs\": ").append(millis(h.min))
+					.append(", \"maxMs\": ").append(millis(h.max))
+					.append(", \"p50Ms\": ").append(millis(h.percentile(0.50)))
+					.append(", \"p95Ms\": ").append(millis(h.percentile(0.95)))
+					.append(", \"p99Ms\": ").append(millis(h.percentile(0.99))).append('}');
+				field = ", ";
+			}
+			out.append("}}");
+			separator = ",\n";
+		}
+		out.append("\n  ]\n}\n");
+		return out.toString();
+	}
+
+	private static String toCsv(List<Scope> all) {
+		StringBuilder out = new StringBuilder("view,label,metric,type,count,total,min,max,p50,p95,p99\n");
+		for (Scope scope : all) {
+			String prefix = csv(scope.view) + ',' + csv(scope.label) + ',';
+			for (Map.Entry<String, AtomicLong> counter : new TreeMap<String, AtomicLong>(scope.counters).entrySet()) {
+				out.append(prefix).append(csv(counter.getKey())).append(",counter,,")
+					.append(counter.getValue().get()).append(",,,,,\n");
+			}
+			for (Map.Entry<String, Histogram> timer : new TreeMap<String, Histogram>(scope.timers).entrySet()) {
+				Histogram h = timer.getValue().copy();
+				out.append(prefix).append(csv(timer.getKey())).append(",ms,").append(h.count)
+					.append(',').append(millis(h.sum)).append(',').append(millis(h.min))
+					.append(',').append(millis(h.max)).append(',').append(millis(h.percentile(0.50)))
+					.append(',').append(millis(h.percentile(0.95))).append(',').append(millis(h.percentile(0.99)))
+					.append('\n');
+			}
+		}
+		return out.toString();
+	}
+
+	private static String millis(long nanos) {
+		return String.format(java.util.Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private static String quote(String value) {
+		StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 0x20) {
+				out.append(String.format("\\u%04x", (int) c));
+			} else {
+				out.append(c);
+			}
+		}
+		return out.append('"').toString();
+	}
+
+	private static String csv(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+			return value;
+		}
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+
+	private static void writeAtomically(File file, String content) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8));
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * The metrics of a view and label.
+	 */
+	public static class Scope {
+		private final String view;
+		private final String label;
+		private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+		private final ConcurrentMap<String, Histogram> timers = new ConcurrentHashMap<String, Histogram>();
+
+		private Scope(String view, String label) {
+			this.view = view;
+			this.label = label;
+		}
+
+		/**
+		 * Add to a counter.
+		 */
+		public void add(String counter, long amount) {
+			AtomicLong value = counters.get(counter);
+			if (null == value) {
+				AtomicLong created = new AtomicLong();
+				value = counters.putIfAbsent(counter, created);
+				if (null == value) {
+					value = created;
+				}
+			}
+			value.addAndGet(amount);
+		}
+
+		/**
+		 * Record the time elapsed since a start.
+		 *
+		 * @param timer
+		 *          Name of the measure
+		 * @param startNanos
+		 *          The {@link System#nanoTime()} at the start
+		 */
+		public void time(String timer, long startNanos) {
+			record(timer, System.nanoTime() - startNanos);
+		}
+
+		/**
+		 * Record a duration.
+		 */
+		public void record(String timer, long nanos) {
+			Histogram histogram = timers.get(timer);
+			if (null == histogram) {
+				Histogram created = new Histogram();
+				histogram = timers.putIfAbsent(timer, created);
+				if (null == histogram) {
+					histogram = created;
+				}
+			}
+			histogram.record(nanos);
+		}
+
+		private void addAll(Scope other) {
+			for (Map.Entry<String, AtomicLong> counter : other.counters.entrySet()) {
+				add(counter.getKey(), counter.getValue().get());
+			}
+			for (Map.Entry<String, Histogram> timer : other.timers.entrySet()) {
+				Histogram histogram = timers.get(timer.getKey());
+				if (null == histogram) {
+					histogram = new Histogram();
+					timers.put(timer.getKey(), histogram);
+				}
+				histogram.addAll(timer.getValue().copy());
+			}
+		}
+	}
+
+	/**
+	 * Histogram of durations in power of two buckets, the percentiles are
+	 * within a factor two of the real ones.
+	 */
+	private static class Histogram {
+		private final long[] buckets = new long[64];
+		private long count;
+		private long sum;
+		private long min = Long.MAX_VALUE;
+		private long max;
+
+		private synchronized void record(long nanos) {
+			if (nanos < 0) {
+				nanos = 0;
+			}
+			buckets[63 - Long.numberOfLeadingZeros(nanos | 1)]++;
+			count++;
+			sum += nanos;
+			min = Math.min(min, nanos);
+			max = Math.max(max, nanos);
+		}
+
+		private synchronized Histogram copy() {
+			Histogram copy = new Histogram();
+			copy.addAll(this);
+			return copy;
+		}
+
+		private void addAll(Histogram other) {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] += other.buckets[i];
+			}
+			count += other.count;
+			sum += other.sum;
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+		}
+
+		private long percentile(double quantile) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(quantile * count);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank) {
+					// upper bound of the bucket
+					long bound = i >= 62 ? Long.MAX_VALUE : (2L << i) - 1;
+					return Math.max(min, Math.min(max, bound));
+				}
+			}
+			return max;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package org.sync.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sync.Log;
+
+import net.sf.json.JSONObject;
+
+/**
+ * review board 上 review 描述信息的缓存
+ *
+ * 同一个 review 会出现在同一次提交的每个文件的注释中，每个 label 也会再次访问，
+ * 所以按照 review id 缓存描述信息：内存中按 LRU 淘汰，可选地保存在仓库的 starteam 目录下。
+ *
+ * {@link #prefetch(Collection)} 在后台线程中并发地取得描述信息，
+ * {@link #getDescription(String)} 只在描述信息还没有取得时等待。
+ */
+public class ReviewDescriptionCache {
+    public static ReviewDescriptionCache instance = new ReviewDescriptionCache();
+
+    private final String reviewBoardAPI;
+    private final Map<String, String> descriptions;
+    private final Map<String, Future<String>> inflight = new ConcurrentHashMap<>();
+    // 本次运行中访问失败的 review，不再重复访问
+    private final Set<String> failed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ExecutorService fetchers;
+    private volatile File store;
+
+    private ReviewDescriptionCache() {
+        this(Config.instance.getReviewBoardRestDomain(),
+                Integer.parseInt(Config.instance.get("reviewCacheSize", "2048")),
+                Integer.parseInt(Config.instance.get("reviewBoardThreads", "4")));
+    }
+
+    /**
+     * @param reviewBoardAPI review board API 的地址，review id 直接添加在其后
+     * @param capacity 内存中缓存的描述信息个数
+     * @param threads 并发访问 review board 的线程数
+     */
+    public ReviewDescriptionCache(String reviewBoardAPI, final int capacity, int threads) {
+        this.reviewBoardAPI = reviewBoardAPI;
+        this.descriptions = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        });
+        final AtomicInteger counter = new AtomicInteger();
+        this.fetchers = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread fetcher = new Thread(r, "reviewboard-" + counter.incrementAndGet());
+                fetcher.setDaemon(true);
+                return fetcher;
+            }
+        });
+    }
+
+    /**
+     * 设置保存描述信息的目录，为 null 时只使用内存缓存
+     */
+    public void setStore(File directory) {
+        if (null != directory && !directory.exists() && !directory.mkdirs()) {
+            Log.log("Could not create the review board cache " + directory);
+            directory = null;
+        }
+        store = directory;
+    }
+
+    /**
+     * 在后台并发取得这些 review 的描述信息
+     */
+    public void prefetch(Collection<String> reviewIds) {
+        for (String reviewId : reviewIds) {
+            if (descriptions.containsKey(reviewId) || failed.contains(reviewId)) {
+                continue;
+            }
+            FutureTask<String> task = newFetch(reviewId);
+            if (null == inflight.putIfAbsent(reviewId, task)) {
+                fetchers.execute(task);
+            }
+        }
+    }
+
+    /**
+     * 取得 review 的描述信息，必要时等待后台线程或者直接访问 review board
+     *
+     * @return 描述信息，无法取得时返回 null
+     */
+    public String getDescription(String reviewId) {
+        String description = descriptions.get(reviewId);
+        if (null != description || failed.contains(reviewId)) {
+            return description;
+        }
+        FutureTask<String> task = newFetch(reviewId);
+        Future<String> running = inflight.putIfAbsent(reviewId, task);
+        if (null == running) {
+            task.run();
+            running = task;
+        }
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    private FutureTask<String> newFetch(final String reviewId) {
+        return new FutureTask<String>(new Callable<String>() {
+            @Override
+            public String call() {
+                try {
+                    String description = load(reviewId);
+                    if (null == description) {
+                        description = fetch(reviewId);
+                    }
+                    if (null == description) {
+                        failed.add(reviewId);
+                    } else {
+                        descriptions.put(reviewId, description);
+                    }
+                    return description;
+                } finally {
+                    inflight.remove(reviewId);
+                }
+            }
+        });
+    }
+
+    private String fetch(String reviewId) {
+        try {
+            String res = HttpClient.httpRequest(reviewBoardAPI + reviewId);
+            JSONObject resObj = JSONObject.fromObject(res);
+            JSONObject reviewRequest = JSONObject.fromObject(resObj.getString("review_request"));
+            String description = reviewRequest.getString("description");
+            save(reviewId, description);
+            return description;
+        } catch (IOException e) {
+            Log.log("connect review board failed " + e.getMessage());
+        }
+        return null;
+    }
+
+    private String load(String reviewId) {
+        File directory = store;
+        if (null == directory) {
+            return null;
+        }
+        File cached = new File(directory, reviewId);
+        if (!cached.isFile()) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(cached.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            Log.log("Could not read the cached review " + reviewId + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    private void save(String reviewId, String description) {
+        File directory = store;
+        if (null == directory) {
+            return;
+        }
+        try {
+            // 先写临时文件再改名，避免中断后留下不完整的描述
+            File temp = File.createTempFile("review" + reviewId, ".tmp", directory);
+            Files.write(temp.toPath(), description.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), new File(directory, reviewId).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Log.log("Could not cache the review " + reviewId + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * File information of the labels populated ahead of the label written.
+ *
+ * The population of a label moves the file information to the state its
+ * commits leave them in. When labels are populated ahead, these changes are
+ * kept here in a layer for each label instead of the store, so the store only
+ * ever holds, and journals, the information of the labels written to git.
+ * The thread populating ahead sees the layers on top of the store. Once a label
+ * is written, the registrations its population did are applied to the store
+ * and its layer is released.
+ *
+ * This class is threadsafe.
+ */
+public class StarteamFileInfoOverlay {
+
+	private final Map<String, Map<String, Entry>> heads = new HashMap<String, Map<String, Entry>>();
+	private long layer = 0;
+	private List<Registration> recorded = null;
+
+	/**
+	 * Start the layer of the next label populated. The registrations are
+	 * recorded until {@link #stopRecording()}.
+	 * @return the layer number, to release it once the label is written.
+	 */
+	public synchronized long nextLayer() {
+		recorded = new ArrayList<Registration>();
+		return ++layer;
+	}
+
+	/**
+	 * @return the registrations done since the layer started, to apply to the
+	 *         store before its commits are written.
+	 */
+	public synchronized List<Registration> stopRecording() {
+		List<Registration> done = recorded;
+		recorded = null;
+		return null == done ? new ArrayList<Registration>() : done;
+	}
+
+	/**
+	 * @return true if a layer holds the file, registered or not.
+	 */
+	public synchronized boolean contains(String head, String filename) {
+		Map<String, Entry> files = heads.get(head);
+		return null != files && files.containsKey(filename);
+	}
+
+	/**
+	 * @return the information of the file in the latest layer, null when it was
+	 *         unregistered.
+	 */
+	public synchronized StarteamFileInfo get(String head, String filename) {
+		Map<String, Entry> files = heads.get(head);
+		if (null != files) {
+			Entry entry = files.get(filename);
+			if (null != entry) {
+				return entry.info;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Set the file information in the current layer.
+	 * @param info the new information, null when the file is unregistered
+	 * @param registration the registration to record, null for the changes the
+	 *          writing of the commits does itself
+	 */
+	public synchronized void put(String head, String filename, StarteamFileInfo info, Registration registration) {
+		Map<String, Entry> files = heads.get(head);
+		if (null == files) {
+			files = new HashMap<String, Entry>();
+			heads.put(head, files);
+		}
+		files.put(filename, new Entry(layer, info));
+		if (null != registration && null != recorded) {
+			recorded.add(registration);
+		}
+	}
+
+	/**
+	 * Drop the layers up to the given one, their labels are written.
+	 */
+	public synchronized void release(long upTo) {
+		for (Map<String, Entry> files : heads.values()) {
+			for (Iterator<Entry> it = files.values().iterator(); it.hasNext();) {
+				if (it.next().layer <= upTo) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	private static class Entry {
+		private final long layer;
+		private final StarteamFileInfo info;
+
+		private Entry(long layer, StarteamFileInfo info) {
+			this.layer = layer;
+			this.info = info;
+		}
+	}
+
+	/**
+	 * A registration done by the population of a label.
+	 */
+	public static class Registration {
+		public static final int REGISTER = 1;
+		public static final int UPDATE_VERSION = 2;
+		public static final int UPDATE_ID = 3;
+		public static final int UNREGISTER = 4;
+
+		private final int operation;
+		private final String head;
+		private final String filename;
+		// the information after the registration, null when unregistered
+		private final StarteamFileInfo info;
+
+		public Registration(int operation, String head, String filename, StarteamFileInfo info) {
+			this.operation = operation;
+			this.head = head;
+			this.filename = filename;
+			this.info = info;
+		}
+
+		public int getOperation() {
+			return operation;
+		}
+
+		public String getHead() {
+			return head;
+		}
+
+		public String getFilename() {
+			return filename;
+		}
+
+		public StarteamFileInfo getInfo() {
+			return info;
+		}
+	}
+}
@@ -0,0 +1,679 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.sync.Log;
+
+/**
+ * Persistent store of the Starteam information of every file tracked by each
+ * head of the repository.
+ *
+ * The information is kept on disk as a binary snapshot where every path is
+ * written once and the file information are stored in int and md5 columns,
+ * followed by an append-only journal of the mutations done since the
+ * snapshot. {@link #sync()} appends the pending mutations as one checksummed
+ * batch, so a crash in the middle of an import loses at most the mutations
+ * since the last sync. The journal is folded back into a new snapshot once it
+ * grows larger than the snapshot itself.
+ *
+ * The fast-import streams of the parallel views share the store, each one
+ * keeps its mutations in its own {@link Batch} and journals them once its
+ * fast-import stored the commits they describe. The snapshot holds every
+ * mutation done in memory, so the store is only compacted while no other
+ * stream has mutations waiting.
+ *
+ * A store without directory only lives in memory. This class is threadsafe.
+ */
+public class StarteamFileInfoStore {
+
+	private static final int SNAPSHOT_MAGIC = 0x53544649; // STFI
+	private static final int JOURNAL_MAGIC = 0x5354464a; // STFJ
+	private static final int FORMAT_VERSION = 1;
+	private static final long MINIMUM_COMPACT_SIZE = 1024L * 1024L;
+
+	private static final byte OP_REGISTER = 1;
+	private static final byte OP_UPDATE_VERSION = 2;
+	private static final byte OP_UPDATE_ID = 3;
+	private static final byte OP_UNREGISTER = 4;
+
+	private final File snapshotFile;
+	private final File journalFile;
+	private final File legacyFile;
+
+	private final Map<String, Map<String, StarteamFileInfo>> heads = new HashMap<String, Map<String, StarteamFileInfo>>();
+	private final Map<String, String> paths = new HashMap<String, String>();
+	private long generation = 0;
+
+	private final Batch defaultBatch = new Batch();
+	private final List<Batch> batches = new ArrayList<Batch>();
+	// a stream ended without journaling its mutations, they stay out of the snapshot
+	private boolean unconfirmed = false;
+
+	/**
+	 * @param directory
+	 *          Where the store files are located, null for a memory only store
+	 * @param legacyName
+	 *          Name of the serialized map written by the previous versions,
+	 *          migrated on load
+	 */
+	public StarteamFileInfoStore(File directory, String legacyName) {
+		if (null != directory) {
+			snapshotFile = new File(directory, "StarteamFileInfo.bin");
+			journalFile = new File(directory, "StarteamFileInfo.journal");
+			legacyFile = null != legacyName ? new File(directory, legacyName) : null;
+		} else {
+			snapshotFile = null;
+			journalFile = null;
+			legacyFile = null;
+		}
+		batches.add(defaultBatch);
+	}
+
+	/**
+	 * @return a new batch for the mutations of a fast-import stream.
+	 */
+	public synchronized Batch newBatch() {
+		Batch batch = new Batch();
+		batches.add(batch);
+		return batch;
+	}
+
+	/**
+	 * Forget the batch of a stream that ended. The mutations it didn't journal
+	 * are left out of the snapshot until the next run.
+	 */
+	public synchronized void closeBatch(Batch batch) {
+		if (null != batch && batches.remove(batch) && batch.count > 0) {
+			unconfirmed = true;
+		}
+	}
+
+	/**
+	 * Load the snapshot and replay its journal, or migrate the legacy file.
+	 * @return true if some information was found on disk.
+	 */
+	public synchronized boolean load() {
+		if (null == snapshotFile) {
+			return false;
+		}
+		heads.clear();
+		paths.clear();
+		generation = 0;
+		try {
+			boolean found = false;
+			if (snapshotFile.exists()) {
+				readSnapshot();
+				found = true;
+			} else if (null != legacyFile && legacyFile.exists()) {
+				migrateLegacy();
+				return true;
+			}
+			if (journalFile.exists()) {
+				found |= replayJournal();
+			}
+			return found;
+		} catch (IOException e) {
+			Log.log("Could not load the Starteam file information: " + e.getMessage());
+			heads.clear();
+			paths.clear();
+			return false;
+		}
+	}
+
+	/**
+	 * @return the information of the file, shall not be modified.
+	 */
+	public synchronized StarteamFileInfo get(String head, String filename) {
+		Map<String, StarteamFileInfo> files = heads.get(head);
+		if (null != files) {
+			return files.get(filename);
+		}
+		return null;
+	}
+
+	public boolean register(String head, String filename, int fileId, int fileVersion, int contentVersion,
+			byte[] md5) {
+		return register(null, head, filename, fileId, fileVersion, contentVersion, md5);
+	}
+
+	/**
+	 * @param batch
+	 *          The batch of the stream, null for the store's own
+	 */
+	public synchronized boolean register(Batch batch, String head, String filename, int fileId, int fileVersion, int contentVersion,
+			byte[] md5) {
+		Batch pending = batchOf(batch);
+		if (!applyRegister(head, filename, fileId, fileVersion, contentVersion, md5)) {
+			return false;
+		}
+		if (null == journalFile) {
+			return true;
+		}
+		try {
+			pending.out.writeByte(OP_REGISTER);
+			pending.out.writeUTF(head);
+			pending.out.writeUTF(filename);
+			pending.out.writeInt(fileId);
+			pending.out.writeInt(fileVersion);
+			pending.out.writeInt(contentVersion);
+			writeMd5(pending.out, md5);
+			pending.count++;
+		} catch (IOException e) {
+			// writing in memory
+		}
+		return true;
+	}
+
+	public boolean updateVersion(String head, String filename, int fileVersion, int contentVersion,
+			byte[] md5) {
+		return updateVersion(null, head, filename, fileVersion, contentVersion, md5);
+	}
+
+	/**
+	 * @param batch
+	 *          The batch of the stream, null for the store's own
+	 */
+	public synchronized boolean updateVersion(Batch batch, String head, String filename, int fileVersion, int contentVersion,
+			byte[] md5) {
+		Batch pending = batchOf(batch);
+		if (!applyUpdateVersion(head, filename, fileVersion, contentVersion, md5)) {
+			return false;
+		}
+		if (null == journalFile) {
+			return true;
+		}
+		try {
+			pending.out.writeByte(OP_UPDATE_VERSION);
+			pending.out.writeUTF(head);
+			pending.out.writeUTF(filename);
+			pending.out.writeInt(fileVersion);
+			pending.out.writeInt(contentVersion);
+			writeMd5(pending.out, md5);
+			pending.count++;
+		} catch (IOException e) {
+			// writing in memory
+		}
+		return true;
+	}
+
+	public boolean updateId(String head, String filename, int fileId) {
+		return updateId(null, head, filename, fileId);
+	}
+
+	/**
+	 * @param batch
+	 *          The batch of the stream, null for the store's own
+	 */
+	public synchronized boolean updateId(Batch batch, String head, String filename, int fileId) {
+		Batch pending = batchOf(batch);
+		if (!applyUpdateId(head, filename, fileId)) {
+			return false;
+		}
+		if (null == journalFile) {
+			return true;
+		}
+		try {
+			pending.out.writeByte(OP_UPDATE_ID);
+			pending.out.writeUTF(head);
+			pending.out.writeUTF(filename);
+			pending.out.writeInt(fileId);
+			pending.count++;
+		} catch (IOException e) {
+			// writing in memory
+		}
+		return true;
+	}
+
+	public boolean unregister(String head, String filename) {
+		return unregister(null, head, filename);
+	}
+
+	/**
+	 * @param batch
+	 *          The batch of the stream, null for the store's own
+	 */
+	public synchronized boolean unregister(Batch batch, String head, String filename) {
+		Batch pending = batchOf(batch);
+		if (!applyUnregister(head, filename)) {
+			return false;
+		}
+		if (null == journalFile) {
+			return true;
+		}
+		try {
+			pending.out.writeByte(OP_UNREGISTER);
+			pending.out.writeUTF(head);
+			pending.out.writeUTF(filename);
+			pending.count++;
+		} catch (IOException e) {
+			// writing in memory
+		}
+		return true;
+	}
+
+	/**
+	 * Append the pending mutations to the journal and compact the store when
+	 * the journal outgrew the snapshot.
+	 */
+	public void sync() {
+		sync(null);
+	}
+
+	/**
+	 * Append the pending mutations of a stream to the journal.
+	 * @param batch
+	 *          The batch of the stream, null for the store's own
+	 */
+	public synchronized void sync(Batch batch) {
+		Batch synced = batchOf(batch);
+		if (null == journalFile || synced.count == 0 || !batches.contains(synced)) {
+			return;
+		}
+		try {
+			synced.out.flush();
+			appendBatch(synced.bytes.toByteArray());
+			synced.reset();
+			long snapshotSize = snapshotFile.exists() ? snapshotFile.length() : 0;
+			if (journalFile.length() > Math.max(snapshotSize, MINIMUM_COMPACT_SIZE) && isConfirmed()) {
+				compact();
+			}
+		} catch (IOException e) {
+			Log.log("Could not save the Starteam file information journal: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Write every information in a new snapshot and start a new journal.
+	 */
+	public synchronized void compact() throws IOException {
+		if (null == snapshotFile) {
+			return;
+		}
+		File temp = new File(snapshotFile.getPath() + ".tmp");
+		FileOutputStream fout = new FileOutputStream(temp);
+		CRC32 crc = new CRC32();
+		DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(fout, 65536), crc));
+		try {
+			writeSnapshot(out, generation + 1);
+			// The checksum of everything above closes the snapshot.
+			out.writeLong(crc.getValue());
+			out.flush();
+			fout.getFD().sync();
+		} finally {
+			FileUtility.close(out, fout);
+		}
+		Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		generation++;
+		// The mutations of the old journal are all part of the new snapshot, a
+		// leftover journal would be ignored anyway as it belongs to the previous
+		// generation.
+		journalFile.delete();
+	}
+
+	/**
+	 * @return true if every mutation done in memory is journaled.
+	 */
+	private boolean isConfirmed() {
+		if (unconfirmed) {
+			return false;
+		}
+		for (Batch batch : batches) {
+			if (batch.count > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Batch batchOf(Batch batch) {
+		return null == batch ? defaultBatch : batch;
+	}
+
+	private void writeSnapshot(DataOutputStream out, long newGeneration) throws IOException {
+		// Every path is written once in a table, the heads refer to it by index.
+		Map<String, Integer> pathIndex = new HashMap<String, Integer>();
+		List<String> pathTable = new ArrayList<String>();
+		for (Map<String, StarteamFileInfo> files : heads.values()) {
+			for (String path : files.keySet()) {
+				if (!pathIndex.containsKey(path)) {
+					pathIndex.put(path, pathTable.size());
+					pathTable.add(path);
+				}
+			}
+		}
+		out.writeInt(SNAPSHOT_MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.writeLong(newGeneration);
+		out.writeInt(pathTable.size());
+		for (String path : pathTable) {
+			out.writeUTF(path);
+		}
+		out.writeInt(heads.size());
+		for (Map.Entry<String, Map<String, StarteamFileInfo>> head : heads.entrySet()) {
+			Map<String, StarteamFileInfo> files = head.getValue();
+			out.writeUTF(head.getKey());
+			out.writeInt(files.size());
+			for (String path : files.keySet()) {
+				out.writeInt(pathIndex.get(path));
+			}
+			for (StarteamFileInfo info : files.values()) {
+				out.writeInt(info.getId());
+			}
+			for (StarteamFileInfo info : files.values()) {
+				out.writeInt(info.getVersion());
+			}
+			for (StarteamFileInfo info : files.values()) {
+				out.writeInt(info.getContentVersion());
+			}
+			for (StarteamFileInfo info : files.values()) {
+				writeMd5(out, info.getMd5());
+			}
+		}
+	}
+
+	private void readSnapshot() throws IOException {
+		FileInputStream fin = new FileInputStream(snapshotFile);
+		CRC32 crc = new CRC32();
+		DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(fin, 65536), crc));
+		try {
+			if (in.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException(snapshotFile + " is not a Starteam file information snapshot");
+			}
+			int version = in.readInt();
+			if (version != FORMAT_VERSION) {
+				throw new IOException("Unsupported Starteam file information version " + version);
+			}
+			long snapshotGeneration = in.readLong();
+			String[] pathTable = new String[in.readInt()];
+			for (int i = 0; i < pathTable.length; i++) {
+				pathTable[i] = intern(in.readUTF());
+			}
+			int headCount = in.readInt();
+			for (int h = 0; h < headCount; h++) {
+				String head = in.readUTF();
+				int count = in.readInt();
+				int[] index = readColumn(in, count);
+				int[] ids = readColumn(in, count);
+				int[] versions = readColumn(in, count);
+				int[] contentVersions = readColumn(in, count);
+				Map<String, StarteamFileInfo> files = new HashMap<String, StarteamFileInfo>(count * 4 / 3 + 1);
+				for (int i = 0; i < count; i++) {
+					String path = pathTable[index[i]];
+					files.put(path, new StarteamFileInfo(path, ids[i], versions[i], contentVersions[i], readMd5(in)));
+				}
+				heads.put(head, files);
+			}
+			long expected = crc.getValue();
+			if (in.readLong() != expected) {
+				throw new IOException(snapshotFile + " is corrupted");
+			}
+			generation = snapshotGeneration;
+		} finally {
+			FileUtility.close(in, fin);
+		}
+	}
+
+	private static int[] readColumn(DataInputStream in, int count) throws IOException {
+		int[] column = new int[count];
+		for (int i = 0; i < count; i++) {
+			column[i] = in.readInt();
+		}
+		return column;
+	}
+
+	private void appendBatch(byte[] batch) throws IOException {
+		boolean newJournal = !journalFile.exists() || journalFile.length() == 0;
+		FileOutputStream fout = new FileOutputStream(journalFile, true);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout, 65536));
+		try {
+			if (newJournal) {
+				out.writeInt(JOURNAL_MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeLong(generation);
+			}
+			CRC32 crc = new CRC32();
+			crc.update(batch, 0, batch.length);
+			out.writeInt(batch.length);
+			out.write(batch);
+			out.writeLong(crc.getValue());
+			out.flush();
+			fout.getFD().sync();
+		} finally {
+			FileUtility.close(out, fout);
+		}
+	}
+
+	/**
+	 * Apply every complete batch of the journal. A torn or corrupted batch at
+	 * the end (crash while appending) is cut off.
+	 */
+	private boolean replayJournal() throws IOException {
+		RandomAccessFile journal = new RandomAccessFile(journalFile, "rw");
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal.getFD()), 65536));
+			long validLength;
+			try {
+				if (in.readInt() != JOURNAL_MAGIC || in.readInt() != FORMAT_VERSION || in.readLong() != generation) {
+					// Belong to another snapshot generation, already folded in the snapshot.
+					journal.setLength(0);
+					return false;
+				}
+			} catch (EOFException e) {
+				journal.setLength(0);
+				return false;
+			}
+			validLength = 16;
+			int batches = 0;
+			while (true) {
+				byte[] batch;
+				try {
+					int length = in.readInt();
+					if (length < 0 || length > journal.length()) {
+						break;
+					}
+					batch = new byte[length];
+					in.readFully(batch);
+					CRC32 crc = new CRC32();
+					crc.update(batch, 0, batch.length);
+					if (in.readLong() != crc.getValue()) {
+						break;
+					}
+				} catch (EOFException e) {
+					break;
+				}
+				applyBatch(batch);
+				validLength += 4 + batch.length + 8;
+				batches++;
+			}
+			if (validLength < journal.length()) {
+				Log.logf("Dropped %d bytes of incomplete Starteam file information journal",
+						journal.length() - validLength);
+				journal.setLength(validLength);
+			}
+			return batches > 0;
+		} finally {
+			journal.close();
+		}
+	}
+
+	private void applyBatch(byte[] batch) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(batch));
+		while (in.available() > 0) {
+			byte op = in.readByte();
+			String head = in.readUTF();
+			String filename = in.readUTF();
+			switch (op) {
+			case OP_REGISTER: {
+				int fileId = in.readInt();
+				int fileVersion = in.readInt();
+				int contentVersion = in.readInt();
+				applyRegister(head, filename, fileId, fileVersion, contentVersion, readMd5(in));
+				break;
+			}
+			case OP_UPDATE_VERSION: {
+				int fileVersion = in.readInt();
+				int contentVersion = in.readInt();
+				applyUpdateVersion(head, filename, fileVersion, contentVersion, readMd5(in));
+				break;
+			}
+			case OP_UPDATE_ID:
+				applyUpdateId(head, filename, in.readInt());
+				break;
+			case OP_UNREGISTER:
+				applyUnregister(head, filename);
+				break;
+			default:
+				throw new IOException("Unknown Starteam file information operation " + op);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void migrateLegacy() throws IOException {
+		FileInputStream fin = new FileInputStream(legacyFile);
+		ObjectInputStream objin = null;
+		try {
+			objin = new ObjectInputStream(new BufferedInputStream(fin, 65536));
+			Object tempObject = objin.readObject();
+			if (tempObject instanceof Map) {
+				Map<String, Map<String, StarteamFileInfo>> legacy = (Map<String, Map<String, StarteamFileInfo>>) tempObject;
+				for (Map.Entry<String, Map<String, StarteamFileInfo>> head : legacy.entrySet()) {
+					for (Map.Entry<String, StarteamFileInfo> file : head.getValue().entrySet()) {
+						StarteamFileInfo info = file.getValue();
+						applyRegister(head.getKey(), file.getKey(), info.getId(), info.getVersion(),
+								info.getContentVersion(), info.getMd5());
+					}
+				}
+			}
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		} finally {
+			FileUtility.close(objin, fin);
+		}
+		compact();
+		if (!legacyFile.renameTo(new File(legacyFile.getPath() + ".migrated"))) {
+			legacyFile.delete();
+		}
+		Log.log("Migrated the Starteam file information to " + snapshotFile);
+	}
+
+	private boolean applyRegister(String head, String filename, int fileId, int fileVersion, int contentVersion,
+			byte[] md5) {
+		Map<String, StarteamFileInfo> files = heads.get(head);
+		if (null == files) {
+			files = new HashMap<String, StarteamFileInfo>();
+			heads.put(head, files);
+		}
+		if (files.containsKey(filename)) {
+			return false;
+		}
+		String path = intern(filename);
+		files.put(path, new StarteamFileInfo(path, fileId, fileVersion, contentVersion, md5));
+		return true;
+	}
+
+	private boolean applyUpdateVersion(String head, String filename, int fileVersion, int contentVersion, byte[] md5) {
+		StarteamFileInfo info = get(head, filename);
+		if (null == info) {
+			return false;
+		}
+		info.setVersion(fileVersion);
+		info.setContentVersion(contentVersion);
+		info.setMd5(md5);
+		return true;
+	}
+
+	private boolean applyUpdateId(String head, String filename, int fileId) {
+		StarteamFileInfo info = get(head, filename);
+		if (null == info) {
+			return false;
+		}
+		info.setId(fileId);
+		return true;
+	}
+
+	private boolean applyUnregister(String head, String filename) {
+		Map<String, StarteamFileInfo> files = heads.get(head);
+		return null != files && null != files.remove(filename);
+	}
+
+	private String intern(String path) {
+		String known = paths.get(path);
+		if (null == known) {
+			paths.put(path, path);
+			known = path;
+		}
+		return known;
+	}
+
+	private static void writeMd5(DataOutputStream out, byte[] md5) throws IOException {
+		if (null == md5) {
+			out.writeByte(-1);
+		} else {
+			out.writeByte(md5.length);
+			out.write(md5);
+		}
+	}
+
+	private static byte[] readMd5(DataInputStream in) throws IOException {
+		int length = in.readByte();
+		if (length < 0) {
+			return null;
+		}
+		byte[] md5 = new byte[length];
+		in.readFully(md5);
+		return md5;
+	}
+
+	/**
+	 * Mutations not journaled yet.
+	 */
+	public static final class Batch {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private int count = 0;
+
+		private void reset() {
+			bytes.reset();
+			count = 0;
+		}
+	}
+}
@@ -23,29 +23,68 @@ import java.util.List;
 
 public final class TempFileManager {
 
-	private static TempFileManager Reference = new TempFileManager();
+	// One manager per importing thread, the views imported in parallel each
+	// delete their own files after every commit.
+	private static final ThreadLocal<TempFileManager> Reference = new ThreadLocal<TempFileManager>() {
+		@Override
+		protected TempFileManager initialValue() {
+			return new TempFileManager();
+		}
+	};
 	public static TempFileManager getInstance() {
-		return Reference;
+		return Reference.get();
 	}
 
 	private List<File> tempFiles;
+	private File tempDirectory;
 
 	private TempFileManager() {
 		tempFiles = new ArrayList<File>();
+		// Placing the temporary files on the file system of the repository let
+		// the large files be linked instead of copied.
+		String directory = Config.instance.get("tempDirectory");
+		if (null != directory && directory.trim().length() > 0) {
+			tempDirectory = new File(directory.trim());
+			if (!tempDirectory.isDirectory() && !tempDirectory.mkdirs()) {
+				tempDirectory = null;
+			}
+		}
+	}
+
+	/**
+	 * @return the directory where the temporary files are created, null for
+	 *         the default temporary directory.
+	 */
+	public File getTempDirectory() {
+		return tempDirectory;
 	}
 
 	public File createTempFile(String name, String extension) throws IOException {
-		File ret = File.createTempFile(name, extension);
+		File ret = File.createTempFile(name, extension, tempDirectory);
 		ret.deleteOnExit();
 		tempFiles.add(ret);
 		return ret;
 	}
 
+	/**
+	 * Take ownership of a temporary file created elsewhere so it is deleted
+	 * with the next {@link #deleteTempFiles()}.
+	 */
+	public void registerTempFile(File file) {
+		tempFiles.add(file);
+	}
+
 	public void deleteTempFiles() {
+		List<File> stillUsed = new ArrayList<File>();
 		for(File f : tempFiles) {
-			f.delete();
+			// A file still read by the fast-import writer can't be deleted on
+			// every platform, try again with the next batch.
+			if(!f.delete() && f.exists()) {
+				stillUsed.add(f);
+			}
 		}
 		tempFiles.clear();
+		tempFiles.addAll(stillUsed);
 	}
 
 	public int tempFileCount() {
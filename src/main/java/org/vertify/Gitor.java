@@ -9,6 +9,7 @@ import java.util.Set;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -63,6 +64,23 @@ public class Gitor {
         return brAndtag[1];
     }
 
+    /**
+     * tag 指向的提交
+     * 
+     * @param tag e.g refs/tags/my-tag
+     * @return 提交的 SHA-1
+     * @throws IOException
+     */
+    public String getCommitId(String tag) throws IOException {
+        ObjectId id = repo.resolve(tag);
+        if (id == null) {
+            throw new IOException("没有找到 " + tag + " !!");
+        }
+        try (RevWalk walk = new RevWalk(repo)) {
+            return walk.parseCommit(id).name();
+        }
+    }
+
     private String getCommitIDFromTag(Ref tag) {
         try (RevWalk walk = new RevWalk(repo)) {
             RevCommit commit = walk.parseCommit(tag.getObjectId());
@@ -4,7 +4,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
 import org.sync.GitImporter;
@@ -16,6 +18,7 @@ import com.starbase.starteam.File;
 import com.starbase.starteam.Folder;
 import com.starbase.starteam.Item;
 import com.starbase.starteam.Label;
+import com.starbase.starteam.PropertyNames;
 import com.starbase.starteam.View;
 import com.starbase.starteam.ViewConfiguration;
 
@@ -86,15 +89,76 @@ public class Starteamor {
     }
 
     public void checkoutByLabel(int labelBase, java.io.File localDir) throws IOException {
-        View vc = new View(rootView, ViewConfiguration.createFromLabel(labelBase));
-        CheckoutManager cm = new CheckoutManager(vc);
-        cm.getOptions().setEOLConversionEnabled(false);
-        cm.getOptions().setUpdateStatus(false);
+        View vc = openLabel(labelBase);
+        CheckoutManager cm = newCheckoutManager(vc);
 
         Folder root = vc.getRootFolder();
         doFilePopulation(cm, localDir.getCanonicalPath(), root);
     }
 
+    /**
+     * 打开 label 对应的视图配置，用完后需要 close
+     * 
+     * @param labelId
+     * @return
+     */
+    public View openLabel(int labelId) {
+        return new View(rootView, ViewConfiguration.createFromLabel(labelId));
+    }
+
+    /**
+     * 下载文件内容的 CheckoutManager，不转换换行符
+     * 
+     * @param labelView
+     * @return
+     */
+    public CheckoutManager newCheckoutManager(View labelView) {
+        CheckoutManager cm = new CheckoutManager(labelView);
+        cm.getOptions().setEOLConversionEnabled(false);
+        cm.getOptions().setUpdateStatus(false);
+        return cm;
+    }
+
+    /**
+     * 列出 label 中的所有文件，只获取对比需要的属性，不下载文件内容
+     * 
+     * @param labelView
+     *            label 对应的视图配置
+     * @return key: 文件在 git 中的路径，排除的文件和文件夹不在其中
+     */
+    public Map<String, File> listFiles(View labelView) {
+        Folder root = labelView.getRootFolder();
+        PropertyNames propNames = labelView.getPropertyNames();
+        root.populateNow(root.getTypeNames().FILE, new String[] {
+                propNames.FILE_NAME,
+                propNames.FILE_CONTENT_REVISION,
+                propNames.FILE_MD5_CHECKSUM,
+                propNames.FILE_SIZE }, -1);
+        Map<String, File> files = new LinkedHashMap<>();
+        listFiles(files, "", root);
+        return files;
+    }
+
+    private void listFiles(Map<String, File> files, String basePath, Folder f) {
+        for (Item i : f.getItems(f.getTypeNames().FILE)) {
+            if (i instanceof File) {
+                File file = (File) i;
+                String fileName = file.getName();
+                if (checkExcludeFile(fileName)) {
+                    continue;
+                }
+                files.put(basePath + (basePath.length() > 0 ? "/" : "") + fileName, file);
+            }
+        }
+        for (Folder subfolder : f.getSubFolders()) {
+            String folderName = subfolder.getName();
+            if (checkExcludeFolder(folderName)) {
+                continue;
+            }
+            listFiles(files, basePath + (basePath.length() > 0 ? "/" : "") + folderName, subfolder);
+        }
+    }
+
     private void doFilePopulation(CheckoutManager cm, String basePath, Folder f) throws IOException {
         for (Item i : f.getItems(f.getTypeNames().FILE)) {
             if (i instanceof File) {
@@ -0,0 +1,195 @@
+package org.vertify;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import com.starbase.starteam.CheckoutManager;
+import com.starbase.starteam.File;
+
+/**
+ * 不签出文件的对比器。
+ * 遍历 tag 的 tree，将每个 blob 的 MD5 与 st 记录的 MD5 对比，只有不一致时才下载 st 的文件内容逐字节对比，
+ * git 的工作区和本地磁盘都不会用到。
+ *
+ * 不是线程安全的，每个线程使用自己的实例
+ *
+ * @author Yukai
+ *
+ */
+public class TreeComparator {
+    private static final int BUFFER_SIZE = 128 * 1024;// 128k
+    // 导入时生成的属性文件，st 中没有
+    private static final String ATTRIBUTES = ".gitattributes";
+
+    private final Repository repo;
+    private final MessageDigest md5;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int compared;
+    private int downloaded;
+
+    public TreeComparator(Repository repo) {
+        this.repo = repo;
+        try {
+            this.md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 对比 tag 与 st label 中的文件
+     *
+     * @param tag
+     *            e.g refs/tags/branch/label
+     * @param files
+     *            label 中的文件，key 为文件在 git 中的路径
+     * @param cm
+     *            MD5 不一致时下载 st 文件内容
+     * @return 不一致的文件说明，一致时为空
+     * @throws IOException
+     */
+    public List<String> compare(String tag, Map<String, File> files, CheckoutManager cm) throws IOException {
+        List<String> differences = new ArrayList<>();
+        Set<String> found = new HashSet<>();
+        compared = 0;
+        downloaded = 0;
+        ObjectId tagId = repo.resolve(tag);
+        if (tagId == null) {
+            throw new IOException("没有找到 " + tag + " !!");
+        }
+        try (ObjectReader reader = repo.newObjectReader();
+                RevWalk walk = new RevWalk(reader);
+                TreeWalk treeWalk = new TreeWalk(reader)) {
+            RevCommit commit = walk.parseCommit(tagId);
+            treeWalk.addTree(commit.getTree());
+            treeWalk.setRecursive(true);
+            while (treeWalk.next()) {
+                if (FileMode.GITLINK.equals(treeWalk.getRawMode(0))) {
+                    continue;
+                }
+                String path = treeWalk.getPathString();
+                File stFile = files.get(path);
+                if (stFile == null) {
+                    if (!ATTRIBUTES.equals(path)) {
+                        differences.add(path + " 只存在于 git 中");
+                    }
+                    continue;
+                }
+                found.add(path);
+                compared++;
+                if (!isContentEqual(reader, treeWalk.getObjectId(0), stFile, cm)) {
+                    differences.add(path + " 内容不一致");
+                }
+            }
+        }
+        for (String path : files.keySet()) {
+            if (!found.contains(path)) {
+                differences.add(path + " 只存在于 starteam 中");
+            }
+        }
+        return differences;
+    }
+
+    /**
+     * @return 上次对比的文件数
+     */
+    public int getCompared() {
+        return compared;
+    }
+
+    /**
+     * @return 上次对比中 MD5 不一致、下载了内容的文件数
+     */
+    public int getDownloaded() {
+        return downloaded;
+    }
+
+    private boolean isContentEqual(ObjectReader reader, ObjectId blobId, File stFile, CheckoutManager cm)
+            throws IOException {
+        ObjectLoader blob = reader.open(blobId, Constants.OBJ_BLOB);
+        byte[] stMd5 = stFile.getMD5();
+        if (stMd5 != null && blob.getSize() == stFile.getSizeEx() && Arrays.equals(stMd5, digest(blob))) {
+            return true;
+        }
+        // MD5 不一致，可能是关键字展开等原因，下载内容对比
+        downloaded++;
+        try (InputStream blobStream = blob.openStream()) {
+            ComparingStream stContent = new ComparingStream(blobStream);
+            cm.checkoutTo(stFile, stContent);
+            return stContent.isEqual();
+        }
+    }
+
+    /**
+     * 流式计算 blob 的 MD5，大文件不会全部读入内存
+     */
+    private byte[] digest(ObjectLoader blob) throws IOException {
+        md5.reset();
+        try (InputStream in = blob.openStream()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                md5.update(buffer, 0, read);
+            }
+        }
+        return md5.digest();
+    }
+
+    /**
+     * 将写入的 st 文件内容与 blob 的内容逐字节对比
+     */
+    private class ComparingStream extends OutputStream {
+        private final InputStream blob;
+        private boolean equal = true;
+
+        ComparingStream(InputStream blob) {
+            this.blob = blob;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (equal && len > 0) {
+                int read = blob.read(buffer, 0, Math.min(len, buffer.length));
+                if (read == -1) {// st 的内容更长
+                    equal = false;
+                    return;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != b[off + i]) {
+                        equal = false;
+                        return;
+                    }
+                }
+                off += read;
+                len -= read;
+            }
+        }
+
+        boolean isEqual() throws IOException {
+            return equal && blob.read() == -1;
+        }
+    }
+}
@@ -2,7 +2,6 @@ package org.vertify;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -14,8 +13,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
-import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ListBranchCommand;
 import org.eclipse.jgit.api.ListBranchCommand.ListMode;
@@ -25,10 +24,12 @@ import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.sync.Log;
+import org.sync.util.Config;
 
 import com.starbase.starteam.Project;
 import com.starbase.starteam.Server;
 import com.starbase.starteam.View;
+import com.starbase.starteam.ViewConfiguration;
 
 /**
  * 验证 git-starteam 导入的正确性。 
@@ -38,54 +39,108 @@ import com.starbase.starteam.View;
  *
  */
 public class Verify {
+    // 导入时保存 st 信息的目录
+    private static final String STARTEAM_INFO_DIR = "starteam";
+
     private Gitor gitor;
     private Starteamor stor;
     private Repository repo;
+    private File gitDir;
+    // 并行对比的视图数
+    private int threads;
+    // 已验证的 tag 记录
+    private VerifyLedger ledger;
+    // 是否重新验证所有 tag
+    private boolean full;
     
     public Verify(String gitProject, View stRootView) throws IOException {
         try {
-            repo = new FileRepositoryBuilder().setGitDir(new File(gitProject)).build();
+            gitDir = new File(gitProject);
+            repo = new FileRepositoryBuilder().setGitDir(gitDir).build();
         } catch (IOException e) {
             throw new IOException("不是有效的git仓库！", e);
         }
         this.gitor = new Gitor(repo);
         this.stor = new Starteamor(stRootView);
+        this.threads = Integer.parseInt(Config.instance.get("verifyThreads", "1"));
+        this.ledger = new VerifyLedger(new File(gitDir, STARTEAM_INFO_DIR));
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param full
+     *            为 true 时重新验证所有 tag，否则只验证新增的和指向其他提交的 tag
+     */
+    public void setFull(boolean full) {
+        this.full = full;
     }
 
     public void verify() {
         Log.log(">>>>>>>>>>>>>>>>Start Verify>>>>>>>>>>>>>>>>>>>");
+        try {
+            ledger.load();
+        } catch (IOException e) {
+            Log.log("Could not read the verify ledger, verifying all the labels: " + e.getMessage());
+        }
         // 获取所有分支 和 label
         HashMap<String, List<String>> branchLabels = gitor.getBranchLabels();
-        // TODO 考虑使用多线程并发
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        CompletionService<Boolean> completionService = new ExecutorCompletionService<Boolean>(executor); 
+        // 每个线程使用自己的 git 仓库和 st 视图，互不影响
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            private int counter = 0;
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread worker = new Thread(r, "verify-" + (++counter));
+                worker.setDaemon(true);
+                return worker;
+            }
+        });
+        CompletionService<List<LabelResult>> completionService = new ExecutorCompletionService<List<LabelResult>>(executor); 
         
-        List<View> allViews = stor.getAllViews();
-        for (View view : allViews) {
+        int submitted = 0;
+        for (View view : stor.getAllViews()) {
             String viewName = view.getName();
             if (branchLabels.containsKey(viewName)) {// 分支名与视图名一致
                 List<String> tags = branchLabels.get(viewName);
-                completionService.submit(new BrViewCompartor(gitor.getRepo(), view, tags));
+                completionService.submit(new BrViewCompartor(gitDir, view, tags));
+                submitted++;
             } else {
                 Log.log(viewName + " not imported!");
             }
         }
-        for (int i = 0; i < allViews.size(); i++) {
-            String vname = allViews.get(i).getName();
+        List<LabelResult> failed = new ArrayList<>();
+        for (int i = 0; i < submitted; i++) {
             try {
-                if (completionService.take().get()) {
-                    Log.log(vname + " impoted correct!");
-                } else {
-                    Log.log(vname + " impoted uncorrect!!!");
+                List<LabelResult> results = completionService.take().get();
+                boolean isEqual = true;
+                for (LabelResult result : results) {
+                    if (!result.isEqual()) {
+                        isEqual = false;
+                        failed.add(result);
+                    }
                 }
+                if (!results.isEmpty()) {
+                    Log.log(results.get(0).view + (isEqual ? " impoted correct!" : " impoted uncorrect!!!"));
+                }
+                ledger.save();
             } catch (InterruptedException e) {
                 Log.log(e.getMessage());
+                Thread.currentThread().interrupt();
+                break;
             } catch (ExecutionException e) {
                 e.printStackTrace();
+            } catch (IOException e) {
+                Log.log("Could not save the verify ledger: " + e.getMessage());
             }
         }
         executor.shutdown();
-        gitor.checkout(stor.getViewName());
+        Log.log(">>>>>>>>>>>>>>>>Verify End>>>>>>>>>>>>>>>>>>>>>");
+        for (LabelResult result : failed) {
+            Log.log("View：" + result.view + ", label：" + result.tag + " is not Equal！");
+        }
         dispose();
     }
     
@@ -96,54 +151,120 @@ public class Verify {
     }
 
     /**
-     * st视图与git分支的对比
+     * 一个 label 的对比结果
+     */
+    public static class LabelResult {
+        private final String view;
+        private final String tag;
+        private int compared;
+        private int downloaded;
+        private final List<String> differences = new ArrayList<>();
+
+        LabelResult(String view, String tag) {
+            this.view = view;
+            this.tag = tag;
+        }
+
+        public String getView() {
+            return view;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        public int getCompared() {
+            return compared;
+        }
+
+        public int getDownloaded() {
+            return downloaded;
+        }
+
+        public List<String> getDifferences() {
+            return differences;
+        }
+
+        public boolean isEqual() {
+            return differences.isEmpty();
+        }
+    }
+
+    /**
+     * st视图与git分支的对比，在自己的线程中打开 git 仓库和 st 视图，不签出文件
      * 
      * @author Yukai
      *
      */
-    class BrViewCompartor implements Callable<Boolean> {
-        private Gitor gitor;
-        private Starteamor stor;
+    class BrViewCompartor implements Callable<List<LabelResult>> {
+        private File gitDir;
+        private View view;
         private List<String> tags;
 
-        public BrViewCompartor(Repository repo, View view, List<String> tags) {
+        public BrViewCompartor(File gitDir, View view, List<String> tags) {
+            this.gitDir = gitDir;
+            this.view = view;
             this.tags = tags;
-            this.gitor = new Gitor(repo);
-            this.stor = new Starteamor(view);
         }
 
         @Override
-        public Boolean call() throws Exception {
-            boolean isEqual = true;
-            String currentLabel = null;
-            File tempStDir = null;
+        public List<LabelResult> call() throws Exception {
+            List<LabelResult> results = new ArrayList<>();
+            Repository workerRepo = new FileRepositoryBuilder().setGitDir(gitDir).build();
+            Gitor workerGitor = new Gitor(workerRepo);
+            Starteamor workerStor = null;
             try {
-                Log.log("Verify View: " + this.stor.getViewName());
+                workerStor = new Starteamor(new View(view, ViewConfiguration.createTip()));
+                TreeComparator comparator = new TreeComparator(workerRepo);
+                String viewName = workerStor.getViewName();
+                Log.log("Verify View: " + viewName);
+                int skipped = 0;
                 for (String tag : tags) {
-                    currentLabel = tag;
-                    Log.log(" label: " + currentLabel);
-                    // git 仓库 check 到指定tag
-                    this.gitor.checkout(tag);
-                    // 下载st对应view的指定tag
-                    tempStDir = Files.createTempDirectory(this.gitor.getTagOnly(tag) + "_").toFile();
-                    this.stor.checkoutByLabel(
-                            this.stor.getLabelIdByName(this.gitor.getTagOnly(tag)),
-                            tempStDir);
-                    // 对比文件夹
+                    LabelResult result = new LabelResult(viewName, tag);
+                    // 直接对比 tag 的 tree 与 st label 的 MD5，不签出文件
+                    View labelView = null;
+                    String commitId = null;
+                    int labelId = -1;
                     try {
-                        Comparators.isDirsAreEqual(this.gitor.getRepo().getWorkTree(), tempStDir);
-                    } catch (IOException e) {
-                        isEqual = false;
-                        Log.log("View：" + this.stor.getViewName() + ", label：" + currentLabel + " is not Equal！");
-                        Log.log(e.getMessage());
+                        commitId = workerGitor.getCommitId(tag);
+                        labelId = workerStor.getLabelIdByName(Gitor.getTagOnly(tag));
+                        if (!full && ledger.isVerified(tag, commitId, labelId)) {
+                            skipped++;
+                            continue;
+                        }
+                        labelView = workerStor.openLabel(labelId);
+                        result.differences.addAll(comparator.compare(tag, workerStor.listFiles(labelView),
+                                workerStor.newCheckoutManager(labelView)));
+                        result.compared = comparator.getCompared();
+                        result.downloaded = comparator.getDownloaded();
+                    } catch (IOException | RuntimeException e) {
+                        result.differences.add(e.toString());
+                    } finally {
+                        if (labelView != null) {
+                            labelView.close();
+                        }
+                    }
+                    results.add(result);
+                    if (commitId != null && labelId >= 0) {
+                        ledger.record(tag, commitId, labelId, result.isEqual());
+                    }
+                    Log.log(" label: " + tag + ", " + result.compared + " files, " + result.downloaded + " downloaded, "
+                            + (result.isEqual() ? "equal" : "not equal"));
+                    for (String difference : result.differences) {
+                        Log.log("  " + difference);
                     }
-                    try {FileUtils.deleteDirectory(tempStDir);} catch (IOException e) {}
+                }
+                if (skipped > 0) {
+                    Log.log("View: " + viewName + ", " + skipped + " labels already verified");
                 }
             } finally {
-                this.stor.dispose();
-                this.gitor.dispose();
+                workerGitor.dispose();
+                if (workerStor != null) {
+                    workerStor.dispose();
+                }
+                workerRepo.close();
             }
-            return isEqual;
+            return results;
         }
 
     }
@@ -0,0 +1,121 @@
+package org.vertify;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 验证记录，保存在 git 仓库的 starteam 目录下。
+ * 每个 tag 记录验证时指向的提交、对应的 st label、验证时间和结果，
+ * 之后的验证只需要对比新增的 tag 和指向了其他提交的 tag。
+ *
+ * 文件每行一个 tag： tag \t 提交 \t labelId \t 验证时间 \t 结果
+ *
+ * @author Yukai
+ *
+ */
+public class VerifyLedger {
+    private static final String LEDGER_FILE = "verify-ledger.txt";
+    private static final String EQUAL = "equal";
+    private static final String NOT_EQUAL = "not-equal";
+
+    private final File file;
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    public VerifyLedger(File starteamDirectory) {
+        this.file = new File(starteamDirectory, LEDGER_FILE);
+    }
+
+    /**
+     * 读取之前的验证记录，文件不存在时为空
+     *
+     * @throws IOException
+     */
+    public synchronized void load() throws IOException {
+        entries.clear();
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 5) {// 写入时中断的行
+                    continue;
+                }
+                try {
+                    entries.put(fields[0], new Entry(fields[1], Integer.parseInt(fields[2]),
+                            Long.parseLong(fields[3]), EQUAL.equals(fields[4])));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+            }
+        }
+    }
+
+    /**
+     * tag 是否已经验证通过，且之后没有指向其他提交或 label
+     *
+     * @param tag
+     *            e.g refs/tags/branch/label
+     * @param commitId
+     *            tag 当前指向的提交
+     * @param labelId
+     *            tag 对应的 st label
+     * @return
+     */
+    public synchronized boolean isVerified(String tag, String commitId, int labelId) {
+        Entry entry = entries.get(tag);
+        return entry != null && entry.equal && entry.commitId.equals(commitId) && entry.labelId == labelId;
+    }
+
+    public synchronized void record(String tag, String commitId, int labelId, boolean equal) {
+        entries.put(tag, new Entry(commitId, labelId, System.currentTimeMillis(), equal));
+    }
+
+    /**
+     * 先写入临时文件再替换，中断时不会丢失之前的记录
+     *
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getPath() + ".new");
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                writer.write(e.getKey() + "\t" + entry.commitId + "\t" + entry.labelId + "\t" + entry.verifiedAt
+                        + "\t" + (entry.equal ? EQUAL : NOT_EQUAL) + "\n");
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Entry {
+        private final String commitId;
+        private final int labelId;
+        private final long verifiedAt;
+        private final boolean equal;
+
+        Entry(String commitId, int labelId, long verifiedAt, boolean equal) {
+            this.commitId = commitId;
+            this.labelId = labelId;
+            this.verifiedAt = verifiedAt;
+            this.equal = equal;
+        }
+    }
+}
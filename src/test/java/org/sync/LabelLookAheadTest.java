@@ -0,0 +1,170 @@
+/*****************************************************************************
+    This file is part of Git-Starteam.
+
+    Git-Starteam is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Git-Starteam is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Git-Starteam.  If not, see <http://www.gnu.org/licenses/>.
+******************************************************************************/
+package org.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.sync.starteam.ReplayStarteamSource;
+import org.sync.starteam.StarteamSource;
+import org.sync.util.TempFileManager;
+
+import com.starbase.starteam.View;
+
+/**
+ * Import the labels of a replayed view with and without populating them ahead
+ * and check that both give the same tags, when a checkout fails once.
+ */
+public class LabelLookAheadTest {
+
+	private final List<File> directories = new ArrayList<File>();
+
+	@After
+	public void tearDown() throws IOException {
+		RepositoryHelperFactory.deleteFactory();
+		for (File directory : directories) {
+			delete(directory);
+		}
+	}
+
+	@Test
+	public void retriesFailedCheckoutInNextLabel() throws Exception {
+		// A.java keeps the content 2 in the labels L11 and L12, its checkout
+		// fails in L11 and is retried by L12
+		FailingSource source = new FailingSource(archive(), 1000, 2);
+		List<String> expected = importLabels(source, 0);
+		assertTrue(source.failed);
+
+		source = new FailingSource(archive(), 1000, 2);
+		List<String> tags = importLabels(source, 2);
+		assertTrue(source.failed);
+		assertEquals(expected, tags);
+	}
+
+	private List<String> importLabels(ReplayStarteamSource source, int lookAhead) throws IOException {
+		File workFolder = Files.createTempDirectory("lookahead").toFile();
+		directories.add(workFolder);
+		StarteamSource.setInstance(source);
+		RepositoryHelperFactory.deleteFactory();
+		RepositoryHelperFactory.getFactory().setCreateRepo(true);
+		RepositoryHelperFactory.getFactory().setWorkingFolder(workFolder.getPath());
+
+		GitImporter importer = new GitImporter(null, null);
+		importer.setDomain("db.org");
+		importer.setUserMapping(new UserMapping((String) null));
+		importer.setCheckoutThreads(1, 0);
+		importer.setLabelLookAhead(lookAhead);
+		try {
+			importer.generateAllViewsImport(null, source.findView("main"), null, null);
+		} finally {
+			importer.dispose();
+			TempFileManager.getInstance().deleteTempFiles();
+		}
+		return git(workFolder, "for-each-ref", "--format=%(refname) %(*tree)", "refs/tags");
+	}
+
+	private File archive() throws URISyntaxException {
+		return new File(getClass().getResource("replay/archive.txt").toURI()).getParentFile();
+	}
+
+	private static List<String> git(File workFolder, String... args) throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add("git");
+		command.add("--git-dir=" + new File(workFolder, ".git").getPath());
+		Collections.addAll(command, args);
+		Process git = new ProcessBuilder(command).redirectErrorStream(true).start();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		InputStream in = git.getInputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			output.write(buffer, 0, read);
+		}
+		try {
+			assertEquals(0, git.waitFor());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		List<String> lines = new ArrayList<String>();
+		for (String line : output.toString("UTF-8").split("\n")) {
+			if (!line.isEmpty()) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (null != children) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * Replay of the archive where the first checkout of a content fails.
+	 */
+	private static class FailingSource extends ReplayStarteamSource {
+		private final int itemId;
+		private final int contentVersion;
+		private boolean failed = false;
+
+		private FailingSource(File directory, int itemId, int contentVersion) throws IOException {
+			super(directory);
+			this.itemId = itemId;
+			this.contentVersion = contentVersion;
+		}
+
+		@Override
+		public Checkout openCheckout(View view) {
+			final Checkout checkout = super.openCheckout(view);
+			return new Checkout() {
+				@Override
+				public void checkoutTo(com.starbase.starteam.File file, File target) throws IOException {
+					synchronized (FailingSource.this) {
+						if (!failed && file.getItemID() == itemId && file.getContentVersion() == contentVersion) {
+							failed = true;
+							throw new IOException("Checkout failure injected");
+						}
+					}
+					checkout.checkoutTo(file, target);
+				}
+
+				@Override
+				public boolean isKeywordExpansionEnabled() {
+					return checkout.isKeywordExpansionEnabled();
+				}
+			};
+		}
+	}
+}